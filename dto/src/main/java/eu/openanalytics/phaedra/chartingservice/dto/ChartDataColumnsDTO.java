@@ -0,0 +1,49 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Columnar form of chart data: one entry per well in every column, in the same order.
+ * Well types, statuses and substances are dictionary-encoded, feature values are keyed by feature name.
+ */
+@Data
+@NoArgsConstructor
+@Builder
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChartDataColumnsDTO {
+    private long[] wellIds;
+    private long[] plateIds;
+    private int[] rows;
+    private int[] columns;
+    private CategoricalColumnDTO wellTypes;
+    private CategoricalColumnDTO wellStatuses;
+    private CategoricalColumnDTO wellSubstances;
+    private Map<String, float[]> features;
+}
@@ -20,6 +20,8 @@
  */
 package eu.openanalytics.phaedra.chartingservice;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import eu.openanalytics.phaedra.plateservice.client.config.PlateServiceClientAutoConfiguration;
 import eu.openanalytics.phaedra.protocolservice.client.config.ProtocolServiceClientAutoConfiguration;
 import eu.openanalytics.phaedra.resultdataservice.client.config.ResultDataServiceClientAutoConfiguration;
@@ -38,15 +40,17 @@ import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
 import org.springframework.core.env.Environment;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.web.SecurityFilterChain;
 
 import javax.servlet.ServletContext;
 import javax.sql.DataSource;
 import java.time.Clock;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @EnableWebSecurity
 @SpringBootApplication
@@ -82,12 +86,23 @@ public class ChartingServiceApplication {
             throw new RuntimeException("Unsupported database type: " + url);
         }
 
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
-        dataSource.setDriverClassName(driverClassName);
-        dataSource.setUrl(url);
-        dataSource.setUsername(username);
-        dataSource.setPassword(password);
-        return dataSource;
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("charting-db");
+        config.setDriverClassName(driverClassName);
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(environment.getProperty("DB_POOL_MAX_SIZE", Integer.class, 10));
+        config.setMinimumIdle(environment.getProperty("DB_POOL_MIN_IDLE", Integer.class, 2));
+        config.setConnectionTimeout(environment.getProperty("DB_POOL_CONNECTION_TIMEOUT_MS", Long.class, 30_000L));
+        config.setIdleTimeout(environment.getProperty("DB_POOL_IDLE_TIMEOUT_MS", Long.class, 600_000L));
+        config.setMaxLifetime(environment.getProperty("DB_POOL_MAX_LIFETIME_MS", Long.class, 1_800_000L));
+        if (url.startsWith("jdbc:postgresql:")) {
+            //Let the driver turn JDBC insert batches into multi-row inserts
+            config.addDataSourceProperty("reWriteBatchedInserts", "true");
+        }
+        //Pool metrics (hikaricp.*) are bound by Spring Boot for HikariDataSource beans
+        return new HikariDataSource(config);
     }
 
     @Bean
@@ -112,6 +127,13 @@ public class ChartingServiceApplication {
         return AuthenticationConfigHelper.configure(http);
     }
 
+    @Bean
+    public ExecutorService chartRenderExecutor() {
+        int threads = environment.getProperty("phaedra2.charting.render.threads", Integer.class, Runtime.getRuntime().availableProcessors());
+        // Charts may call upstream services, which authenticate with the security context of the request
+        return new DelegatingSecurityContextExecutorService(Executors.newFixedThreadPool(threads));
+    }
+
     @Bean
     public Clock clock() {
         return Clock.systemDefaultZone();
@@ -20,36 +20,115 @@
  */
 package eu.openanalytics.phaedra.chartingservice.api;
 
-import eu.openanalytics.phaedra.chartingservice.dto.ChartDataDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.PartialResult;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
 import eu.openanalytics.phaedra.chartingservice.service.ChartDataService;
+import eu.openanalytics.phaedra.chartingservice.service.ExecutionProfile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @RestController
 public class ChartDataController {
 
+    private static final String FORMAT_ROWS = "rows";
+    private static final String FORMAT_COLUMNAR = "columnar";
+    private static final byte[] DATA_JSON = "{\"data\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERRORS_JSON = ",\"errors\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL_JSON = "null".getBytes(StandardCharsets.UTF_8);
+
     private final ChartDataService chartDataService;
+    private final ObjectMapper objectMapper;
+    private final ChartResponseEncoder chartResponseEncoder;
 
-    public ChartDataController(ChartDataService chartDataService) {
+    public ChartDataController(ChartDataService chartDataService, ObjectMapper objectMapper, ChartResponseEncoder chartResponseEncoder) {
         this.chartDataService = chartDataService;
+        this.objectMapper = objectMapper;
+        this.chartResponseEncoder = chartResponseEncoder;
     }
 
-    //Get chart data for given plate ids and type
-    @GetMapping(value = "/chartdata/{type}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<ChartDataDTO>> getChartData(@PathVariable String type, @RequestParam List<Long> plateIds) throws ChartDataException {
-        List<ChartDataDTO> chartData = chartDataService.getChartDataByPlateIds(plateIds, type);
+    //Get chart data for given plate ids and type, optionally restricted to the wells matching a filter
+    //The columnar format sends every column once, with categorical columns (well type, status, substance) dictionary-encoded
+    //With partial=true, plates that cannot be resolved are left out instead of failing the request: the response is {"data": ..., "errors": [{"plateId": ..., "message": ...}]}
+    //Clients that accept CBOR or Smile get the chart data in that encoding instead of JSON, except for partial responses
+    @GetMapping(value = "/chartdata/{type}", produces = {MediaType.APPLICATION_JSON_VALUE, ChartResponseEncoder.APPLICATION_CBOR_VALUE, ChartResponseEncoder.APPLICATION_SMILE_VALUE})
+    public ResponseEntity<byte[]> getChartData(@PathVariable String type, @RequestParam List<Long> plateIds, @RequestParam(required = false) String filter,
+                                               @RequestParam(defaultValue = FORMAT_ROWS) String format, @RequestParam(defaultValue = "false") boolean partial,
+                                               @RequestHeader(value = ExecutionProfile.HEADER, defaultValue = "false") boolean profiled,
+                                               @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) throws ChartDataException {
+        if (!profiled) return getChartData(type, plateIds, filter, format, partial, accept);
+
+        //The execution profile of the request is returned as JSON in a response header
+        ExecutionProfile profile = new ExecutionProfile();
+        ResponseEntity<byte[]> response;
+        try (ExecutionProfile.Scope scope = profile.activate()) {
+            response = getChartData(type, plateIds, filter, format, partial, accept);
+        }
+        try {
+            return ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .header(ExecutionProfile.HEADER, objectMapper.writeValueAsString(profile.toMap()))
+                    .body(response.getBody());
+        } catch (JsonProcessingException e) {
+            throw new ChartDataException("Execution profile could not be serialized: " + e.getMessage());
+        }
+    }
+
+    private ResponseEntity<byte[]> getChartData(String type, List<Long> plateIds, String filter, String format, boolean partial, String accept) throws ChartDataException {
+        if (partial) {
+            PartialResult<? extends RenderedResult<?>> chartData;
+            if (FORMAT_ROWS.equals(format)) {
+                chartData = chartDataService.renderChartDataByPlateIdsPartially(plateIds, type, filter);
+            } else if (FORMAT_COLUMNAR.equals(format)) {
+                chartData = chartDataService.renderChartDataColumnsByPlateIdsPartially(plateIds, type, filter);
+            } else {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(toJson(chartData));
+        }
+
+        //The chart data is served as pre-serialized JSON, straight from the chart result cache
+        RenderedResult<?> chartData;
+        if (FORMAT_ROWS.equals(format)) {
+            chartData = chartDataService.renderChartDataByPlateIds(plateIds, type, filter);
+        } else if (FORMAT_COLUMNAR.equals(format)) {
+            chartData = chartDataService.renderChartDataColumnsByPlateIds(plateIds, type, filter);
+        } else {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         if (chartData != null) {
-            return new ResponseEntity<>(chartData, HttpStatus.OK);
+            return chartResponseEncoder.render(accept, chartData);
         } else {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
     }
+
+    private byte[] toJson(PartialResult<? extends RenderedResult<?>> chartData) throws ChartDataException {
+        //The cached chart data payload is embedded as is
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try {
+            json.write(DATA_JSON);
+            json.write(chartData.getResult() == null ? NULL_JSON : chartData.getResult().getJson());
+            json.write(ERRORS_JSON);
+            json.write(objectMapper.writeValueAsBytes(chartData.getErrors()));
+            json.write('}');
+        } catch (IOException e) {
+            throw new ChartDataException("Chart data errors could not be serialized: " + e.getMessage());
+        }
+        return json.toByteArray();
+    }
 }
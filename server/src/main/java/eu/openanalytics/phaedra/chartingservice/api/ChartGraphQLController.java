@@ -20,335 +20,82 @@
  */
 package eu.openanalytics.phaedra.chartingservice.api;
 
+import eu.openanalytics.phaedra.chartingservice.dto.PlateErrorDTO;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
 import eu.openanalytics.phaedra.chartingservice.model.Chart;
-import eu.openanalytics.phaedra.chartingservice.model.ChartData;
-import eu.openanalytics.phaedra.chartingservice.model.ChartLayout;
-import eu.openanalytics.phaedra.plateservice.client.PlateServiceClient;
-import eu.openanalytics.phaedra.plateservice.client.exception.PlateUnresolvableException;
-import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
-import eu.openanalytics.phaedra.protocolservice.client.ProtocolServiceClient;
-import eu.openanalytics.phaedra.protocolservice.client.exception.FeatureUnresolvableException;
-import eu.openanalytics.phaedra.protocolservice.dto.FeatureDTO;
-import eu.openanalytics.phaedra.resultdataservice.client.ResultDataServiceClient;
-import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultDataUnresolvableException;
-import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultSetUnresolvableException;
-import eu.openanalytics.phaedra.resultdataservice.dto.ResultDataDTO;
-import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
-import org.apache.commons.lang3.ArrayUtils;
+import eu.openanalytics.phaedra.chartingservice.model.PartialResult;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.chartingservice.service.ChartService;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.schema.DataFetchingEnvironment;
 import org.springframework.graphql.data.method.annotation.Argument;
 import org.springframework.graphql.data.method.annotation.QueryMapping;
 import org.springframework.stereotype.Controller;
 
-import java.util.*;
-import java.util.stream.IntStream;
-
-import static java.lang.Float.*;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Controller
 public class ChartGraphQLController {
 
-    private final ProtocolServiceClient protocolServiceClient;
-    private final ResultDataServiceClient resultDataServiceClient;
-    private final PlateServiceClient plateServiceClient;
+    private final ChartService chartService;
 
-    public ChartGraphQLController(ProtocolServiceClient protocolServiceClient, ResultDataServiceClient resultDataServiceClient, PlateServiceClient plateServiceClient) {
-        this.protocolServiceClient = protocolServiceClient;
-        this.resultDataServiceClient = resultDataServiceClient;
-        this.plateServiceClient = plateServiceClient;
+    public ChartGraphQLController(ChartService chartService) {
+        this.chartService = chartService;
     }
 
     @QueryMapping
-    public Chart scatterPlot(@Argument long plateId, @Argument long protocolId, @Argument long xFeatureId, @Argument long yFeatureId, @Argument String groupBy) throws ResultSetUnresolvableException, ResultDataUnresolvableException, PlateUnresolvableException, FeatureUnresolvableException {
-        ResultSetDTO latestResultSet = resultDataServiceClient.getLatestResultSetByPlateIdAndProtocolId(plateId, protocolId);
-
-        ResultDataDTO xResultData = resultDataServiceClient.getResultData(latestResultSet.getId(), xFeatureId);
-        ResultDataDTO yResultData = resultDataServiceClient.getResultData(latestResultSet.getId(), yFeatureId);
-
-        List<WellDTO> wells = plateServiceClient.getWells(plateId);
-
-        Map<String, ChartData> groupByMap = new HashMap<>();
-
-        IntStream.range(0, wells.size()).forEach(i -> {
-            if ("welltype".equalsIgnoreCase(groupBy)) {
-                String wellType = wells.get(i).getWellType();
-                if (!groupByMap.containsKey(wellType)) {
-                    groupByMap.put(wellType, ChartData.builder()
-                            .mode("markers")
-                            .type("scatter")
-                            .name(wellType)
-                            .xValue(new ArrayList<>())
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(wellType).getXValue().add(valueOf(xResultData.getValues()[i]));
-                groupByMap.get(wellType).getYValue().add(valueOf(yResultData.getValues()[i]));
-            } else if (groupBy.equalsIgnoreCase("substance")) {
-                String substanceName = wells.get(i).getWellSubstance().getName();
-                if (!groupByMap.containsKey(substanceName)) {
-                    groupByMap.put(substanceName, ChartData.builder()
-                            .mode("markers")
-                            .type("scatter")
-                            .name(substanceName)
-                            .xValue(new ArrayList<>())
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(substanceName).getXValue().add(valueOf(xResultData.getValues()[i]));
-                groupByMap.get(substanceName).getYValue().add(valueOf(yResultData.getValues()[i]));
-            } else if ("row".equalsIgnoreCase(groupBy)) {
-                String row = wells.get(i).getRow().toString();
-                if (!groupByMap.containsKey(row)) {
-                    groupByMap.put(row, ChartData.builder()
-                            .mode("markers")
-                            .type("scatter")
-                            .name(row)
-                            .xValue(new ArrayList<>())
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(row).getXValue().add(valueOf(xResultData.getValues()[i]));
-                groupByMap.get(row).getYValue().add(valueOf(yResultData.getValues()[i]));
-            } else if ("column".equalsIgnoreCase(groupBy)) {
-                String column = wells.get(i).getColumn().toString();
-                if (!groupByMap.containsKey(column)) {
-                    groupByMap.put(column, ChartData.builder()
-                            .mode("markers")
-                            .type("scatter")
-                            .name(column)
-                            .xValue(new ArrayList<>())
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(column).getXValue().add(valueOf(xResultData.getValues()[i]));
-                groupByMap.get(column).getYValue().add(valueOf(yResultData.getValues()[i]));
-            } else if ("status".equalsIgnoreCase(groupBy)) {
-                String wellStatus = wells.get(i).getStatus().name();
-                if (!groupByMap.containsKey(wellStatus)) {
-                    groupByMap.put(wellStatus, ChartData.builder()
-                            .mode("markers")
-                            .type("scatter")
-                            .name(wellStatus)
-                            .xValue(new ArrayList<>())
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(wellStatus).getXValue().add(valueOf(xResultData.getValues()[i]));
-                groupByMap.get(wellStatus).getYValue().add(valueOf(yResultData.getValues()[i]));
-            } else {
-                if (!groupByMap.containsKey(groupBy)) {
-                    groupByMap.put(groupBy, ChartData.builder()
-                            .mode("markers")
-                            .type("scatter")
-                            .name(groupBy)
-                            .xValue(new ArrayList<>())
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(groupBy).getXValue().add(valueOf(xResultData.getValues()[i]));
-                groupByMap.get(groupBy).getYValue().add(valueOf(yResultData.getValues()[i]));
-            }
-        });
-
-        FeatureDTO xFeature = protocolServiceClient.getFeature(xFeatureId);
-        FeatureDTO yFeature = protocolServiceClient.getFeature(yFeatureId);
-
-        Chart chart = new Chart();
-        chart.setData(groupByMap.values().toArray(ChartData[]::new));
-        chart.setLayout(ChartLayout.builder()
-                .chartTitle(String.format("Plate Scatter Plot"))
-                .xAxisLabel(xFeature.getName())
-                .yAxisLabel(yFeature.getName())
-                .build());
-
-        return chart;
+    public Chart scatterPlot(@Argument long plateId, @Argument long protocolId, @Argument long xFeatureId, @Argument long yFeatureId, @Argument String groupBy, @Argument String filter) throws ChartDataException {
+        return chartService.scatterPlot(plateId, protocolId, xFeatureId, yFeatureId, groupBy, filter);
     }
 
     @QueryMapping
-    public Chart histogramPlot(@Argument long plateId, @Argument long protocolId, @Argument long featureId, @Argument String groupBy) throws ResultSetUnresolvableException, ResultDataUnresolvableException, PlateUnresolvableException, FeatureUnresolvableException{
-        ResultSetDTO latestResultSet = resultDataServiceClient.getLatestResultSetByPlateIdAndProtocolId(plateId, protocolId);
-        ResultDataDTO resultData = resultDataServiceClient.getResultData(latestResultSet.getId(), featureId);
-        var wells = plateServiceClient.getWells(plateId);
-        FeatureDTO feature = protocolServiceClient.getFeature(featureId);
-
-        Map<String, ChartData> groupByMap = new HashMap<>();
-        IntStream.range(0, wells.size()).forEach(i -> {
-            if (!groupByMap.containsKey(feature.getName())) {
-                groupByMap.put(feature.getName(), ChartData.builder()
-                        .type("histogram")
-                        .name(feature.getName())
-                        .xValue(new ArrayList<>())
-                        .build());
-            }
-            groupByMap.get(feature.getName()).getXValue().add(valueOf(resultData.getValues()[i]));
-        });
-
-        Chart chart = new Chart();
-        chart.setData(groupByMap.values().toArray(ChartData[]::new));
-        chart.setLayout(ChartLayout.builder()
-                .chartTitle(String.format("1D Histogram"))
-                .xAxisLabel(feature.getName())
-                .build());
-
-        return chart;
-
+    public Chart histogramPlot(@Argument long plateId, @Argument long protocolId, @Argument long featureId, @Argument String groupBy, @Argument String filter) throws ChartDataException {
+        return chartService.histogramPlot(plateId, protocolId, featureId, groupBy, filter);
     }
 
     @QueryMapping
-    public Chart barPlot(@Argument long plateId, @Argument long protocolId, @Argument long featureId, @Argument String groupBy) throws ResultSetUnresolvableException, ResultDataUnresolvableException, PlateUnresolvableException, FeatureUnresolvableException {
-        ResultSetDTO latestResultSet = resultDataServiceClient.getLatestResultSetByPlateIdAndProtocolId(plateId, protocolId);
-        ResultDataDTO resultData = resultDataServiceClient.getResultData(latestResultSet.getId(), featureId);
-        List<WellDTO> wells = plateServiceClient.getWells(plateId);
-        FeatureDTO feature = protocolServiceClient.getFeature(featureId);
-
-        Map<String, ChartData> groupByMap = new HashMap<>();
-        IntStream.range(0, wells.size()).forEach(i -> {
-            if ("welltype".equalsIgnoreCase(groupBy)) {
-                String wellType = wells.get(i).getWellType();
-                if (!groupByMap.containsKey(wellType)) {
-                    groupByMap.put(wellType, ChartData.builder()
-                            .mode("markers")
-                            .type("bar")
-                            .name(wellType)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(wellType).getYValue().add(valueOf(resultData.getValues()[i]));
-            } else if ("substance".equalsIgnoreCase(groupBy)) {
-                String substanceName = wells.get(i).getWellSubstance().getName();
-                if (!groupByMap.containsKey(substanceName)) {
-                    groupByMap.put(substanceName, ChartData.builder()
-                            .mode("markers")
-                            .type("bar")
-                            .name(substanceName)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(substanceName).getYValue().add(valueOf(resultData.getValues()[i]));
-            } else {
-                if (!groupByMap.containsKey(groupBy)) {
-                    groupByMap.put(groupBy, ChartData.builder()
-                            .mode("markers")
-                            .type("bar")
-                            .name(groupBy)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(groupBy).getYValue().add(valueOf(resultData.getValues()[i]));
-            }
-        });
-
-        Chart chart = new Chart();
-        chart.setData(groupByMap.values().toArray(ChartData[]::new));
-        chart.setLayout(ChartLayout.builder()
-                .chartTitle(String.format("Plate Bar Plot"))
-                .yAxisLabel(feature.getName())
-                .build());
-
-        return chart;
+    public Chart barPlot(@Argument long plateId, @Argument long protocolId, @Argument long featureId, @Argument String groupBy, @Argument String filter) throws ChartDataException {
+        return chartService.barPlot(plateId, protocolId, featureId, groupBy, filter);
     }
 
     @QueryMapping
-    public Chart boxPlot(@Argument long plateId, @Argument long protocolId, @Argument long featureId) throws ResultSetUnresolvableException, ResultDataUnresolvableException, PlateUnresolvableException, FeatureUnresolvableException {
-        ResultSetDTO latestResultSet = resultDataServiceClient.getLatestResultSetByPlateIdAndProtocolId(plateId, protocolId);
-        ResultDataDTO resultData = resultDataServiceClient.getResultData(latestResultSet.getId(), featureId);
-
-        List<Float> yValues = new ArrayList<>();
-        IntStream.range(0, resultData.getValues().length).forEach(i -> {
-            yValues.add(valueOf(resultData.getValues()[i]));
-        });
-        ChartData chartData = ChartData.builder().type("box").yValue(yValues).build();
-
-        FeatureDTO feature = protocolServiceClient.getFeature(featureId);
-        ChartLayout chartLayout = ChartLayout.builder()
-                .chartTitle(String.format("Box plot"))
-                .yAxisLabel(feature.getName())
-                .build();
-
-        Chart chart = new Chart();
-        chart.setData(ArrayUtils.toArray(chartData));
-        chart.setLayout(chartLayout);
-
-        return chart;
+    public Chart boxPlot(@Argument long plateId, @Argument long protocolId, @Argument long featureId, @Argument String filter) throws ChartDataException {
+        return chartService.boxPlot(plateId, protocolId, featureId, filter);
     }
 
     @QueryMapping
-    public Chart boxPlotWithGrouping(@Argument long plateId, @Argument long protocolId, @Argument long featureId, @Argument String groupBy) throws ResultSetUnresolvableException, ResultDataUnresolvableException, PlateUnresolvableException, FeatureUnresolvableException {
-        ResultSetDTO latestResultSet = resultDataServiceClient.getLatestResultSetByPlateIdAndProtocolId(plateId, protocolId);
-        ResultDataDTO resultData = resultDataServiceClient.getResultData(latestResultSet.getId(), featureId);
-        var wells = plateServiceClient.getWells(plateId);
-        FeatureDTO feature = protocolServiceClient.getFeature(featureId);
+    public Chart boxPlotWithGrouping(@Argument long plateId, @Argument long protocolId, @Argument long featureId, @Argument String groupBy, @Argument String filter) throws ChartDataException {
+        return chartService.boxPlotWithGrouping(plateId, protocolId, featureId, groupBy, filter);
+    }
 
-        Map<String, ChartData> groupByMap = new HashMap<>();
-        IntStream.range(0, wells.size()).forEach(i -> {
-            if ("welltype".equalsIgnoreCase(groupBy)) {
-                String wellType = wells.get(i).getWellType();
-                if (!groupByMap.containsKey(wellType)) {
-                    groupByMap.put(wellType, ChartData.builder()
-                            .type("box")
-                            .name(wellType)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(wellType).getYValue().add(valueOf(resultData.getValues()[i]));
-            } else if ("substance".equalsIgnoreCase(groupBy)) {
-                String substanceName = wells.get(i).getWellSubstance().getName();
-                if (!groupByMap.containsKey(substanceName)) {
-                    groupByMap.put(substanceName, ChartData.builder()
-                            .type("box")
-                            .name(substanceName)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(substanceName).getYValue().add(valueOf(resultData.getValues()[i]));
-            } else if ("row".equalsIgnoreCase(groupBy)) {
-                String row = wells.get(i).getRow().toString();
-                if (!groupByMap.containsKey(row)) {
-                    groupByMap.put(row, ChartData.builder()
-                            .type("box")
-                            .name(row)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(row).getYValue().add(valueOf(resultData.getValues()[i]));
-            } else if ("column".equalsIgnoreCase(groupBy)) {
-                String column = wells.get(i).getColumn().toString();
-                if (!groupByMap.containsKey(column)) {
-                    groupByMap.put(column, ChartData.builder()
-                            .type("box")
-                            .name(column)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(column).getYValue().add(valueOf(resultData.getValues()[i]));
-            } else if ("status".equalsIgnoreCase(groupBy)) {
-                String wellStatus = wells.get(i).getStatus().name();
-                if (!groupByMap.containsKey(wellStatus)) {
-                    groupByMap.put(wellStatus, ChartData.builder()
-                            .type("box")
-                            .name(wellStatus)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(wellStatus).getYValue().add(valueOf(resultData.getValues()[i]));
-            } else {
-                if (!groupByMap.containsKey(groupBy)) {
-                    groupByMap.put(groupBy, ChartData.builder()
-                            .type("box")
-                            .name(groupBy)
-                            .yValue(new ArrayList<>())
-                            .build());
-                }
-                groupByMap.get(groupBy).getYValue().add(valueOf(resultData.getValues()[i]));
-            }
-        });
+    //Plates that cannot be resolved are left out of the chart and reported as errors, with the plate id in the error extensions
+    @QueryMapping
+    public DataFetcherResult<Chart> chartFromTemplate(@Argument long templateId, @Argument List<Long> plateIds, DataFetchingEnvironment environment) throws ChartDataException {
+        PartialResult<RenderedResult<Chart>> chart = chartService.renderChartFromTemplatePartially(templateId, plateIds);
+        if (chart == null) return DataFetcherResult.<Chart>newResult().build();
+        return toDataFetcherResult(chart.getResult() == null ? null : chart.getResult().getValue(), chart.getErrors(), environment);
+    }
 
-        Chart chart = new Chart();
-        chart.setData(groupByMap.values().toArray(ChartData[]::new));
-        chart.setLayout(ChartLayout.builder()
-                .chartTitle(String.format("Box Plot"))
-                .yAxisLabel(feature.getName())
-                .build());
+    @QueryMapping
+    public DataFetcherResult<List<Chart>> dashboard(@Argument List<Long> templateIds, @Argument List<Long> plateIds, DataFetchingEnvironment environment) throws ChartDataException {
+        PartialResult<List<RenderedResult<Chart>>> charts = chartService.renderDashboardPartially(templateIds, plateIds);
+        List<Chart> data = charts.getResult() == null ? null : charts.getResult().stream()
+                .map(chart -> chart == null ? null : chart.getValue())
+                .collect(Collectors.toList());
+        return toDataFetcherResult(data, charts.getErrors(), environment);
+    }
 
-        return chart;
+    private static <T> DataFetcherResult<T> toDataFetcherResult(T data, List<PlateErrorDTO> errors, DataFetchingEnvironment environment) {
+        DataFetcherResult.Builder<T> result = DataFetcherResult.<T>newResult().data(data);
+        for (PlateErrorDTO error : errors) {
+            result.error(GraphqlErrorBuilder.newError(environment)
+                    .message(error.getMessage())
+                    .extensions(Map.of("plateId", error.getPlateId()))
+                    .build());
+        }
+        return result.build();
     }
 }
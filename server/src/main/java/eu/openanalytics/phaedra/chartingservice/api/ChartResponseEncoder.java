@@ -0,0 +1,111 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Encodes chart responses in the format the client prefers according to its Accept header: JSON by default, or CBOR or Smile.
+ * JSON is served as cached, the binary formats are encoded from the chart values on every request, by mappers built
+ * with the Jackson configuration of the application (see {@code spring.jackson}), so every format carries the same fields.
+ * Compression is applied on top of any of them by the server (see {@code server.compression}).
+ */
+@Component
+public class ChartResponseEncoder {
+
+    public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+    public static final MediaType APPLICATION_CBOR = MediaType.valueOf(APPLICATION_CBOR_VALUE);
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+
+    private final Map<MediaType, ObjectMapper> binaryMappers;
+
+    public ChartResponseEncoder(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        this.binaryMappers = Map.of(
+                APPLICATION_CBOR, objectMapperBuilder.factory(new CBORFactory()).build(),
+                APPLICATION_SMILE, objectMapperBuilder.factory(new SmileFactory()).build());
+    }
+
+    /**
+     * Returns the chart, or chart data, in the negotiated format.
+     */
+    public ResponseEntity<byte[]> render(String accept, RenderedResult<?> result) throws ChartDataException {
+        return render(accept, result.getValue(), result::getJson);
+    }
+
+    /**
+     * Returns the value in the negotiated format, where the JSON is supplied as already serialized.
+     */
+    public ResponseEntity<byte[]> render(String accept, Object value, Supplier<byte[]> json) throws ChartDataException {
+        MediaType mediaType = negotiate(accept);
+        ObjectMapper binaryMapper = binaryMappers.get(mediaType);
+        byte[] body = binaryMapper == null ? json.get() : encode(binaryMapper, value);
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(body);
+    }
+
+    /**
+     * Returns CBOR or Smile if the client prefers it over JSON, and JSON otherwise.
+     */
+    MediaType negotiate(String accept) {
+        if (accept == null || accept.isBlank()) return MediaType.APPLICATION_JSON;
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_JSON;
+        }
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() == 0) continue;
+            for (MediaType binaryMediaType : binaryMappers.keySet()) {
+                if (binaryMediaType.equalsTypeAndSubtype(mediaType)) return binaryMediaType;
+            }
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) return MediaType.APPLICATION_JSON;
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+    private static byte[] encode(ObjectMapper binaryMapper, Object value) throws ChartDataException {
+        try {
+            return binaryMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new ChartDataException("Chart result could not be encoded: " + e.getMessage());
+        }
+    }
+}
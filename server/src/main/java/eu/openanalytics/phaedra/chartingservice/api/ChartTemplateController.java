@@ -20,21 +20,59 @@
  */
 package eu.openanalytics.phaedra.chartingservice.api;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.Chart;
+import eu.openanalytics.phaedra.chartingservice.model.ChartTemplateQuery;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.chartingservice.service.ChartService;
 import eu.openanalytics.phaedra.chartingservice.service.ChartTemplateService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 public class ChartTemplateController {
 
+    private static final byte[] NULL_JSON = "null".getBytes(StandardCharsets.UTF_8);
+    private static final String PROJECTION_FULL = "full";
+    private static final String PROJECTION_SUMMARY = "summary";
+    private static final String NEXT_AFTER_ID_HEADER = "X-Next-After-Id";
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final int EXPORT_PAGE_SIZE = 500;
+    private static final int IMPORT_CHUNK_SIZE = 500;
+
     private final ChartTemplateService chartTemplateService;
+    private final ChartService chartService;
+    private final ObjectMapper objectMapper;
+    private final ChartResponseEncoder chartResponseEncoder;
 
-    public ChartTemplateController(ChartTemplateService chartTemplateService) {
+    public ChartTemplateController(ChartTemplateService chartTemplateService, ChartService chartService, ObjectMapper objectMapper,
+                                   ChartResponseEncoder chartResponseEncoder) {
         this.chartTemplateService = chartTemplateService;
+        this.chartService = chartService;
+        this.objectMapper = objectMapper;
+        this.chartResponseEncoder = chartResponseEncoder;
     }
 
     //Post chart template
@@ -55,11 +93,33 @@ public class ChartTemplateController {
         chartTemplateService.deleteChartTemplate(chartTemplateId);
         return new ResponseEntity<>(HttpStatus.OK);
     }
-    //Get all chart templates
+    //Get all chart templates, or a page of at most 'limit' templates after 'afterId', optionally filtered on type, axes and grouping
+    //When a page is full, the id to continue after is returned in the X-Next-After-Id header
     @GetMapping(value = "/chart-template", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Iterable<ChartTemplateDTO>> getAllChartTemplates() {
-        Iterable<ChartTemplateDTO> response = chartTemplateService.getAllChartTemplates();
-        return new ResponseEntity<>(response, HttpStatus.OK);
+    public ResponseEntity<Iterable<ChartTemplateDTO>> getAllChartTemplates(@RequestParam(required = false) Long afterId,
+                                                                           @RequestParam(required = false) Integer limit,
+                                                                           @RequestParam(required = false) String type,
+                                                                           @RequestParam(required = false) String axisX,
+                                                                           @RequestParam(required = false) String axisY,
+                                                                           @RequestParam(required = false) String groupBy,
+                                                                           @RequestParam(defaultValue = PROJECTION_FULL) String projection) {
+        if ((limit != null && limit < 1) || !(PROJECTION_FULL.equals(projection) || PROJECTION_SUMMARY.equals(projection))) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<ChartTemplateDTO> response = chartTemplateService.getChartTemplates(ChartTemplateQuery.builder()
+                .afterId(afterId)
+                .limit(limit == null ? null : Math.min(limit, MAX_PAGE_SIZE))
+                .type(type)
+                .axisX(axisX)
+                .axisY(axisY)
+                .groupBy(groupBy)
+                .includeSettings(PROJECTION_FULL.equals(projection))
+                .build());
+        HttpHeaders headers = new HttpHeaders();
+        if (limit != null && response.size() == Math.min(limit, MAX_PAGE_SIZE)) {
+            headers.add(NEXT_AFTER_ID_HEADER, String.valueOf(response.get(response.size() - 1).getId()));
+        }
+        return new ResponseEntity<>(response, headers, HttpStatus.OK);
     }
     //Get chart template by id
     @GetMapping(value="/chart-template/{chartTemplateId}", produces=MediaType.APPLICATION_JSON_VALUE)
@@ -70,4 +130,89 @@ public class ChartTemplateController {
         else
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
     }
+    //Render the chart of a chart template for the given plates, as JSON or, for clients that accept it, CBOR or Smile
+    @GetMapping(value="/chart-template/{chartTemplateId}/chart", produces={MediaType.APPLICATION_JSON_VALUE, ChartResponseEncoder.APPLICATION_CBOR_VALUE, ChartResponseEncoder.APPLICATION_SMILE_VALUE})
+    public ResponseEntity<byte[]> getChartFromTemplate(@PathVariable Long chartTemplateId, @RequestParam List<Long> plateIds,
+                                                       @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) throws ChartDataException {
+        RenderedResult<Chart> chart = chartService.renderChartFromTemplate(chartTemplateId, plateIds);
+        if (chart != null)
+            return chartResponseEncoder.render(accept, chart);
+        else
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    //Render the charts of several chart templates for the same plates, as an array in the order of the template ids
+    @GetMapping(value="/dashboard", produces={MediaType.APPLICATION_JSON_VALUE, ChartResponseEncoder.APPLICATION_CBOR_VALUE, ChartResponseEncoder.APPLICATION_SMILE_VALUE})
+    public ResponseEntity<byte[]> getDashboard(@RequestParam List<Long> templateIds, @RequestParam List<Long> plateIds,
+                                               @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) throws ChartDataException {
+        List<RenderedResult<Chart>> charts = chartService.renderDashboard(templateIds, plateIds);
+        List<Chart> values = new ArrayList<>(charts.size());
+        for (RenderedResult<Chart> chart : charts) {
+            values.add(chart == null ? null : chart.getValue());
+        }
+        return chartResponseEncoder.render(accept, values, () -> joinJson(charts));
+    }
+
+    //The cached chart payloads are joined as is, without serializing the charts again
+    private static byte[] joinJson(List<RenderedResult<Chart>> charts) {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        json.write('[');
+        for (int i = 0; i < charts.size(); i++) {
+            if (i > 0) json.write(',');
+            byte[] chart = charts.get(i) == null ? NULL_JSON : charts.get(i).getJson();
+            json.write(chart, 0, chart.length);
+        }
+        json.write(']');
+        return json.toByteArray();
+    }
+    //Export all chart templates with their settings as newline delimited JSON, streamed page by page
+    @GetMapping(value = "/chart-template/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportChartTemplates() {
+        ObjectWriter writer = objectMapper.writerFor(ChartTemplateDTO.class).without(SerializationFeature.INDENT_OUTPUT);
+        StreamingResponseBody body = out -> {
+            Long afterId = null;
+            List<ChartTemplateDTO> page;
+            do {
+                page = chartTemplateService.getChartTemplates(ChartTemplateQuery.builder()
+                        .afterId(afterId)
+                        .limit(EXPORT_PAGE_SIZE)
+                        .includeSettings(true)
+                        .build());
+                for (ChartTemplateDTO chartTemplateDTO : page) {
+                    out.write(writer.writeValueAsBytes(chartTemplateDTO));
+                    out.write('\n');
+                }
+                out.flush();
+                if (!page.isEmpty()) afterId = page.get(page.size() - 1).getId();
+            } while (page.size() == EXPORT_PAGE_SIZE);
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+    //Import chart templates with their settings from newline delimited JSON as new chart templates
+    //Templates are imported in chunks, each in its own transaction, the response reports how many templates were imported
+    @PostMapping(value = "/chart-template/import", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> importChartTemplates(InputStream body) throws IOException {
+        int imported = 0;
+        int lineNumber = 0;
+        List<ChartTemplateDTO> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                chunk.add(objectMapper.readValue(line, ChartTemplateDTO.class));
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    imported += chartTemplateService.importChartTemplates(chunk).size();
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                imported += chartTemplateService.importChartTemplates(chunk).size();
+            }
+        } catch (JsonProcessingException e) {
+            return new ResponseEntity<>(Map.of("imported", imported, "error", "Invalid chart template on line " + lineNumber + ": " + e.getOriginalMessage()), HttpStatus.BAD_REQUEST);
+        } catch (DataAccessException e) {
+            return new ResponseEntity<>(Map.of("imported", imported, "error", "Chart templates up to line " + lineNumber + " could not be imported: " + e.getMostSpecificCause().getMessage()), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(Map.of("imported", imported), HttpStatus.OK);
+    }
 }
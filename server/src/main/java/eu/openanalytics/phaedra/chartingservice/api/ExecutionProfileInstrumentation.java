@@ -0,0 +1,46 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import eu.openanalytics.phaedra.chartingservice.service.ExecutionProfile;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.DataFetcher;
+import org.springframework.stereotype.Component;
+
+/**
+ * Activates the {@link ExecutionProfile} of a profiled GraphQL request while its data fetchers run,
+ * so the upstream calls and stages of the chart queries are recorded.
+ */
+@Component
+public class ExecutionProfileInstrumentation extends SimpleInstrumentation {
+
+    @Override
+    public DataFetcher<?> instrumentDataFetcher(DataFetcher<?> dataFetcher, InstrumentationFieldFetchParameters parameters) {
+        ExecutionProfile profile = parameters.getEnvironment().getGraphQlContext().get(ExecutionProfile.class);
+        if (profile == null || parameters.isTrivialDataFetcher()) return dataFetcher;
+        return environment -> {
+            try (ExecutionProfile.Scope scope = profile.activate()) {
+                return dataFetcher.get(environment);
+            }
+        };
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import eu.openanalytics.phaedra.chartingservice.service.ExecutionProfile;
+import org.springframework.graphql.server.WebGraphQlInterceptor;
+import org.springframework.graphql.server.WebGraphQlRequest;
+import org.springframework.graphql.server.WebGraphQlResponse;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * Profiles GraphQL requests that carry the {@link ExecutionProfile#HEADER} header: the profile is put in the GraphQL context,
+ * where {@link ExecutionProfileInstrumentation} picks it up, and returned in the {@code chartProfile} entry of the response extensions.
+ */
+@Component
+public class ExecutionProfileInterceptor implements WebGraphQlInterceptor {
+
+    static final String EXTENSION = "chartProfile";
+
+    @Override
+    public Mono<WebGraphQlResponse> intercept(WebGraphQlRequest request, Chain chain) {
+        if (!Boolean.parseBoolean(request.getHeaders().getFirst(ExecutionProfile.HEADER))) {
+            return chain.next(request);
+        }
+        ExecutionProfile profile = new ExecutionProfile();
+        request.configureExecutionInput((executionInput, builder) -> builder.graphQLContext(Map.of(ExecutionProfile.class, profile)).build());
+        return chain.next(request).map(response -> response.transform(builder -> builder.addExtension(EXTENSION, profile.toMap())));
+    }
+}
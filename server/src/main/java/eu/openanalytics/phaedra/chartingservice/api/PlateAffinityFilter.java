@@ -0,0 +1,172 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import eu.openanalytics.phaedra.chartingservice.service.ExecutionProfile;
+import eu.openanalytics.phaedra.chartingservice.service.PlateAffinityRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Forwards chart requests to the instance that owns their plates according to the {@link PlateAffinityRouter},
+ * so that instance's caches serve them. The plate with the lowest id decides the owner of a multi-plate request.
+ * <p>
+ * Only the plate-keyed GET endpoints are routed. A request is forwarded at most once, and is handled locally
+ * if the owner cannot be reached.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "phaedra2.charting.routing.enabled", havingValue = "true")
+public class PlateAffinityFilter extends OncePerRequestFilter {
+
+    static final String FORWARDED_BY_HEADER = "X-Chart-Forwarded-By";
+
+    private static final Pattern ROUTED_PATHS = Pattern.compile("/(chartdata/[^/]+|dashboard|chart-template/\\d+/chart)");
+    private static final List<String> REQUEST_HEADERS = List.of(HttpHeaders.AUTHORIZATION, HttpHeaders.ACCEPT, ExecutionProfile.HEADER);
+    private static final List<String> RESPONSE_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.VARY, ExecutionProfile.HEADER);
+
+    private final PlateAffinityRouter router;
+    private final MeterRegistry meterRegistry;
+    private final RestTemplate restTemplate;
+
+    public PlateAffinityFilter(PlateAffinityRouter router, MeterRegistry meterRegistry,
+                               @Value("${phaedra2.charting.routing.connect-timeout:PT1S}") Duration connectTimeout,
+                               @Value("${phaedra2.charting.routing.read-timeout:PT30S}") Duration readTimeout) {
+        this.router = router;
+        this.meterRegistry = meterRegistry;
+        // Requests go to one specific instance, so not through the load balanced rest template
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout((int) connectTimeout.toMillis());
+        requestFactory.setReadTimeout((int) readTimeout.toMillis());
+        this.restTemplate = new RestTemplate(requestFactory);
+        // Error responses of the owner are passed on as they are
+        this.restTemplate.setErrorHandler(new ResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+
+            @Override
+            public void handleError(ClientHttpResponse response) {
+            }
+        });
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.GET.matches(request.getMethod())
+                || request.getHeader(FORWARDED_BY_HEADER) != null
+                || !ROUTED_PATHS.matcher(request.getRequestURI().substring(request.getContextPath().length())).matches();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        Long plateId = getLowestPlateId(request);
+        ServiceInstance owner = plateId == null ? null : router.getOwner(plateId);
+        if (owner == null) {
+            requestCounter("local").increment();
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        try {
+            forward(request, response, owner);
+            requestCounter("forwarded").increment();
+        } catch (ResourceAccessException e) {
+            if (response.isCommitted()) throw e;
+            log.warn("Could not forward request for plate {} to {}, handling it locally: {}", plateId, owner.getUri(), e.getMessage());
+            requestCounter("fallback").increment();
+            response.reset();
+            filterChain.doFilter(request, response);
+        }
+    }
+
+    private void forward(HttpServletRequest request, HttpServletResponse response, ServiceInstance owner) {
+        String query = request.getQueryString();
+        URI uri = URI.create(owner.getUri() + request.getRequestURI() + (query == null ? "" : "?" + query));
+        restTemplate.execute(uri, HttpMethod.GET, forwardedRequest -> {
+            for (String header : REQUEST_HEADERS) {
+                String value = request.getHeader(header);
+                if (value != null) forwardedRequest.getHeaders().set(header, value);
+            }
+            forwardedRequest.getHeaders().set(FORWARDED_BY_HEADER, router.getLocalInstanceId());
+        }, ownerResponse -> {
+            response.setStatus(ownerResponse.getRawStatusCode());
+            for (String header : RESPONSE_HEADERS) {
+                String value = ownerResponse.getHeaders().getFirst(header);
+                if (value != null) response.setHeader(header, value);
+            }
+            StreamUtils.copy(ownerResponse.getBody(), response.getOutputStream());
+            return null;
+        });
+    }
+
+    /**
+     * Returns the lowest of the plate ids of the request, or null if it has none or they are invalid (which the controller reports).
+     */
+    private static Long getLowestPlateId(HttpServletRequest request) {
+        String[] values = request.getParameterValues("plateIds");
+        if (values == null) return null;
+        Long lowest = null;
+        for (String value : values) {
+            for (String plateId : value.split(",")) {
+                try {
+                    long id = Long.parseLong(plateId.trim());
+                    if (lowest == null || id < lowest) lowest = id;
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return lowest;
+    }
+
+    private Counter requestCounter(String outcome) {
+        return Counter.builder("chart.routing.requests")
+                .description("Plate-keyed chart requests, by whether they were handled locally, forwarded to the owning instance, or handled locally because the owner could not be reached")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.filter;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartFilterException;
+import eu.openanalytics.phaedra.chartingservice.model.CategoricalColumn;
+import eu.openanalytics.phaedra.chartingservice.model.WellLayout;
+import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar view on the wells of a plate, as evaluated by a {@link WellFilter}.
+ * Feature values are only looked up when a filter refers to them.
+ */
+@Getter
+public class WellColumns {
+
+    private final int size;
+    private final long[] wellIds;
+    private final long[] plateIds;
+    private final int[] rows;
+    private final int[] columns;
+    private final CategoricalColumn wellTypes;
+    private final CategoricalColumn statuses;
+    private final CategoricalColumn substances;
+    @Getter(AccessLevel.NONE)
+    private final FeatureValueSource featureValueSource;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, float[]> resolvedFeatures = new HashMap<>();
+
+    private WellColumns(WellLayout layout, FeatureValueSource featureValueSource) {
+        this.size = layout.getSize();
+        this.wellIds = layout.getWellIds();
+        this.plateIds = layout.getPlateIds();
+        this.rows = layout.getRows();
+        this.columns = layout.getColumns();
+        this.wellTypes = layout.getWellTypes();
+        this.statuses = layout.getStatuses();
+        this.substances = layout.getSubstances();
+        this.featureValueSource = featureValueSource;
+    }
+
+    public static WellColumns of(List<WellDTO> wells, FeatureValueSource featureValueSource) {
+        return of(WellLayout.of(wells), featureValueSource);
+    }
+
+    /**
+     * Evaluates filters on an existing layout, without encoding the wells again.
+     */
+    public static WellColumns of(WellLayout layout, FeatureValueSource featureValueSource) {
+        return new WellColumns(layout, featureValueSource);
+    }
+
+    public float[] getFeatureValues(String featureName) throws ChartDataException {
+        float[] values = resolvedFeatures.get(featureName);
+        if (values == null) {
+            values = featureValueSource == null ? null : featureValueSource.getValues(featureName);
+            if (values == null) throw new ChartFilterException("Unknown feature in filter: " + featureName);
+            resolvedFeatures.put(featureName, values);
+        }
+        return values;
+    }
+
+    @FunctionalInterface
+    public interface FeatureValueSource {
+        /**
+         * Returns the values of the feature with the given name, indexed like the wells, or null if there is no such feature.
+         */
+        float[] getValues(String featureName) throws ChartDataException;
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.filter;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartFilterException;
+import eu.openanalytics.phaedra.chartingservice.model.CategoricalColumn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Compiles a well filter expression into a {@link WellFilter}.
+ * <p>
+ * Supported syntax, keywords are case-insensitive:
+ * <pre>
+ * wellType = 'SAMPLE' and status != REJECTED_PLATEPREP
+ * row between A and H and column in (1, 2, 3)
+ * not (substance = 'DMSO') or "Nuclei Count" &gt;= 250
+ * </pre>
+ * Well properties are {@code wellId}, {@code plateId}, {@code row}, {@code column}, {@code wellType}, {@code status} and {@code substance}.
+ * Any other name, or a name between double quotes, refers to a feature of the plate's protocol.
+ * Comparison operators are {@code = != < <= > >=}, plus {@code in (...)} and {@code between ... and ...}.
+ * Categorical properties are compared case-insensitively, rows can be given as numbers or letters.
+ * Wells with a missing (NaN) feature value never match a feature comparison, not even a negated one: as in SQL, the comparison
+ * is unknown for such wells, {@code not} keeps it unknown, and {@code and} and {@code or} only decide on it where the other operand does.
+ * <p>
+ * Each comparison is evaluated over a whole column at once, combining the per-comparison selections with bitwise operations.
+ */
+public class WellFilterParser {
+
+    private final String expression;
+    private final List<Token> tokens;
+    private int position;
+
+    private WellFilterParser(String expression) throws ChartFilterException {
+        this.expression = expression;
+        this.tokens = tokenize(expression);
+    }
+
+    /**
+     * Returns the compiled filter, or null if the expression is empty.
+     */
+    public static WellFilter parse(String expression) throws ChartFilterException {
+        if (expression == null || expression.isBlank()) return null;
+        WellFilterParser parser = new WellFilterParser(expression);
+        Condition condition = parser.parseOr();
+        if (parser.peek().type != TokenType.END) {
+            throw parser.error("Unexpected '" + parser.peek().text + "'");
+        }
+        return columns -> condition.evaluate(columns).matching;
+    }
+
+    // Parsing
+
+    private Condition parseOr() throws ChartFilterException {
+        Condition condition = parseAnd();
+        while (acceptKeyword("or")) {
+            Condition left = condition;
+            Condition right = parseAnd();
+            condition = columns -> {
+                Truth leftTruth = left.evaluate(columns);
+                Truth rightTruth = right.evaluate(columns);
+                leftTruth.matching.or(rightTruth.matching);
+                leftTruth.failing.and(rightTruth.failing);
+                return leftTruth;
+            };
+        }
+        return condition;
+    }
+
+    private Condition parseAnd() throws ChartFilterException {
+        Condition condition = parseNot();
+        while (acceptKeyword("and")) {
+            Condition left = condition;
+            Condition right = parseNot();
+            condition = columns -> {
+                Truth leftTruth = left.evaluate(columns);
+                Truth rightTruth = right.evaluate(columns);
+                leftTruth.matching.and(rightTruth.matching);
+                leftTruth.failing.or(rightTruth.failing);
+                return leftTruth;
+            };
+        }
+        return condition;
+    }
+
+    private Condition parseNot() throws ChartFilterException {
+        if (acceptKeyword("not")) {
+            return not(parseNot());
+        }
+        if (accept(TokenType.LEFT_PAREN)) {
+            Condition condition = parseOr();
+            expect(TokenType.RIGHT_PAREN);
+            return condition;
+        }
+        return parseComparison();
+    }
+
+    private Condition parseComparison() throws ChartFilterException {
+        Token field = next();
+        if (field.type != TokenType.IDENTIFIER && field.type != TokenType.QUOTED_IDENTIFIER) {
+            throw error("Expected a well property or feature name but got '" + field.text + "'");
+        }
+        Field target = Field.resolve(field);
+
+        if (acceptKeyword("between")) {
+            Token low = nextValue();
+            expectKeyword("and");
+            Token high = nextValue();
+            double lowValue = target.toNumber(low, this);
+            double highValue = target.toNumber(high, this);
+            return target.numeric(v -> v >= lowValue && v <= highValue, this);
+        }
+
+        boolean negated = acceptKeyword("not");
+        if (acceptKeyword("in")) {
+            expect(TokenType.LEFT_PAREN);
+            List<Token> values = new ArrayList<>();
+            do {
+                values.add(nextValue());
+            } while (accept(TokenType.COMMA));
+            expect(TokenType.RIGHT_PAREN);
+            Condition in = target.in(values, this);
+            return negated ? not(in) : in;
+        }
+        if (negated) throw error("Expected 'in' after 'not'");
+
+        Token operator = next();
+        if (operator.type != TokenType.OPERATOR) throw error("Expected a comparison operator but got '" + operator.text + "'");
+        Token value = nextValue();
+        return target.compare(operator.text, value, this);
+    }
+
+    private static Condition not(Condition condition) {
+        return columns -> {
+            Truth truth = condition.evaluate(columns);
+            return new Truth(truth.failing, truth.matching);
+        };
+    }
+
+    private Token nextValue() throws ChartFilterException {
+        Token value = next();
+        if (value.type != TokenType.NUMBER && value.type != TokenType.STRING && value.type != TokenType.IDENTIFIER) {
+            throw error("Expected a value but got '" + value.text + "'");
+        }
+        return value;
+    }
+
+    private Token peek() {
+        return tokens.get(position);
+    }
+
+    private Token next() {
+        Token token = tokens.get(position);
+        if (token.type != TokenType.END) position++;
+        return token;
+    }
+
+    private boolean accept(TokenType type) {
+        if (peek().type != type) return false;
+        position++;
+        return true;
+    }
+
+    private void expect(TokenType type) throws ChartFilterException {
+        if (!accept(type)) throw error("Expected " + type.description + " but got '" + peek().text + "'");
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        Token token = peek();
+        if (token.type != TokenType.IDENTIFIER || !token.text.equalsIgnoreCase(keyword)) return false;
+        position++;
+        return true;
+    }
+
+    private void expectKeyword(String keyword) throws ChartFilterException {
+        if (!acceptKeyword(keyword)) throw error("Expected '" + keyword + "' but got '" + peek().text + "'");
+    }
+
+    private ChartFilterException error(String message) {
+        return new ChartFilterException("Invalid filter '" + expression + "' at position " + peek().position + ": " + message);
+    }
+
+    // Fields
+
+    private enum FieldKind { NUMERIC, CATEGORICAL, FEATURE }
+
+    private static class Field {
+        private final String name;
+        private final FieldKind kind;
+        private final NumericColumn numericColumn;
+        private final Function<WellColumns, CategoricalColumn> categoricalColumn;
+
+        private Field(String name, FieldKind kind, NumericColumn numericColumn, Function<WellColumns, CategoricalColumn> categoricalColumn) {
+            this.name = name;
+            this.kind = kind;
+            this.numericColumn = numericColumn;
+            this.categoricalColumn = categoricalColumn;
+        }
+
+        static Field resolve(Token token) {
+            if (token.type == TokenType.IDENTIFIER) {
+                switch (token.text.toLowerCase(Locale.ROOT)) {
+                    case "wellid":
+                        return new Field("wellId", FieldKind.NUMERIC, (columns, test) -> Truth.known(select(columns.getWellIds(), test), columns.getSize()), null);
+                    case "plateid":
+                        return new Field("plateId", FieldKind.NUMERIC, (columns, test) -> Truth.known(select(columns.getPlateIds(), test), columns.getSize()), null);
+                    case "row":
+                        return new Field("row", FieldKind.NUMERIC, (columns, test) -> Truth.known(select(columns.getRows(), test), columns.getSize()), null);
+                    case "column":
+                    case "col":
+                        return new Field("column", FieldKind.NUMERIC, (columns, test) -> Truth.known(select(columns.getColumns(), test), columns.getSize()), null);
+                    case "welltype":
+                        return new Field("wellType", FieldKind.CATEGORICAL, null, WellColumns::getWellTypes);
+                    case "status":
+                    case "wellstatus":
+                        return new Field("status", FieldKind.CATEGORICAL, null, WellColumns::getStatuses);
+                    case "substance":
+                    case "wellsubstance":
+                        return new Field("substance", FieldKind.CATEGORICAL, null, WellColumns::getSubstances);
+                    default:
+                        break;
+                }
+            }
+            String featureName = token.text;
+            return new Field(featureName, FieldKind.FEATURE, (columns, test) -> select(columns.getFeatureValues(featureName), columns.getSize(), test), null);
+        }
+
+        double toNumber(Token value, WellFilterParser parser) throws ChartFilterException {
+            if (kind == FieldKind.CATEGORICAL) throw parser.error("'" + name + "' does not support range comparisons");
+            if (value.type == TokenType.NUMBER) return Double.parseDouble(value.text);
+            if (name.equals("row") && value.text.matches("[A-Za-z]+")) {
+                return rowLetterToNumber(value.text);
+            }
+            throw parser.error("'" + name + "' must be compared to a number, not '" + value.text + "'");
+        }
+
+        Condition numeric(DoublePredicate test, WellFilterParser parser) throws ChartFilterException {
+            if (kind == FieldKind.CATEGORICAL) throw parser.error("'" + name + "' does not support range comparisons");
+            return columns -> numericColumn.select(columns, test);
+        }
+
+        Condition in(List<Token> values, WellFilterParser parser) throws ChartFilterException {
+            if (kind == FieldKind.CATEGORICAL) {
+                List<String> accepted = new ArrayList<>();
+                for (Token value : values) accepted.add(value.text);
+                return categorical(candidate -> accepted.stream().anyMatch(candidate::equalsIgnoreCase));
+            }
+            double[] accepted = new double[values.size()];
+            for (int i = 0; i < accepted.length; i++) accepted[i] = toNumber(values.get(i), parser);
+            Arrays.sort(accepted);
+            return numeric(v -> Arrays.binarySearch(accepted, v) >= 0, parser);
+        }
+
+        Condition compare(String operator, Token value, WellFilterParser parser) throws ChartFilterException {
+            if (kind == FieldKind.CATEGORICAL) {
+                switch (operator) {
+                    case "=":
+                    case "==":
+                        return categorical(candidate -> candidate.equalsIgnoreCase(value.text));
+                    case "!=":
+                    case "<>":
+                        return not(categorical(candidate -> candidate.equalsIgnoreCase(value.text)));
+                    default:
+                        throw parser.error("'" + name + "' only supports =, != and in");
+                }
+            }
+            double number = toNumber(value, parser);
+            switch (operator) {
+                case "=":
+                case "==":
+                    return numeric(v -> v == number, parser);
+                case "!=":
+                case "<>":
+                    return numeric(v -> v != number, parser);
+                case "<":
+                    return numeric(v -> v < number, parser);
+                case "<=":
+                    return numeric(v -> v <= number, parser);
+                case ">":
+                    return numeric(v -> v > number, parser);
+                case ">=":
+                    return numeric(v -> v >= number, parser);
+                default:
+                    throw parser.error("Unknown operator '" + operator + "'");
+            }
+        }
+
+        private Condition categorical(Predicate<String> test) {
+            return columns -> {
+                CategoricalColumn column = categoricalColumn.apply(columns);
+                // The predicate is evaluated once per distinct value, the wells are then matched on their code
+                boolean[] matchingCodes = column.matchCodes(test);
+                int[] codes = column.getCodes();
+                BitSet selection = new BitSet(codes.length);
+                for (int i = 0; i < codes.length; i++) {
+                    if (matchingCodes[codes[i]]) selection.set(i);
+                }
+                return Truth.known(selection, codes.length);
+            };
+        }
+    }
+
+    @FunctionalInterface
+    private interface NumericColumn {
+        Truth select(WellColumns columns, DoublePredicate test) throws ChartDataException;
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+        Truth evaluate(WellColumns columns) throws ChartDataException;
+    }
+
+    /**
+     * The wells for which an expression is true, and the wells for which it is false.
+     * Wells in neither set have a missing feature value the expression depends on.
+     */
+    private static class Truth {
+        private final BitSet matching;
+        private final BitSet failing;
+
+        private Truth(BitSet matching, BitSet failing) {
+            this.matching = matching;
+            this.failing = failing;
+        }
+
+        /**
+         * Returns the truth of an expression that is known for every well.
+         */
+        static Truth known(BitSet matching, int size) {
+            BitSet failing = (BitSet) matching.clone();
+            failing.flip(0, size);
+            return new Truth(matching, failing);
+        }
+    }
+
+    private static BitSet select(int[] values, DoublePredicate test) {
+        BitSet selection = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (test.test(values[i])) selection.set(i);
+        }
+        return selection;
+    }
+
+    private static BitSet select(long[] values, DoublePredicate test) {
+        BitSet selection = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (test.test(values[i])) selection.set(i);
+        }
+        return selection;
+    }
+
+    private static Truth select(float[] values, int size, DoublePredicate test) {
+        BitSet matching = new BitSet(size);
+        BitSet failing = new BitSet(size);
+        int length = Math.min(values.length, size);
+        for (int i = 0; i < length; i++) {
+            if (Float.isNaN(values[i])) continue;
+            if (test.test(values[i])) matching.set(i);
+            else failing.set(i);
+        }
+        return new Truth(matching, failing);
+    }
+
+    private static int rowLetterToNumber(String letters) {
+        int row = 0;
+        for (char c : letters.toUpperCase(Locale.ROOT).toCharArray()) {
+            row = row * 26 + (c - 'A' + 1);
+        }
+        return row;
+    }
+
+    // Tokenizer
+
+    private enum TokenType {
+        IDENTIFIER("a name"), QUOTED_IDENTIFIER("a quoted name"), STRING("a string"), NUMBER("a number"), OPERATOR("an operator"),
+        LEFT_PAREN("'('"), RIGHT_PAREN("')'"), COMMA("','"), END("end of filter");
+
+        private final String description;
+
+        TokenType(String description) {
+            this.description = description;
+        }
+    }
+
+    private static class Token {
+        private final TokenType type;
+        private final String text;
+        private final int position;
+
+        private Token(TokenType type, String text, int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+    }
+
+    private static List<Token> tokenize(String expression) throws ChartFilterException {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')' || c == ',') {
+                tokens.add(new Token(c == '(' ? TokenType.LEFT_PAREN : c == ')' ? TokenType.RIGHT_PAREN : TokenType.COMMA, String.valueOf(c), i));
+                i++;
+            } else if (c == '\'' || c == '"') {
+                int end = expression.indexOf(c, i + 1);
+                if (end < 0) throw new ChartFilterException("Invalid filter '" + expression + "' at position " + i + ": unterminated quote");
+                tokens.add(new Token(c == '"' ? TokenType.QUOTED_IDENTIFIER : TokenType.STRING, expression.substring(i + 1, end), i));
+                i = end + 1;
+            } else if (c == '=' || c == '!' || c == '<' || c == '>') {
+                int start = i++;
+                if (i < expression.length() && (expression.charAt(i) == '=' || (c == '<' && expression.charAt(i) == '>'))) i++;
+                String operator = expression.substring(start, i);
+                if (operator.equals("!")) throw new ChartFilterException("Invalid filter '" + expression + "' at position " + start + ": expected '!='");
+                tokens.add(new Token(TokenType.OPERATOR, operator, start));
+            } else if (Character.isDigit(c) || ((c == '-' || c == '.') && i + 1 < expression.length() && Character.isDigit(expression.charAt(i + 1)))) {
+                int start = i++;
+                while (i < expression.length() && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.'
+                        || expression.charAt(i) == 'e' || expression.charAt(i) == 'E'
+                        || ((expression.charAt(i) == '-' || expression.charAt(i) == '+') && (expression.charAt(i - 1) == 'e' || expression.charAt(i - 1) == 'E')))) {
+                    i++;
+                }
+                String number = expression.substring(start, i);
+                try {
+                    Double.parseDouble(number);
+                } catch (NumberFormatException e) {
+                    throw new ChartFilterException("Invalid filter '" + expression + "' at position " + start + ": invalid number '" + number + "'");
+                }
+                tokens.add(new Token(TokenType.NUMBER, number, start));
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_' || expression.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(new Token(TokenType.IDENTIFIER, expression.substring(start, i), start));
+            } else {
+                throw new ChartFilterException("Invalid filter '" + expression + "' at position " + i + ": unexpected character '" + c + "'");
+            }
+        }
+        tokens.add(new Token(TokenType.END, "", expression.length()));
+        return tokens;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.mapper;
+
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.model.ChartTemplate;
+
+/**
+ * Maps between {@link ChartTemplate} entities and {@link ChartTemplateDTO}s. Settings are not part of the entity and are left untouched.
+ */
+public final class ChartTemplateMapper {
+
+    private ChartTemplateMapper() {
+    }
+
+    public static ChartTemplate toChartTemplate(ChartTemplateDTO chartTemplateDTO) {
+        ChartTemplate chartTemplate = new ChartTemplate();
+        chartTemplate.setId(chartTemplateDTO.getId());
+        chartTemplate.setType(chartTemplateDTO.getType());
+        chartTemplate.setAxisX(chartTemplateDTO.getAxisX());
+        chartTemplate.setAxisY(chartTemplateDTO.getAxisY());
+        chartTemplate.setGroupBy(chartTemplateDTO.getGroupBy());
+        chartTemplate.setFilter(chartTemplateDTO.getFilter());
+        return chartTemplate;
+    }
+
+    /**
+     * Maps the chart template itself, without settings.
+     */
+    public static ChartTemplateDTO toChartTemplateDTO(ChartTemplate chartTemplate) {
+        ChartTemplateDTO chartTemplateDTO = new ChartTemplateDTO();
+        chartTemplateDTO.setId(chartTemplate.getId());
+        chartTemplateDTO.setType(chartTemplate.getType());
+        chartTemplateDTO.setAxisX(chartTemplate.getAxisX());
+        chartTemplateDTO.setAxisY(chartTemplate.getAxisY());
+        chartTemplateDTO.setGroupBy(chartTemplate.getGroupBy());
+        chartTemplateDTO.setFilter(chartTemplate.getFilter());
+        return chartTemplateDTO;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.mapper;
+
+import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
+import eu.openanalytics.phaedra.chartingservice.model.Setting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps between {@link Setting} entities and {@link SettingDTO}s.
+ * Written out by hand instead of using a reflection-based mapper, as it runs once per setting row when listing chart templates.
+ */
+public final class SettingMapper {
+
+    private SettingMapper() {
+    }
+
+    public static Setting toSetting(SettingDTO settingDTO) {
+        Setting setting = new Setting();
+        setting.setId(settingDTO.getId());
+        setting.setChartTemplateId(settingDTO.getChartTemplateId());
+        setting.setSettingType(settingDTO.getSettingType());
+        setting.setName(settingDTO.getName());
+        setting.setValue(settingDTO.getValue());
+        return setting;
+    }
+
+    public static SettingDTO toSettingDTO(Setting setting) {
+        return new SettingDTO(setting.getId(), setting.getChartTemplateId(), setting.getSettingType(), setting.getName(), setting.getValue());
+    }
+
+    public static List<SettingDTO> toSettingDTOs(List<Setting> settings) {
+        List<SettingDTO> settingDTOs = new ArrayList<>(settings.size());
+        for (Setting setting : settings) {
+            settingDTOs.add(toSettingDTO(setting));
+        }
+        return settingDTOs;
+    }
+}
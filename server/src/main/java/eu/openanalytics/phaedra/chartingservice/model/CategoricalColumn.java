@@ -0,0 +1,139 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Dictionary-encoded column of categorical values: every distinct value is stored once, rows refer to it by code.
+ */
+@Getter
+public class CategoricalColumn {
+
+    private final String[] dictionary;
+    private final int[] codes;
+
+    public CategoricalColumn(String[] dictionary, int[] codes) {
+        this.dictionary = dictionary;
+        this.codes = codes;
+    }
+
+    public static CategoricalColumn encode(int size, IntFunction<String> values) {
+        Map<String, Integer> codeByValue = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] codes = new int[size];
+        for (int i = 0; i < size; i++) {
+            String value = values.apply(i);
+            Integer code = codeByValue.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                codeByValue.put(value, code);
+                dictionary.add(value);
+            }
+            codes[i] = code;
+        }
+        return new CategoricalColumn(dictionary.toArray(String[]::new), codes);
+    }
+
+    /**
+     * Appends the columns into one column with a merged dictionary, in which values keep the order of their first occurrence.
+     */
+    public static CategoricalColumn concat(List<CategoricalColumn> columns) {
+        if (columns.size() == 1) return columns.get(0);
+        Map<String, Integer> codeByValue = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] codes = new int[columns.stream().mapToInt(CategoricalColumn::size).sum()];
+        int offset = 0;
+        for (CategoricalColumn column : columns) {
+            int[] recoded = new int[column.dictionary.length];
+            for (int code = 0; code < column.dictionary.length; code++) {
+                recoded[code] = codeByValue.computeIfAbsent(column.dictionary[code], value -> {
+                    dictionary.add(value);
+                    return dictionary.size() - 1;
+                });
+            }
+            for (int i = 0; i < column.codes.length; i++) {
+                codes[offset + i] = recoded[column.codes[i]];
+            }
+            offset += column.codes.length;
+        }
+        return new CategoricalColumn(dictionary.toArray(String[]::new), codes);
+    }
+
+    /**
+     * Returns the column with its rows reordered, row i of the result being row order[i] of this column. The dictionary is shared.
+     */
+    public CategoricalColumn permute(int[] order) {
+        int[] permutedCodes = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            permutedCodes[i] = codes[order[i]];
+        }
+        return new CategoricalColumn(dictionary, permutedCodes);
+    }
+
+    /**
+     * Returns the selected rows, with a dictionary reduced to the values that still occur.
+     */
+    public CategoricalColumn select(BitSet selection) {
+        int[] recoded = new int[dictionary.length];
+        Arrays.fill(recoded, -1);
+        List<String> selectedDictionary = new ArrayList<>();
+        int[] selectedCodes = new int[selection.cardinality()];
+        int row = 0;
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            int code = codes[i];
+            if (recoded[code] < 0) {
+                recoded[code] = selectedDictionary.size();
+                selectedDictionary.add(dictionary[code]);
+            }
+            selectedCodes[row++] = recoded[code];
+        }
+        return new CategoricalColumn(selectedDictionary.toArray(String[]::new), selectedCodes);
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    public String get(int index) {
+        return dictionary[codes[index]];
+    }
+
+    /**
+     * Evaluates the predicate once per distinct value, the result is indexed by code.
+     */
+    public boolean[] matchCodes(Predicate<String> predicate) {
+        boolean[] matches = new boolean[dictionary.length];
+        for (int code = 0; code < dictionary.length; code++) {
+            matches[code] = dictionary[code] != null && predicate.test(dictionary[code]);
+        }
+        return matches;
+    }
+}
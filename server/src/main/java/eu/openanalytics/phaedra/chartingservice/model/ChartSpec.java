@@ -0,0 +1,79 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Normalized description of a chart request.
+ * Two requests that produce the same chart have equal specs, regardless of the case of the chart type and grouping.
+ * Plates are kept in the requested order, duplicates included, as the wells of the plates are returned in that order.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ChartSpec {
+
+    private static final Set<String> WELL_GROUPINGS = Set.of("welltype", "substance", "row", "column", "status");
+
+    String type;
+    List<Long> plateIds;
+    Long protocolId;
+    List<Long> featureIds;
+    String groupBy;
+    String filter;
+
+    public static ChartSpec of(String type, List<Long> plateIds, Long protocolId, List<Long> featureIds, String groupBy) {
+        return of(type, plateIds, protocolId, featureIds, groupBy, null);
+    }
+
+    public static ChartSpec of(String type, List<Long> plateIds, Long protocolId, List<Long> featureIds, String groupBy, String filter) {
+        return new ChartSpec(
+                type == null ? null : type.toLowerCase(Locale.ROOT),
+                plateIds == null ? List.of() : List.copyOf(plateIds),
+                protocolId,
+                // Feature order is significant (e.g. x and y axis), so it is kept as is
+                featureIds == null ? List.of() : List.copyOf(featureIds),
+                normalizeGroupBy(groupBy),
+                filter == null || filter.isBlank() ? null : filter.trim());
+    }
+
+    /**
+     * Returns the same spec for another set of plates.
+     */
+    public ChartSpec withPlateIds(List<Long> plateIds) {
+        return of(type, plateIds, protocolId, featureIds, groupBy, filter);
+    }
+
+    /**
+     * Well properties are matched case-insensitively, any other value is used as-is as the name of a single group.
+     */
+    private static String normalizeGroupBy(String groupBy) {
+        if (groupBy == null) return null;
+        String lowerCase = groupBy.toLowerCase(Locale.ROOT);
+        return WELL_GROUPINGS.contains(lowerCase) ? lowerCase : groupBy;
+    }
+}
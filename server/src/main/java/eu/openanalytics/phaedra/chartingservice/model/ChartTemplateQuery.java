@@ -0,0 +1,40 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A page of chart templates: the templates with an id greater than {@code afterId}, in id order, matching all given filters.
+ * Filters that are null are not applied, and a null limit returns all remaining templates.
+ */
+@Value
+@Builder
+public class ChartTemplateQuery {
+    Long afterId;
+    Integer limit;
+    String type;
+    String axisX;
+    String axisY;
+    String groupBy;
+    boolean includeSettings;
+}
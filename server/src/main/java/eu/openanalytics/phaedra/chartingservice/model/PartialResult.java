@@ -0,0 +1,36 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import eu.openanalytics.phaedra.chartingservice.dto.PlateErrorDTO;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The result for the plates of a request that could be resolved, and an error for each plate that could not.
+ * The result is null if none of the plates could be resolved.
+ */
+@Value
+public class PartialResult<T> {
+    T result;
+    List<PlateErrorDTO> errors;
+}
@@ -0,0 +1,180 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
+import lombok.Getter;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compact, immutable index of the wells of one or more plates: positions are kept in primitive arrays and well types, statuses
+ * and substances are dictionary-encoded, so charts can group and filter wells with array lookups instead of going through the well DTOs.
+ * Grouping by row or column uses a dictionary of the distinct positions, encoded once when the layout is built.
+ */
+@Getter
+public class WellLayout {
+
+    private final int size;
+    private final long[] wellIds;
+    private final long[] plateIds;
+    private final int[] rows;
+    private final int[] columns;
+    private final CategoricalColumn wellTypes;
+    private final CategoricalColumn statuses;
+    private final CategoricalColumn substances;
+    private final CategoricalColumn rowGroups;
+    private final CategoricalColumn columnGroups;
+
+    private WellLayout(long[] wellIds, long[] plateIds, int[] rows, int[] columns,
+                       CategoricalColumn wellTypes, CategoricalColumn statuses, CategoricalColumn substances) {
+        this.size = wellIds.length;
+        this.wellIds = wellIds;
+        this.plateIds = plateIds;
+        this.rows = rows;
+        this.columns = columns;
+        this.wellTypes = wellTypes;
+        this.statuses = statuses;
+        this.substances = substances;
+        this.rowGroups = CategoricalColumn.encode(size, i -> String.valueOf(rows[i]));
+        this.columnGroups = CategoricalColumn.encode(size, i -> String.valueOf(columns[i]));
+    }
+
+    /**
+     * Builds the layout of the wells, in the given order.
+     */
+    public static WellLayout of(List<WellDTO> wells) {
+        int size = wells.size();
+        long[] wellIds = new long[size];
+        long[] plateIds = new long[size];
+        int[] rows = new int[size];
+        int[] columns = new int[size];
+        for (int i = 0; i < size; i++) {
+            WellDTO well = wells.get(i);
+            wellIds[i] = well.getId();
+            plateIds[i] = well.getPlateId();
+            rows[i] = well.getRow();
+            columns[i] = well.getColumn();
+        }
+        return new WellLayout(wellIds, plateIds, rows, columns,
+                CategoricalColumn.encode(size, i -> wells.get(i).getWellType()),
+                CategoricalColumn.encode(size, i -> wells.get(i).getStatus() == null ? null : wells.get(i).getStatus().name()),
+                CategoricalColumn.encode(size, i -> wells.get(i).getWellSubstance() == null ? null : wells.get(i).getWellSubstance().getName()));
+    }
+
+    /**
+     * Appends the layouts of several plates into one layout, in the given order.
+     */
+    public static WellLayout concat(List<WellLayout> layouts) {
+        if (layouts.size() == 1) return layouts.get(0);
+        int size = layouts.stream().mapToInt(WellLayout::getSize).sum();
+        long[] wellIds = new long[size];
+        long[] plateIds = new long[size];
+        int[] rows = new int[size];
+        int[] columns = new int[size];
+        int offset = 0;
+        for (WellLayout layout : layouts) {
+            System.arraycopy(layout.wellIds, 0, wellIds, offset, layout.size);
+            System.arraycopy(layout.plateIds, 0, plateIds, offset, layout.size);
+            System.arraycopy(layout.rows, 0, rows, offset, layout.size);
+            System.arraycopy(layout.columns, 0, columns, offset, layout.size);
+            offset += layout.size;
+        }
+        return new WellLayout(wellIds, plateIds, rows, columns,
+                CategoricalColumn.concat(layouts.stream().map(WellLayout::getWellTypes).collect(Collectors.toList())),
+                CategoricalColumn.concat(layouts.stream().map(WellLayout::getStatuses).collect(Collectors.toList())),
+                CategoricalColumn.concat(layouts.stream().map(WellLayout::getSubstances).collect(Collectors.toList())));
+    }
+
+    /**
+     * Returns this layout with the wells ordered by ascending well id, or this layout itself if they already are.
+     */
+    public WellLayout sortedById() {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = wellIds[i - 1] <= wellIds[i];
+        }
+        if (sorted) return this;
+
+        int[] order = IntStream.range(0, size).boxed()
+                .sorted((a, b) -> Long.compare(wellIds[a], wellIds[b]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        long[] sortedWellIds = new long[size];
+        long[] sortedPlateIds = new long[size];
+        int[] sortedRows = new int[size];
+        int[] sortedColumns = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedWellIds[i] = wellIds[order[i]];
+            sortedPlateIds[i] = plateIds[order[i]];
+            sortedRows[i] = rows[order[i]];
+            sortedColumns[i] = columns[order[i]];
+        }
+        return new WellLayout(sortedWellIds, sortedPlateIds, sortedRows, sortedColumns,
+                wellTypes.permute(order), statuses.permute(order), substances.permute(order));
+    }
+
+    /**
+     * Returns the layout of the selected wells only, or this layout itself if all wells are selected.
+     */
+    public WellLayout select(BitSet selection) {
+        int selectedSize = selection.cardinality();
+        if (selectedSize == size && selection.length() == size) return this;
+        long[] selectedWellIds = new long[selectedSize];
+        long[] selectedPlateIds = new long[selectedSize];
+        int[] selectedRows = new int[selectedSize];
+        int[] selectedColumns = new int[selectedSize];
+        int row = 0;
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            selectedWellIds[row] = wellIds[i];
+            selectedPlateIds[row] = plateIds[i];
+            selectedRows[row] = rows[i];
+            selectedColumns[row] = columns[i];
+            row++;
+        }
+        return new WellLayout(selectedWellIds, selectedPlateIds, selectedRows, selectedColumns,
+                wellTypes.select(selection), statuses.select(selection), substances.select(selection));
+    }
+
+    /**
+     * Returns the column to group wells by for the given (normalized) well property, or null if it is not a well property.
+     */
+    public CategoricalColumn getGroups(String groupBy) {
+        if (groupBy == null) return null;
+        switch (groupBy) {
+            case "welltype":
+                return wellTypes;
+            case "substance":
+                return substances;
+            case "row":
+                return rowGroups;
+            case "column":
+                return columnGroups;
+            case "status":
+                return statuses;
+            default:
+                return null;
+        }
+    }
+}
@@ -20,12 +20,24 @@
  */
 package eu.openanalytics.phaedra.chartingservice.repository;
 
+import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
 import eu.openanalytics.phaedra.chartingservice.model.ChartTemplate;
 
+import java.util.List;
+
 @Repository
-public interface ChartTemplateRepository extends CrudRepository<ChartTemplate, Long> {
+public interface ChartTemplateRepository extends CrudRepository<ChartTemplate, Long>, ChartTemplateRepositoryCustom {
 
+    //Get the chart templates after the given id in id order, a null filter value matches any template
+    @Query("SELECT * FROM hca_chart_template"
+            + " WHERE id > :afterId"
+            + " AND (CAST(:type AS text) IS NULL OR type = :type)"
+            + " AND (CAST(:axisX AS text) IS NULL OR axis_x = :axisX)"
+            + " AND (CAST(:axisY AS text) IS NULL OR axis_y = :axisY)"
+            + " AND (CAST(:groupBy AS text) IS NULL OR group_by = :groupBy)"
+            + " ORDER BY id LIMIT :limit")
+    List<ChartTemplate> findPage(long afterId, String type, String axisX, String axisY, String groupBy, int limit);
 }
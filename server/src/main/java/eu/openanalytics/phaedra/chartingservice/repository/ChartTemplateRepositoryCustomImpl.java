@@ -0,0 +1,66 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.repository;
+
+import eu.openanalytics.phaedra.chartingservice.model.ChartTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+
+public class ChartTemplateRepositoryCustomImpl implements ChartTemplateRepositoryCustom {
+
+    //Six bind parameters per row, well below the JDBC bind parameter limit
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public ChartTemplateRepositoryCustomImpl(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<ChartTemplate> insertAll(List<ChartTemplate> chartTemplates) {
+        for (int from = 0; from < chartTemplates.size(); from += INSERT_BATCH_SIZE) {
+            List<ChartTemplate> batch = chartTemplates.subList(from, Math.min(from + INSERT_BATCH_SIZE, chartTemplates.size()));
+            //One multi-row insert per batch. RETURNING does not guarantee the order of the rows, so the ids are taken from the sequence up front
+            List<Long> ids = jdbcTemplate.queryForList("SELECT nextval(pg_get_serial_sequence('hca_chart_template', 'id')) FROM generate_series(1, :count)",
+                    new MapSqlParameterSource("count", batch.size()), Long.class);
+            StringBuilder sql = new StringBuilder("INSERT INTO hca_chart_template(id, type, axis_x, axis_y, group_by, filter) VALUES ");
+            MapSqlParameterSource parameters = new MapSqlParameterSource();
+            for (int i = 0; i < batch.size(); i++) {
+                ChartTemplate chartTemplate = batch.get(i);
+                chartTemplate.setId(ids.get(i));
+                if (i > 0) sql.append(", ");
+                sql.append("(:id").append(i).append(", :type").append(i).append(", :axisX").append(i).append(", :axisY").append(i)
+                        .append(", :groupBy").append(i).append(", :filter").append(i).append(")");
+                parameters.addValue("id" + i, chartTemplate.getId());
+                parameters.addValue("type" + i, chartTemplate.getType());
+                parameters.addValue("axisX" + i, chartTemplate.getAxisX());
+                parameters.addValue("axisY" + i, chartTemplate.getAxisY());
+                parameters.addValue("groupBy" + i, chartTemplate.getGroupBy());
+                parameters.addValue("filter" + i, chartTemplate.getFilter());
+            }
+            jdbcTemplate.update(sql.toString(), parameters);
+        }
+        return chartTemplates;
+    }
+}
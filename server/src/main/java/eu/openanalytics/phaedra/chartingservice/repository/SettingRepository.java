@@ -26,15 +26,24 @@ import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.Collection;
 import java.util.List;
 
-public interface SettingRepository extends CrudRepository<Setting, Long> {
+public interface SettingRepository extends CrudRepository<Setting, Long>, SettingRepositoryCustom {
     List<Setting> findByChartTemplateId(Long chartTemplateId);
 
     List<Setting> findByChartTemplateIdAndSettingType(Long chartTemplateId, SettingType settingType);
 
+    //Get the settings of several chart templates in one query
+    List<Setting> findByChartTemplateIdIn(Collection<Long> chartTemplateIds);
+
     //Delete all settings for a chart template
     @Modifying
     @Query("DELETE FROM hca_setting WHERE chart_template_id = :chartTemplateId")
     void deleteByChartTemplateId(Long chartTemplateId);
+
+    //Delete several settings in one statement
+    @Modifying
+    @Query("DELETE FROM hca_setting WHERE id IN (:ids)")
+    void deleteByIdIn(Collection<Long> ids);
 }
@@ -0,0 +1,34 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.repository;
+
+import eu.openanalytics.phaedra.chartingservice.model.Setting;
+
+import java.util.List;
+
+public interface SettingRepositoryCustom {
+
+    //Insert new settings with as few statements as possible, the generated ids are set on the given settings
+    List<Setting> insertAll(List<Setting> settings);
+
+    //Update existing settings in one JDBC batch
+    void updateAll(List<Setting> settings);
+}
@@ -0,0 +1,79 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.repository;
+
+import eu.openanalytics.phaedra.chartingservice.model.Setting;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.util.List;
+
+public class SettingRepositoryCustomImpl implements SettingRepositoryCustom {
+
+    //Five bind parameters per row, well below the JDBC bind parameter limit
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public SettingRepositoryCustomImpl(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<Setting> insertAll(List<Setting> settings) {
+        for (int from = 0; from < settings.size(); from += INSERT_BATCH_SIZE) {
+            List<Setting> batch = settings.subList(from, Math.min(from + INSERT_BATCH_SIZE, settings.size()));
+            //One multi-row insert per batch. RETURNING does not guarantee the order of the rows, so the ids are taken from the sequence up front
+            List<Long> ids = jdbcTemplate.queryForList("SELECT nextval(pg_get_serial_sequence('hca_setting', 'id')) FROM generate_series(1, :count)",
+                    new MapSqlParameterSource("count", batch.size()), Long.class);
+            StringBuilder sql = new StringBuilder("INSERT INTO hca_setting(id, chart_template_id, setting_type, name, value) VALUES ");
+            MapSqlParameterSource parameters = new MapSqlParameterSource();
+            for (int i = 0; i < batch.size(); i++) {
+                Setting setting = batch.get(i);
+                setting.setId(ids.get(i));
+                if (i > 0) sql.append(", ");
+                sql.append("(:id").append(i).append(", :chartTemplateId").append(i).append(", :settingType").append(i).append(", :name").append(i).append(", :value").append(i).append(")");
+                parameters.addValue("id" + i, setting.getId());
+                parameters.addValue("chartTemplateId" + i, setting.getChartTemplateId());
+                parameters.addValue("settingType" + i, setting.getSettingType().name());
+                parameters.addValue("name" + i, setting.getName());
+                parameters.addValue("value" + i, setting.getValue());
+            }
+            jdbcTemplate.update(sql.toString(), parameters);
+        }
+        return settings;
+    }
+
+    @Override
+    public void updateAll(List<Setting> settings) {
+        if (settings.isEmpty()) return;
+        SqlParameterSource[] batch = settings.stream()
+                .map(setting -> new MapSqlParameterSource()
+                        .addValue("id", setting.getId())
+                        .addValue("chartTemplateId", setting.getChartTemplateId())
+                        .addValue("settingType", setting.getSettingType().name())
+                        .addValue("name", setting.getName())
+                        .addValue("value", setting.getValue()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("UPDATE hca_setting SET chart_template_id = :chartTemplateId, setting_type = :settingType, name = :name, value = :value WHERE id = :id", batch);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scheduled maintenance of the chart caches.
+ * <ul>
+ *     <li>Expired entries are swept regularly. Caffeine otherwise only removes them as a side effect of later accesses,
+ *     so on an idle instance they would keep their memory until the next request.</li>
+ *     <li>Frequently used well layouts are reloaded shortly before they expire, so a plate that is in use does not
+ *     periodically pay for loading its wells again. The wells are loaded outside of any user request, as the {@link ServiceAccount},
+ *     so refresh-ahead only runs when a service account is configured. Chart results and templates need no refresh-ahead:
+ *     chart results are cheap to render again once their well layout is cached, and templates are loaded from the database.</li>
+ *     <li>Hit ratio, size and evictions of each cache over the last interval are logged. The cumulative statistics
+ *     are available as metrics.</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class ChartCacheMaintenance {
+
+    private final ChartResultCache chartResultCache;
+    private final WellLayoutCache wellLayoutCache;
+    private final ChartTemplateCache chartTemplateCache;
+    private final ObjectProvider<ServiceAccount> serviceAccount;
+    private final Duration refreshAheadWindow;
+    private final int refreshAheadMaxEntries;
+    private final Map<String, CacheStats> previousStats = new HashMap<>();
+
+    public ChartCacheMaintenance(ChartResultCache chartResultCache, WellLayoutCache wellLayoutCache, ChartTemplateCache chartTemplateCache,
+                                 ObjectProvider<ServiceAccount> serviceAccount,
+                                 @Value("${phaedra2.charting.cache.maintenance.refresh-ahead.window:PT1M}") Duration refreshAheadWindow,
+                                 @Value("${phaedra2.charting.cache.maintenance.refresh-ahead.max-entries:100}") int refreshAheadMaxEntries) {
+        this.chartResultCache = chartResultCache;
+        this.wellLayoutCache = wellLayoutCache;
+        this.chartTemplateCache = chartTemplateCache;
+        this.serviceAccount = serviceAccount;
+        this.refreshAheadWindow = refreshAheadWindow;
+        this.refreshAheadMaxEntries = refreshAheadMaxEntries;
+    }
+
+    @Scheduled(fixedDelayString = "${phaedra2.charting.cache.maintenance.clean-up-interval:PT1M}",
+            initialDelayString = "${phaedra2.charting.cache.maintenance.clean-up-interval:PT1M}")
+    public void cleanUp() {
+        chartResultCache.cleanUp();
+        wellLayoutCache.cleanUp();
+        chartTemplateCache.cleanUp();
+    }
+
+    @Scheduled(fixedDelayString = "${phaedra2.charting.cache.maintenance.refresh-ahead.interval:PT30S}",
+            initialDelayString = "${phaedra2.charting.cache.maintenance.refresh-ahead.interval:PT30S}")
+    public void refreshAhead() {
+        ServiceAccount serviceAccount = this.serviceAccount.getIfAvailable();
+        if (serviceAccount == null) return;
+        try {
+            int refreshed = serviceAccount.runAs(() -> wellLayoutCache.refreshAhead(refreshAheadWindow, refreshAheadMaxEntries));
+            if (refreshed > 0) log.debug("Refreshed {} well layouts ahead of expiry", refreshed);
+        } catch (ChartDataException e) {
+            log.warn("Could not refresh well layouts ahead of expiry: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${phaedra2.charting.cache.maintenance.statistics-interval:PT15M}",
+            initialDelayString = "${phaedra2.charting.cache.maintenance.statistics-interval:PT15M}")
+    public void logStatistics() {
+        logStatistics("chart.results", chartResultCache.stats(), chartResultCache.estimatedSize());
+        logStatistics("chart.well-layouts", wellLayoutCache.stats(), wellLayoutCache.estimatedSize());
+        logStatistics("chart.templates", chartTemplateCache.stats(), chartTemplateCache.estimatedSize());
+    }
+
+    private synchronized void logStatistics(String name, CacheStats stats, long size) {
+        CacheStats previous = previousStats.put(name, stats);
+        CacheStats interval = previous == null ? stats : stats.minus(previous);
+        log.info("Cache {}: {} entries, {} requests with hit ratio {}, {} evictions since the last report",
+                name, size, interval.requestCount(), String.format("%.3f", interval.hitRate()), interval.evictionCount());
+    }
+}
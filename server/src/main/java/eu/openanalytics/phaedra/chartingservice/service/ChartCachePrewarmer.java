@@ -0,0 +1,211 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms the caches of plates for which a new result set has been calculated, so the first view of such a plate
+ * is served from cache instead of from the upstream services.
+ * <p>
+ * Result set events are consumed from a Kafka topic, of which every instance is assigned all partitions without a consumer group
+ * (see {@link KafkaPartitionFinder}), because every instance has its own caches. Plates are queued (once, however many events arrive for them) and warmed one at a time,
+ * at most one plate per interval. A plate is not warmed while more than a configured number of interactive chart requests
+ * are in flight, it then waits for the next interval.
+ * <p>
+ * Warming a plate loads its well layout, and renders each of the configured default chart templates and chart data types.
+ * Templates name features of a protocol, so a template whose axes are not features of the protocol of the plate is skipped;
+ * neither that nor the failure of another template or data type keeps the rest from being warmed.
+ * With plate-affinity routing, only the plates owned by this instance are warmed, as requests for other plates are forwarded.
+ * Plates are warmed outside of any user request, so the upstream calls are authenticated as the {@link ServiceAccount},
+ * which must be configured as well. Chart results are cached per caller, so users are served the warmed well layouts,
+ * while the charts rendered here are only served to requests made as the service account. Enabled by setting {@code phaedra2.charting.prewarm.topic}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty("phaedra2.charting.prewarm.topic")
+public class ChartCachePrewarmer {
+
+    private final WellLayoutCache wellLayoutCache;
+    private final ChartService chartService;
+    private final ChartDataService chartDataService;
+    private final ChartRequestCoalescer chartRequestCoalescer;
+    private final ServiceAccount serviceAccount;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final ObjectProvider<PlateAffinityRouter> router;
+    private final List<Long> chartTemplateIds;
+    private final List<String> chartDataTypes;
+    private final int maxInFlightRequests;
+
+    private final BlockingQueue<Long> queue;
+    private final Set<Long> queuedPlateIds = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    public ChartCachePrewarmer(WellLayoutCache wellLayoutCache, ChartService chartService, ChartDataService chartDataService,
+                               ChartRequestCoalescer chartRequestCoalescer, ServiceAccount serviceAccount, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                               ObjectProvider<PlateAffinityRouter> router,
+                               @Value("${phaedra2.charting.prewarm.chart-template-ids:}") List<Long> chartTemplateIds,
+                               @Value("${phaedra2.charting.prewarm.chart-data-types:}") List<String> chartDataTypes,
+                               @Value("${phaedra2.charting.prewarm.interval:PT2S}") Duration interval,
+                               @Value("${phaedra2.charting.prewarm.max-queued-plates:1000}") int maxQueuedPlates,
+                               @Value("${phaedra2.charting.prewarm.max-inflight-requests:2}") int maxInFlightRequests) {
+        this.wellLayoutCache = wellLayoutCache;
+        this.chartService = chartService;
+        this.chartDataService = chartDataService;
+        this.chartRequestCoalescer = chartRequestCoalescer;
+        this.serviceAccount = serviceAccount;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.router = router;
+        this.chartTemplateIds = List.copyOf(chartTemplateIds);
+        this.chartDataTypes = List.copyOf(chartDataTypes);
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.queue = new ArrayBlockingQueue<>(maxQueuedPlates);
+        Gauge.builder("chart.prewarm.queue", queue, BlockingQueue::size)
+                .description("Number of plates waiting to be warmed")
+                .register(meterRegistry);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chart-prewarmer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::warmNext, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handles a result set event: either the JSON of the result set, or just the id of its plate.
+     */
+    @KafkaListener(topicPartitions = @TopicPartition(topic = "${phaedra2.charting.prewarm.topic}",
+            partitions = "#{@kafkaPartitionFinder.partitions('${phaedra2.charting.prewarm.topic}')}"),
+            properties = {"auto.offset.reset=latest", "enable.auto.commit=false"})
+    public void onResultSetEvent(String message) {
+        Long plateId = parsePlateId(message);
+        if (plateId == null) {
+            log.warn("Ignoring result set event without a plate id: {}", message);
+            return;
+        }
+        submit(plateId);
+    }
+
+    /**
+     * Queues a plate to be warmed, unless it is queued already or owned by another instance. Returns false if the queue is full and the plate is dropped.
+     */
+    public boolean submit(Long plateId) {
+        PlateAffinityRouter router = this.router.getIfAvailable();
+        if (router != null && router.getOwner(plateId) != null) return true;
+        if (!queuedPlateIds.add(plateId)) return true;
+        if (queue.offer(plateId)) return true;
+        queuedPlateIds.remove(plateId);
+        plateCounter("dropped").increment();
+        return false;
+    }
+
+    /**
+     * Warms the next queued plate, unless interactive chart requests are in flight.
+     * Returns whether a plate was warmed (or failed to warm).
+     */
+    boolean warmNext() {
+        if (queue.isEmpty() || chartRequestCoalescer.getInFlightCount() > maxInFlightRequests) return false;
+        Long plateId = queue.poll();
+        if (plateId == null) return false;
+        queuedPlateIds.remove(plateId);
+        try {
+            serviceAccount.runAs(() -> {
+                warm(plateId);
+                return null;
+            });
+            plateCounter("warmed").increment();
+        } catch (ChartDataException | RuntimeException e) {
+            log.warn("Could not warm the caches of plate {}: {}", plateId, e.getMessage());
+            plateCounter("failed").increment();
+        }
+        return true;
+    }
+
+    private void warm(Long plateId) throws ChartDataException {
+        List<Long> plateIds = List.of(plateId);
+        wellLayoutCache.get(plateId);
+        for (Long chartTemplateId : chartTemplateIds) {
+            try {
+                chartService.renderChartFromTemplate(chartTemplateId, plateIds);
+            } catch (ChartDataException | RuntimeException e) {
+                log.debug("Skipped chart template {} for plate {}: {}", chartTemplateId, plateId, e.getMessage());
+            }
+        }
+        for (String type : chartDataTypes) {
+            try {
+                chartDataService.renderChartDataByPlateIds(plateIds, type, null);
+                chartDataService.renderChartDataColumnsByPlateIds(plateIds, type, null);
+            } catch (ChartDataException | RuntimeException e) {
+                log.debug("Could not warm the {} chart data of plate {}: {}", type, plateId, e.getMessage());
+            }
+        }
+    }
+
+    private Long parsePlateId(String message) {
+        try {
+            JsonNode event = objectMapper.readTree(message);
+            JsonNode plateId = event.isNumber() ? event : event.path("plateId");
+            return plateId.canConvertToLong() ? plateId.asLong() : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private Counter plateCounter(String outcome) {
+        return Counter.builder("chart.prewarm.plates")
+                .description("Plates queued for warming, by whether they were warmed, failed to warm or dropped because the queue was full")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -20,70 +20,248 @@
  */
 package eu.openanalytics.phaedra.chartingservice.service;
 
+import eu.openanalytics.phaedra.chartingservice.dto.CategoricalColumnDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartDataColumnsDTO;
 import eu.openanalytics.phaedra.chartingservice.dto.ChartDataDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.PlateErrorDTO;
 import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.filter.WellColumns;
+import eu.openanalytics.phaedra.chartingservice.filter.WellFilter;
+import eu.openanalytics.phaedra.chartingservice.filter.WellFilterParser;
 import eu.openanalytics.phaedra.chartingservice.dto.ChartTupleDTO;
+import eu.openanalytics.phaedra.chartingservice.model.CategoricalColumn;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.model.PartialResult;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.chartingservice.model.WellLayout;
 import eu.openanalytics.phaedra.plateservice.dto.PlateMeasurementDTO;
-import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
-import eu.openanalytics.phaedra.protocolservice.client.exception.ProtocolUnresolvableException;
 import eu.openanalytics.phaedra.protocolservice.dto.FeatureDTO;
-import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultDataUnresolvableException;
-import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultSetUnresolvableException;
 import eu.openanalytics.phaedra.resultdataservice.dto.ResultDataDTO;
 import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
 import org.springframework.stereotype.Service;
 
-import eu.openanalytics.phaedra.resultdataservice.client.ResultDataServiceClient;
-import eu.openanalytics.phaedra.plateservice.client.PlateServiceClient;
-import eu.openanalytics.phaedra.plateservice.client.exception.PlateUnresolvableException;
-import eu.openanalytics.phaedra.protocolservice.client.ProtocolServiceClient;
-
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
 public class ChartDataService {
 
-    private final ResultDataServiceClient resultDataServiceClient;
-    private final PlateServiceClient plateServiceClient;
-    private final ProtocolServiceClient protocolServiceClient;
+    private final UpstreamClient upstreamClient;
+    private final ChartRequestCoalescer chartRequestCoalescer;
+    private final ChartResultCache chartResultCache;
+    private final WellLayoutCache wellLayoutCache;
+    private final ChartMetrics chartMetrics;
 
-    public ChartDataService(ResultDataServiceClient resultDataServiceClient, PlateServiceClient plateServiceClient, ProtocolServiceClient protocolServiceClient) {
-        this.resultDataServiceClient = resultDataServiceClient;
-        this.plateServiceClient = plateServiceClient;
-        this.protocolServiceClient = protocolServiceClient;
+    public ChartDataService(UpstreamClient upstreamClient, ChartRequestCoalescer chartRequestCoalescer, ChartResultCache chartResultCache,
+                            WellLayoutCache wellLayoutCache, ChartMetrics chartMetrics) {
+        this.upstreamClient = upstreamClient;
+        this.chartRequestCoalescer = chartRequestCoalescer;
+        this.chartResultCache = chartResultCache;
+        this.wellLayoutCache = wellLayoutCache;
+        this.chartMetrics = chartMetrics;
     }
 
     public List<ChartDataDTO> getChartDataByPlateIds(List<Long> plateIds, String type) throws ChartDataException {
-        List<ChartDataDTO> chartData = new ArrayList<>();
-        for (Long plateId : plateIds) {
-            chartData.addAll(getChartDataByPlateId(plateId, type));
+        return renderChartDataByPlateIds(plateIds, type, null).getValue();
+    }
+
+    /**
+     * Returns the chart data for the wells of the given plates that pass the filter, together with its serialized form.
+     * The wells of the plates are returned in the order of the given plate ids.
+     * The result is cached per caller for as long as the latest result set of each plate does not change.
+     */
+    public RenderedResult<List<ChartDataDTO>> renderChartDataByPlateIds(List<Long> plateIds, String type, String filter) throws ChartDataException {
+        ChartSpec spec = ChartSpec.of(type, plateIds, null, null, null, filter);
+        WellFilter wellFilter = WellFilterParser.parse(spec.getFilter());
+        return chartRequestCoalescer.execute("chartData", spec, () -> renderChartData(spec, wellFilter, getLatestResultSets(spec.getPlateIds())));
+    }
+
+    /**
+     * Returns the same chart data as {@link #renderChartDataByPlateIds(List, String, String)} for the plates that can be resolved,
+     * with an error for each plate whose active measurement, latest result set or wells cannot be resolved, instead of failing the whole request.
+     */
+    public PartialResult<RenderedResult<List<ChartDataDTO>>> renderChartDataByPlateIdsPartially(List<Long> plateIds, String type, String filter) throws ChartDataException {
+        return renderPartially("chartData", ChartSpec.of(type, plateIds, null, null, null, filter), this::renderChartData);
+    }
+
+    /**
+     * Returns the same chart data as {@link #renderChartDataByPlateIds(List, String, String)} in columnar form, together with its serialized form.
+     * Well types, statuses and substances are sent as a dictionary of their distinct values with a code per well, instead of a string per well.
+     * Wells are ordered by plate, in the requested order, then by well id. A feature that is missing for one of the plates has NaN values for the wells of that plate.
+     */
+    public RenderedResult<ChartDataColumnsDTO> renderChartDataColumnsByPlateIds(List<Long> plateIds, String type, String filter) throws ChartDataException {
+        ChartSpec spec = ChartSpec.of(type, plateIds, null, null, null, filter);
+        WellFilter wellFilter = WellFilterParser.parse(spec.getFilter());
+        return chartRequestCoalescer.execute("chartDataColumns", spec, () -> renderChartDataColumns(spec, wellFilter, getLatestResultSets(spec.getPlateIds())));
+    }
+
+    /**
+     * Returns the columnar chart data for the plates that can be resolved, with an error for each plate that cannot,
+     * see {@link #renderChartDataByPlateIdsPartially(List, String, String)}.
+     */
+    public PartialResult<RenderedResult<ChartDataColumnsDTO>> renderChartDataColumnsByPlateIdsPartially(List<Long> plateIds, String type, String filter) throws ChartDataException {
+        return renderPartially("chartDataColumns", ChartSpec.of(type, plateIds, null, null, null, filter), this::renderChartDataColumns);
+    }
+
+    private RenderedResult<List<ChartDataDTO>> renderChartData(ChartSpec spec, WellFilter wellFilter, List<ResultSetDTO> resultSets) throws ChartDataException {
+        return chartResultCache.get("chartData", spec, getResultSetIds(resultSets), () -> {
+            List<ChartDataDTO> chartData = new ArrayList<>();
+            for (int i = 0; i < resultSets.size(); i++) {
+                chartData.addAll(getChartDataByPlateIdAndResultSet(spec, spec.getPlateIds().get(i), resultSets.get(i), wellFilter));
+            }
+            return chartData;
+        });
+    }
+
+    private RenderedResult<ChartDataColumnsDTO> renderChartDataColumns(ChartSpec spec, WellFilter wellFilter, List<ResultSetDTO> resultSets) throws ChartDataException {
+        return chartResultCache.get("chartDataColumns", spec, getResultSetIds(resultSets), () -> {
+            List<WellLayout> layouts = new ArrayList<>(resultSets.size());
+            List<Map<String, float[]>> featureValuesPerPlate = new ArrayList<>(resultSets.size());
+            for (int i = 0; i < resultSets.size(); i++) {
+                WellLayout wells = wellLayoutCache.get(spec.getPlateIds().get(i)).sortedById();
+                Map<String, float[]> featureValues = getFeatureValuesByName(resultSets.get(i));
+                BitSet selectedWells = selectWells(spec, wells, featureValues, wellFilter);
+                chartMetrics.recordWells(spec, selectedWells.cardinality());
+                layouts.add(chartMetrics.recordStage("assembly", spec, () -> wells.select(selectedWells)));
+                featureValuesPerPlate.add(chartMetrics.recordStage("assembly", spec, () -> selectFeatureValues(featureValues, selectedWells)));
+            }
+            return chartMetrics.recordStage("assembly", spec, () -> toChartDataColumns(WellLayout.concat(layouts), layouts, featureValuesPerPlate));
+        });
+    }
+
+    /**
+     * Resolves the latest result set and the wells of each plate, leaves out the plates for which that fails,
+     * and renders the result for the remaining plates. The result is cached and coalesced under the spec of the remaining plates.
+     */
+    private <T> PartialResult<RenderedResult<T>> renderPartially(String operation, ChartSpec spec, ChartRenderer<T> renderer) throws ChartDataException {
+        WellFilter wellFilter = WellFilterParser.parse(spec.getFilter());
+        List<PlateErrorDTO> errors = new ArrayList<>();
+        List<Long> resolvedPlateIds = new ArrayList<>();
+        List<ResultSetDTO> resultSets = new ArrayList<>();
+        for (Long plateId : spec.getPlateIds()) {
+            try {
+                ResultSetDTO resultSet = getLatestResultSetByPlateId(plateId);
+                wellLayoutCache.get(plateId);
+                resolvedPlateIds.add(plateId);
+                resultSets.add(resultSet);
+            } catch (ChartDataException e) {
+                errors.add(new PlateErrorDTO(plateId, e.getMessage()));
+            }
         }
-        return chartData;
+        if (resultSets.isEmpty()) return new PartialResult<>(null, errors);
+
+        ChartSpec resolvedSpec = spec.withPlateIds(resolvedPlateIds);
+        return new PartialResult<>(chartRequestCoalescer.execute(operation, resolvedSpec, () -> renderer.render(resolvedSpec, wellFilter, resultSets)), errors);
     }
 
     public List<ChartDataDTO> getChartDataByPlateId(Long plateId, String type) throws ChartDataException {
+        return getChartDataByPlateIdAndResultSet(ChartSpec.of(type, List.of(plateId), null, null, null), plateId, getLatestResultSetByPlateId(plateId), null);
+    }
+
+    private ResultSetDTO getLatestResultSetByPlateId(Long plateId) throws ChartDataException {
         Long measurementId = getActiveMeasurementIdByPlateId(plateId);
         ResultSetDTO resultSetDTO = getLatestResultSet(plateId, measurementId);
 
         if (resultSetDTO == null)
             throw new ChartDataException("No result set found for plate " + plateId + " and measurement " + measurementId);
+        return resultSetDTO;
+    }
+
+    private List<ChartDataDTO> getChartDataByPlateIdAndResultSet(ChartSpec spec, Long plateId, ResultSetDTO resultSetDTO, WellFilter filter) throws ChartDataException {
+        //Feature values are indexed by well id order
+        WellLayout wells = wellLayoutCache.get(plateId).sortedById();
+        Map<String, float[]> featureValues = getFeatureValuesByName(resultSetDTO);
+
+        //Excluded wells are skipped before any of their tuples are created
+        BitSet selectedWells = selectWells(spec, wells, featureValues, filter);
+        chartMetrics.recordWells(spec, selectedWells.cardinality());
 
-        List<ChartDataDTO> chartTuplesWells = getWellDataByPlateId(plateId, type);
-        //Add values from features to chartData
-        List<ChartDataDTO> chartTuplesFeatures = getChartDataByResultSet(resultSetDTO, type, chartTuplesWells);
-        return chartTuplesFeatures;
+        return chartMetrics.recordStage("assembly", spec, () -> {
+            List<ChartDataDTO> chartDataDTOS = new ArrayList<>(selectedWells.cardinality());
+            for (int i = selectedWells.nextSetBit(0); i >= 0 && i < wells.getSize(); i = selectedWells.nextSetBit(i + 1)) {
+                ChartDataDTO chartDataDTO = getWellData(wells, i);
+                //Add values from features to chartData
+                for (Map.Entry<String, float[]> feature : featureValues.entrySet()) {
+                    chartDataDTO.getValues().add(new ChartTupleDTO(feature.getKey(), Float.toString(feature.getValue()[i])));
+                }
+                chartDataDTOS.add(chartDataDTO);
+            }
+            return chartDataDTOS;
+        });
     }
 
-    private Long getActiveMeasurementIdByPlateId(Long plateId) throws ChartDataException {
-        List<PlateMeasurementDTO> measurementDTOs = new ArrayList<>();
-        try {
-            measurementDTOs = plateServiceClient.getPlateMeasurements(plateId);
-        } catch (PlateUnresolvableException e) {
-            throw new ChartDataException("Measurements for plate with id " + plateId + " are not resolvable");
+    private List<ResultSetDTO> getLatestResultSets(List<Long> plateIds) throws ChartDataException {
+        List<ResultSetDTO> resultSets = new ArrayList<>();
+        for (Long plateId : plateIds) {
+            resultSets.add(getLatestResultSetByPlateId(plateId));
+        }
+        return resultSets;
+    }
+
+    private static List<Long> getResultSetIds(List<ResultSetDTO> resultSets) {
+        return resultSets.stream().map(ResultSetDTO::getId).collect(Collectors.toList());
+    }
+
+    private BitSet selectWells(ChartSpec spec, WellLayout wells, Map<String, float[]> featureValues, WellFilter filter) throws ChartDataException {
+        if (filter == null) {
+            BitSet selectedWells = new BitSet(wells.getSize());
+            selectedWells.set(0, wells.getSize());
+            return selectedWells;
+        }
+        return chartMetrics.recordStage("wells", spec, () -> filter.select(WellColumns.of(wells, featureValues::get)));
+    }
+
+    private static Map<String, float[]> selectFeatureValues(Map<String, float[]> featureValues, BitSet selectedWells) {
+        Map<String, float[]> selectedFeatureValues = new LinkedHashMap<>();
+        for (Map.Entry<String, float[]> feature : featureValues.entrySet()) {
+            float[] values = feature.getValue();
+            float[] selectedValues = new float[selectedWells.cardinality()];
+            int row = 0;
+            for (int i = selectedWells.nextSetBit(0); i >= 0; i = selectedWells.nextSetBit(i + 1)) {
+                selectedValues[row++] = i < values.length ? values[i] : Float.NaN;
+            }
+            selectedFeatureValues.put(feature.getKey(), selectedValues);
+        }
+        return selectedFeatureValues;
+    }
+
+    private static ChartDataColumnsDTO toChartDataColumns(WellLayout wells, List<WellLayout> layoutsPerPlate, List<Map<String, float[]>> featureValuesPerPlate) {
+        Map<String, float[]> features = new LinkedHashMap<>();
+        int offset = 0;
+        for (int plate = 0; plate < layoutsPerPlate.size(); plate++) {
+            for (Map.Entry<String, float[]> feature : featureValuesPerPlate.get(plate).entrySet()) {
+                float[] values = features.computeIfAbsent(feature.getKey(), name -> {
+                    float[] missing = new float[wells.getSize()];
+                    Arrays.fill(missing, Float.NaN);
+                    return missing;
+                });
+                System.arraycopy(feature.getValue(), 0, values, offset, feature.getValue().length);
+            }
+            offset += layoutsPerPlate.get(plate).getSize();
         }
+        return ChartDataColumnsDTO.builder()
+                .wellIds(wells.getWellIds())
+                .plateIds(wells.getPlateIds())
+                .rows(wells.getRows())
+                .columns(wells.getColumns())
+                .wellTypes(toCategoricalColumnDTO(wells.getWellTypes()))
+                .wellStatuses(toCategoricalColumnDTO(wells.getStatuses()))
+                .wellSubstances(toCategoricalColumnDTO(wells.getSubstances()))
+                .features(features)
+                .build();
+    }
+
+    private static CategoricalColumnDTO toCategoricalColumnDTO(CategoricalColumn column) {
+        return new CategoricalColumnDTO(Arrays.asList(column.getDictionary()), column.getCodes());
+    }
+
+    private Long getActiveMeasurementIdByPlateId(Long plateId) throws ChartDataException {
+        List<PlateMeasurementDTO> measurementDTOs = upstreamClient.getPlateMeasurements(plateId);
         //Find the active measurement
         for (PlateMeasurementDTO measurementDTO : measurementDTOs) {
             if (measurementDTO.getActive() == true) {
@@ -94,43 +272,28 @@ public class ChartDataService {
     }
 
     private ResultSetDTO getLatestResultSet(Long plateId, Long measurementId) throws ChartDataException {
-        try {
-            return resultDataServiceClient.getLatestResultSetByPlateIdAndMeasId(plateId, measurementId);
-        } catch (ResultSetUnresolvableException e) {
-            throw new ChartDataException("Latest result set for plate with id " + plateId + " and measurement with id " + measurementId + " is not resolvable");
-        }
+        return upstreamClient.getLatestResultSetByPlateIdAndMeasId(plateId, measurementId);
     }
 
-    private List<ChartDataDTO> getChartDataByResultSet(ResultSetDTO resultSetDTO, String type, List<ChartDataDTO> chartTuplesWells) throws ChartDataException {
+    private Map<String, float[]> getFeatureValuesByName(ResultSetDTO resultSetDTO) throws ChartDataException {
         List<ResultDataDTO> resultDataDTOS = getResultDataByResultSetId(resultSetDTO);
         List<FeatureDTO> featureDTOS = getFeaturesByProtocolId(resultSetDTO.getProtocolId());
+        Map<String, float[]> featureValues = new LinkedHashMap<>();
         for (ResultDataDTO resultDataDTO : resultDataDTOS) {
-            Integer index = 0;
             String featureName = getFeatureNameById(featureDTOS, resultDataDTO.getFeatureId());
             if (featureName != null) {
-                for (ChartDataDTO chartTupleWell : chartTuplesWells) {
-                    chartTupleWell.getValues().add(new ChartTupleDTO(featureName, Float.toString(resultDataDTO.getValues()[index])));
-                    index++;
-                }
+                featureValues.put(featureName, resultDataDTO.getValues());
             }
         }
-        return chartTuplesWells;
+        return featureValues;
     }
 
     private List<ResultDataDTO> getResultDataByResultSetId(ResultSetDTO resultSetDTO) throws ChartDataException {
-        try {
-            return resultDataServiceClient.getResultData(resultSetDTO.getId());
-        } catch (ResultDataUnresolvableException e) {
-            throw new ChartDataException("Result data for result set with id " + resultSetDTO.getId() + " is not resolvable");
-        }
+        return upstreamClient.getResultData(resultSetDTO.getId());
     }
 
     private List<FeatureDTO> getFeaturesByProtocolId(Long protocolId) throws ChartDataException {
-        try {
-            return protocolServiceClient.getFeaturesOfProtocol(protocolId);
-        } catch (ProtocolUnresolvableException e) {
-            throw new ChartDataException("Features for protocol with id " + protocolId + " are not resolvable");
-        }
+        return upstreamClient.getFeaturesOfProtocol(protocolId);
     }
 
     private String getFeatureNameById(List<FeatureDTO> featureDTOS, Long featureId) {
@@ -142,37 +305,23 @@ public class ChartDataService {
         return null;
     }
 
-    private List<ChartDataDTO> getWellDataByPlateId(Long plateId, String type) throws ChartDataException {
-        List<WellDTO> wells;
-        try {
-            wells = plateServiceClient.getWells(plateId);
-        } catch (PlateUnresolvableException e) {
-            throw new ChartDataException("Wells for plate with id " + plateId + " could not be found");
-        }
-
-        List<ChartDataDTO> chartDataDTOS = wells.stream().map(well -> {
-            List<ChartTupleDTO> chartTupleDTOs = new ArrayList<>();
-            chartTupleDTOs.add(new ChartTupleDTO("WellId", String.valueOf(well.getId())));
-            chartTupleDTOs.add(new ChartTupleDTO("PlateId", String.valueOf(well.getPlateId())));
-            chartTupleDTOs.add(new ChartTupleDTO("Row", String.valueOf(well.getRow())));
-            chartTupleDTOs.add(new ChartTupleDTO("Column", String.valueOf(well.getColumn())));
-            chartTupleDTOs.add(new ChartTupleDTO("WellType", well.getWellType()));
-            chartTupleDTOs.add(new ChartTupleDTO("WellStatus", well.getStatus().name()));
-//            chartTupleDTOs.add(new ChartTupleDTO("CompoundId", String.valueOf(well.getCompoundId())));
-            if (well.getWellSubstance() != null)
-                chartTupleDTOs.add(new ChartTupleDTO("WellSubstance", well.getWellSubstance().getName()));
-            ChartDataDTO chartDataDTO = new ChartDataDTO(well.getId(), chartTupleDTOs);
-            return chartDataDTO;
-        }).collect(Collectors.toList());
-
-        //Sort the list by wellId
-        return sortByWellId(chartDataDTOS);
+    private ChartDataDTO getWellData(WellLayout wells, int index) {
+        List<ChartTupleDTO> chartTupleDTOs = new ArrayList<>();
+        chartTupleDTOs.add(new ChartTupleDTO("WellId", String.valueOf(wells.getWellIds()[index])));
+        chartTupleDTOs.add(new ChartTupleDTO("PlateId", String.valueOf(wells.getPlateIds()[index])));
+        chartTupleDTOs.add(new ChartTupleDTO("Row", String.valueOf(wells.getRows()[index])));
+        chartTupleDTOs.add(new ChartTupleDTO("Column", String.valueOf(wells.getColumns()[index])));
+        chartTupleDTOs.add(new ChartTupleDTO("WellType", wells.getWellTypes().get(index)));
+        chartTupleDTOs.add(new ChartTupleDTO("WellStatus", wells.getStatuses().get(index)));
+//        chartTupleDTOs.add(new ChartTupleDTO("CompoundId", String.valueOf(well.getCompoundId())));
+        String substance = wells.getSubstances().get(index);
+        if (substance != null)
+            chartTupleDTOs.add(new ChartTupleDTO("WellSubstance", substance));
+        return new ChartDataDTO(wells.getWellIds()[index], chartTupleDTOs);
     }
 
-    private List<ChartDataDTO> sortByWellId(List<ChartDataDTO> chartDataDTOS) {
-        //Ascending order
-        chartDataDTOS.sort(Comparator.comparing(ChartDataDTO::getWellId));
-        return chartDataDTOS;
+    @FunctionalInterface
+    private interface ChartRenderer<T> {
+        RenderedResult<T> render(ChartSpec spec, WellFilter wellFilter, List<ResultSetDTO> resultSets) throws ChartDataException;
     }
-
 }
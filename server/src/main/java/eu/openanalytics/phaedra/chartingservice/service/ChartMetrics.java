@@ -0,0 +1,136 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.service.ChartRequestCoalescer.ChartLoader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Meters of the chart pipeline:
+ * <ul>
+ *     <li>{@code chart.upstream.requests}: timer per upstream client method and outcome</li>
+ *     <li>{@code chart.stage}: timer per pipeline stage (wells, grouping, assembly, serialization)</li>
+ *     <li>{@code chart.payload.size}: size of the serialized results</li>
+ *     <li>{@code chart.wells}: number of wells that ended up in a result</li>
+ * </ul>
+ * Pipeline meters are tagged with the chart type and a bucketed plate count, which keeps the number of time series bounded.
+ * The chart data endpoint accepts any type, so only the chart types this service renders are used as tag, any other type is tagged {@code other}.
+ * Upstream calls and stages are also added to the {@link ExecutionProfile} of the request, if it is profiled.
+ */
+@Component
+public class ChartMetrics {
+
+    private static final Set<String> CHART_TYPES = Set.of("scatter", "histogram", "bar", "box");
+
+    private final MeterRegistry meterRegistry;
+
+    public ChartMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T, E extends Exception> T recordUpstreamCall(String client, String method, UpstreamCall<T, E> call) throws E, ChartDataException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            T result = call.call();
+            outcome = "success";
+            return result;
+        } finally {
+            long nanos = sample.stop(Timer.builder("chart.upstream.requests")
+                    .description("Calls to the plate, protocol and result data services")
+                    .tag("client", client)
+                    .tag("method", method)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            ExecutionProfile profile = ExecutionProfile.current();
+            if (profile != null) profile.recordUpstreamCall(client + "." + method, nanos);
+        }
+    }
+
+    public <T> T recordStage(String stage, ChartSpec spec, ChartLoader<T> loader) throws ChartDataException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return loader.load();
+        } finally {
+            long nanos = sample.stop(Timer.builder("chart.stage")
+                    .description("Time spent in a stage of the chart pipeline")
+                    .tag("stage", stage)
+                    .tag("type", getType(spec))
+                    .tag("plates", getPlateCount(spec))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            ExecutionProfile profile = ExecutionProfile.current();
+            if (profile != null) profile.recordStage(stage, nanos);
+        }
+    }
+
+    public void recordPayload(String operation, ChartSpec spec, int bytes) {
+        DistributionSummary.builder("chart.payload.size")
+                .description("Size of serialized chart results")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .tag("type", getType(spec))
+                .tag("plates", getPlateCount(spec))
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    public void recordWells(ChartSpec spec, int wells) {
+        Counter.builder("chart.wells")
+                .description("Wells included in chart results")
+                .tag("type", getType(spec))
+                .tag("plates", getPlateCount(spec))
+                .register(meterRegistry)
+                .increment(wells);
+    }
+
+    private static String getType(ChartSpec spec) {
+        if (spec.getType() == null) return "none";
+        return CHART_TYPES.contains(spec.getType()) ? spec.getType() : "other";
+    }
+
+    static String getPlateCount(ChartSpec spec) {
+        int plates = spec.getPlateIds().size();
+        if (plates <= 1) return "1";
+        if (plates <= 4) return "2-4";
+        if (plates <= 16) return "5-16";
+        if (plates <= 64) return "17-64";
+        return "65+";
+    }
+
+    /**
+     * A call to an upstream client, which fails with the exception of that client or, when it is guarded, a {@link ChartDataException}.
+     */
+    @FunctionalInterface
+    public interface UpstreamCall<T, E extends Exception> {
+        T call() throws E, ChartDataException;
+    }
+}
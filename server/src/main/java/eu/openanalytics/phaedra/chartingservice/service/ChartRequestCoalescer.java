@@ -0,0 +1,114 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Single-flight execution of chart requests: concurrent requests with the same operation and {@link ChartSpec}
+ * share one in-flight computation and its result (or failure) instead of each assembling the chart again.
+ * Only requests of the same caller are coalesced (see {@link AccessScope}), as the computation calls the upstream
+ * services with the token of the request that started it. Results are not retained once the computation has finished.
+ */
+@Component
+public class ChartRequestCoalescer {
+
+    private final Map<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    public ChartRequestCoalescer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("chart.requests.inflight", inFlight, Map::size)
+                .description("Number of distinct chart computations currently in flight")
+                .register(meterRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String operation, ChartSpec spec, ChartLoader<T> loader) throws ChartDataException {
+        List<Object> key = List.of(operation, AccessScope.current(), spec);
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> existingCall = inFlight.putIfAbsent(key, call);
+        ExecutionProfile profile = ExecutionProfile.current();
+        if (profile != null) profile.recordCacheAccess("chart.requests.inflight", existingCall != null);
+        if (existingCall != null) {
+            requestCounter(operation, "coalesced").increment();
+            return (T) await(existingCall);
+        }
+
+        requestCounter(operation, "executed").increment();
+        try {
+            T result = loader.load();
+            call.complete(result);
+            return result;
+        } catch (Throwable t) {
+            call.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    /**
+     * Returns the number of distinct chart computations currently in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private Object await(CompletableFuture<Object> call) throws ChartDataException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChartDataException("Interrupted while waiting for an identical chart request to complete");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ChartDataException) throw (ChartDataException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private Counter requestCounter(String operation, String outcome) {
+        return Counter.builder("chart.requests")
+                .description("Chart requests, by whether they were computed or joined an identical in-flight request")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    public interface ChartLoader<T> {
+        T load() throws ChartDataException;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.chartingservice.service.ChartRequestCoalescer.ChartLoader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Cache of fully assembled and serialized chart results.
+ * Entries are keyed by the chart spec and the ids of the result sets the chart was computed from, so a new result set
+ * for one of the plates yields a new key instead of a stale hit. Entries are also keyed by the caller (see {@link AccessScope}),
+ * so a chart is only served to the principal whose token it was computed with. Eviction is bounded by the size of the serialized payloads.
+ * <p>
+ * Well types, substances and statuses are not part of the key, so entries expire after being written, by default as soon as
+ * the {@link WellLayoutCache} entries they were computed from. A well that is rejected thus shows in charts within that time,
+ * however often the chart is requested.
+ */
+@Component
+public class ChartResultCache {
+
+    private final Cache<List<Object>, RenderedResult<?>> cache;
+    private final ObjectMapper objectMapper;
+    private final ChartMetrics chartMetrics;
+
+    public ChartResultCache(ObjectMapper objectMapper, MeterRegistry meterRegistry, ChartMetrics chartMetrics,
+                            @Value("${phaedra2.charting.cache.charts.max-bytes:67108864}") long maxBytes,
+                            @Value("${phaedra2.charting.cache.charts.expire-after-write:PT5M}") Duration expireAfterWrite) {
+        this.objectMapper = objectMapper;
+        this.chartMetrics = chartMetrics;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((List<Object> key, RenderedResult<?> value) -> value.getJson().length)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chart.results");
+    }
+
+    /**
+     * Returns the cached result, or null if it has not been computed (or has been evicted).
+     */
+    @SuppressWarnings("unchecked")
+    public <T> RenderedResult<T> getIfPresent(String operation, ChartSpec spec, List<Long> resultSetIds) {
+        return (RenderedResult<T>) cache.getIfPresent(List.of(operation, AccessScope.current(), spec, List.copyOf(resultSetIds)));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> RenderedResult<T> get(String operation, ChartSpec spec, List<Long> resultSetIds, ChartLoader<T> loader) throws ChartDataException {
+        List<Object> key = List.of(operation, AccessScope.current(), spec, List.copyOf(resultSetIds));
+        RenderedResult<T> result = (RenderedResult<T>) cache.getIfPresent(key);
+        ExecutionProfile profile = ExecutionProfile.current();
+        if (profile != null) profile.recordCacheAccess("chart.results", result != null);
+        if (result == null) {
+            T value = loader.load();
+            byte[] json = chartMetrics.recordStage("serialization", spec, () -> serialize(value));
+            chartMetrics.recordPayload(operation, spec, json.length);
+            result = new RenderedResult<>(value, json);
+            cache.put(key, result);
+        }
+        if (profile != null) profile.recordBytes(result.getJson().length);
+        return result;
+    }
+
+    /**
+     * Removes expired entries now, instead of as a side effect of later accesses.
+     */
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    private byte[] serialize(Object value) throws ChartDataException {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new ChartDataException("Chart result could not be serialized: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,540 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.PlateErrorDTO;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.filter.WellColumns;
+import eu.openanalytics.phaedra.chartingservice.filter.WellFilter;
+import eu.openanalytics.phaedra.chartingservice.filter.WellFilterParser;
+import eu.openanalytics.phaedra.chartingservice.model.CategoricalColumn;
+import eu.openanalytics.phaedra.chartingservice.model.Chart;
+import eu.openanalytics.phaedra.chartingservice.model.ChartData;
+import eu.openanalytics.phaedra.chartingservice.model.ChartLayout;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.model.PartialResult;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.chartingservice.model.WellLayout;
+import eu.openanalytics.phaedra.plateservice.dto.PlateMeasurementDTO;
+import eu.openanalytics.phaedra.protocolservice.dto.FeatureDTO;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
+import org.apache.commons.lang3.ArrayUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+public class ChartService {
+
+    private final UpstreamClient upstreamClient;
+    private final ChartRequestCoalescer chartRequestCoalescer;
+    private final ChartResultCache chartResultCache;
+    private final ChartTemplateService chartTemplateService;
+    private final WellLayoutCache wellLayoutCache;
+    private final ChartMetrics chartMetrics;
+    private final ExecutorService chartRenderExecutor;
+
+    public ChartService(UpstreamClient upstreamClient, ChartRequestCoalescer chartRequestCoalescer, ChartResultCache chartResultCache, ChartTemplateService chartTemplateService,
+                        WellLayoutCache wellLayoutCache, ChartMetrics chartMetrics, @Qualifier("chartRenderExecutor") ExecutorService chartRenderExecutor) {
+        this.upstreamClient = upstreamClient;
+        this.chartRequestCoalescer = chartRequestCoalescer;
+        this.chartResultCache = chartResultCache;
+        this.chartTemplateService = chartTemplateService;
+        this.wellLayoutCache = wellLayoutCache;
+        this.chartMetrics = chartMetrics;
+        this.chartRenderExecutor = chartRenderExecutor;
+    }
+
+    public Chart scatterPlot(long plateId, long protocolId, long xFeatureId, long yFeatureId, String groupBy, String filter) throws ChartDataException {
+        return renderChart(ChartSpec.of("scatter", List.of(plateId), protocolId, List.of(xFeatureId, yFeatureId), groupBy, filter)).getValue();
+    }
+
+    public Chart histogramPlot(long plateId, long protocolId, long featureId, String groupBy, String filter) throws ChartDataException {
+        return renderChart(ChartSpec.of("histogram", List.of(plateId), protocolId, List.of(featureId), groupBy, filter)).getValue();
+    }
+
+    public Chart barPlot(long plateId, long protocolId, long featureId, String groupBy, String filter) throws ChartDataException {
+        return renderChart(ChartSpec.of("bar", List.of(plateId), protocolId, List.of(featureId), groupBy, filter)).getValue();
+    }
+
+    public Chart boxPlot(long plateId, long protocolId, long featureId, String filter) throws ChartDataException {
+        return renderChart(ChartSpec.of("box", List.of(plateId), protocolId, List.of(featureId), null, filter)).getValue();
+    }
+
+    public Chart boxPlotWithGrouping(long plateId, long protocolId, long featureId, String groupBy, String filter) throws ChartDataException {
+        return renderChart(ChartSpec.of("box", List.of(plateId), protocolId, List.of(featureId), groupBy, filter)).getValue();
+    }
+
+    /**
+     * Returns the chart for the given spec, together with its serialized form.
+     * Wells and feature values of multiple plates are concatenated in the order of the plates of the spec, which is plate id order for charts of chart templates.
+     * Identical concurrent requests of the same caller share one computation, and charts are cached per caller for as long as the latest result sets of the plates do not change.
+     */
+    public RenderedResult<Chart> renderChart(ChartSpec spec) throws ChartDataException {
+        // Compile the filter up front, so an invalid filter fails before any upstream call
+        WellFilter filter = WellFilterParser.parse(spec.getFilter());
+        return chartRequestCoalescer.execute(spec.getType(), spec, () -> renderChart(spec, filter, createStore(spec.getPlateIds(), spec.getProtocolId())));
+    }
+
+    private RenderedResult<Chart> renderChart(ChartSpec spec, WellFilter filter, PlateColumnStore store) throws ChartDataException {
+        return chartResultCache.get("chart", spec, getResultSetIds(store), () -> createChart(spec, store, filter));
+    }
+
+    /**
+     * Renders the chart described by a stored chart template for the given plates, or returns null if there is no such template.
+     */
+    public RenderedResult<Chart> renderChartFromTemplate(long chartTemplateId, List<Long> plateIds) throws ChartDataException {
+        ChartTemplateDTO chartTemplate = chartTemplateService.getChartTemplateById(chartTemplateId);
+        if (chartTemplate == null) return null;
+        return renderChart(resolveChartTemplate(chartTemplate, plateIds));
+    }
+
+    /**
+     * Renders the chart of a chart template for the plates that can be resolved, with an error for each plate that cannot,
+     * instead of failing the whole request. Returns null if there is no such template.
+     */
+    public PartialResult<RenderedResult<Chart>> renderChartFromTemplatePartially(long chartTemplateId, List<Long> plateIds) throws ChartDataException {
+        ChartTemplateDTO chartTemplate = chartTemplateService.getChartTemplateById(chartTemplateId);
+        if (chartTemplate == null) return null;
+        List<PlateErrorDTO> errors = new ArrayList<>();
+        PlateColumnStore store = resolvePlates(plateIds, errors);
+        if (store == null) return new PartialResult<>(null, errors);
+
+        ChartSpec spec = resolveChartTemplate(chartTemplate, store.getPlateIds(), store.getProtocolId(), getFeaturesOfProtocol(store.getProtocolId()));
+        WellFilter filter = WellFilterParser.parse(spec.getFilter());
+        return new PartialResult<>(chartRequestCoalescer.execute(spec.getType(), spec, () -> renderChart(spec, filter, store)), errors);
+    }
+
+    /**
+     * Renders the charts of several chart templates for the same plates, in the order of the template ids.
+     * The entry of a template that does not exist is null.
+     * <p>
+     * The protocol, its features and the latest result sets are resolved once for the whole dashboard.
+     * The union of the feature columns needed by charts that are not cached yet is then fetched once,
+     * after which all those charts are assembled in parallel from the shared columns.
+     */
+    public List<RenderedResult<Chart>> renderDashboard(List<Long> chartTemplateIds, List<Long> plateIds) throws ChartDataException {
+        List<ChartTemplateDTO> chartTemplates = getChartTemplates(chartTemplateIds);
+        if (chartTemplates.stream().allMatch(Objects::isNull)) return new ArrayList<>(Collections.nCopies(chartTemplates.size(), null));
+        if (plateIds == null || plateIds.isEmpty()) throw new ChartDataException("No plates given to render the dashboard");
+
+        Long protocolId = getProtocolIdOfPlate(plateIds.stream().min(Long::compare).get());
+        return renderDashboard(chartTemplates, createStore(plateIds.stream().distinct().sorted().collect(Collectors.toList()), protocolId));
+    }
+
+    /**
+     * Renders the charts of several chart templates for the plates that can be resolved, with an error for each plate that cannot,
+     * instead of failing the whole dashboard. The charts are null if none of the plates can be resolved.
+     */
+    public PartialResult<List<RenderedResult<Chart>>> renderDashboardPartially(List<Long> chartTemplateIds, List<Long> plateIds) throws ChartDataException {
+        List<ChartTemplateDTO> chartTemplates = getChartTemplates(chartTemplateIds);
+        if (chartTemplates.stream().allMatch(Objects::isNull)) return new PartialResult<>(new ArrayList<>(Collections.nCopies(chartTemplates.size(), null)), List.of());
+        List<PlateErrorDTO> errors = new ArrayList<>();
+        PlateColumnStore store = resolvePlates(plateIds, errors);
+        if (store == null) return new PartialResult<>(null, errors);
+        return new PartialResult<>(renderDashboard(chartTemplates, store), errors);
+    }
+
+    private List<ChartTemplateDTO> getChartTemplates(List<Long> chartTemplateIds) {
+        List<ChartTemplateDTO> chartTemplates = new ArrayList<>(chartTemplateIds.size());
+        for (Long chartTemplateId : chartTemplateIds) {
+            chartTemplates.add(chartTemplateService.getChartTemplateById(chartTemplateId));
+        }
+        return chartTemplates;
+    }
+
+    private List<RenderedResult<Chart>> renderDashboard(List<ChartTemplateDTO> chartTemplates, PlateColumnStore store) throws ChartDataException {
+        List<FeatureDTO> features = getFeaturesOfProtocol(store.getProtocolId());
+        List<ChartSpec> specs = new ArrayList<>(chartTemplates.size());
+        List<WellFilter> filters = new ArrayList<>(chartTemplates.size());
+        for (ChartTemplateDTO chartTemplate : chartTemplates) {
+            ChartSpec spec = chartTemplate == null ? null : resolveChartTemplate(chartTemplate, store.getPlateIds(), store.getProtocolId(), features);
+            specs.add(spec);
+            filters.add(spec == null ? null : WellFilterParser.parse(spec.getFilter()));
+        }
+        List<Long> resultSetIds = getResultSetIds(store);
+
+        // Plan: the union of the columns needed by the charts that are not cached, each fetched once
+        List<RenderedResult<Chart>> results = new ArrayList<>(specs.size());
+        Set<Long> featureIds = new LinkedHashSet<>();
+        boolean wellsNeeded = false;
+        for (int i = 0; i < specs.size(); i++) {
+            ChartSpec spec = specs.get(i);
+            RenderedResult<Chart> cached = spec == null ? null : chartResultCache.getIfPresent("chart", spec, resultSetIds);
+            results.add(cached);
+            if (spec != null && cached == null) {
+                featureIds.addAll(spec.getFeatureIds());
+                wellsNeeded |= !spec.getType().equals("box") || spec.getGroupBy() != null || filters.get(i) != null;
+            }
+        }
+        if (wellsNeeded) store.getWellLayout();
+        for (Long featureId : featureIds) {
+            store.getFeatureValues(featureId);
+        }
+
+        // Render the remaining charts in parallel, feature columns only referenced by a filter are loaded on demand by the first chart needing them
+        Map<Integer, Future<RenderedResult<Chart>>> renders = new LinkedHashMap<>();
+        ExecutionProfile profile = ExecutionProfile.current();
+        for (int i = 0; i < specs.size(); i++) {
+            ChartSpec spec = specs.get(i);
+            WellFilter filter = filters.get(i);
+            if (spec != null && results.get(i) == null) {
+                renders.put(i, chartRenderExecutor.submit(() -> {
+                    if (profile == null) return chartResultCache.get("chart", spec, resultSetIds, () -> createChart(spec, store, filter));
+                    try (ExecutionProfile.Scope scope = profile.activate()) {
+                        return chartResultCache.get("chart", spec, resultSetIds, () -> createChart(spec, store, filter));
+                    }
+                }));
+            }
+        }
+        for (Map.Entry<Integer, Future<RenderedResult<Chart>>> render : renders.entrySet()) {
+            results.set(render.getKey(), awaitRender(render.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Translates a chart template into a chart spec: the protocol is taken from the latest result set of the active measurement
+     * of the first plate, and the axis names are resolved to features of that protocol with a single lookup.
+     */
+    ChartSpec resolveChartTemplate(ChartTemplateDTO chartTemplate, List<Long> plateIds) throws ChartDataException {
+        if (plateIds == null || plateIds.isEmpty()) {
+            throw new ChartDataException("No plates given to render chart template with id " + chartTemplate.getId());
+        }
+        // Charts concatenate the wells of their plates in plate id order
+        List<Long> sortedPlateIds = plateIds.stream().distinct().sorted().collect(Collectors.toList());
+        Long protocolId = getProtocolIdOfPlate(sortedPlateIds.get(0));
+        return resolveChartTemplate(chartTemplate, sortedPlateIds, protocolId, getFeaturesOfProtocol(protocolId));
+    }
+
+    private ChartSpec resolveChartTemplate(ChartTemplateDTO chartTemplate, List<Long> plateIds, Long protocolId, List<FeatureDTO> features) throws ChartDataException {
+        if (chartTemplate.getType() == null) {
+            throw new ChartDataException("Chart template with id " + chartTemplate.getId() + " has no chart type");
+        }
+        String type = chartTemplate.getType().toLowerCase(Locale.ROOT);
+        List<String> axes;
+        switch (type) {
+            case "scatter":
+                axes = List.of(chartTemplate.getAxisX(), chartTemplate.getAxisY());
+                break;
+            case "histogram":
+                axes = List.of(chartTemplate.getAxisX());
+                break;
+            case "bar":
+            case "box":
+                // Bar and box plots only have a value axis, which is the y axis
+                axes = List.of(chartTemplate.getAxisY() != null ? chartTemplate.getAxisY() : chartTemplate.getAxisX());
+                break;
+            default:
+                throw new ChartDataException("Unsupported chart type: " + chartTemplate.getType());
+        }
+
+        Map<String, Long> featureIdsByName = new HashMap<>();
+        for (FeatureDTO feature : features) {
+            featureIdsByName.putIfAbsent(feature.getName(), feature.getId());
+        }
+        List<Long> featureIds = new ArrayList<>();
+        for (String axis : axes) {
+            Long featureId = featureIdsByName.get(axis);
+            if (featureId == null) {
+                throw new ChartDataException("Axis '" + axis + "' of chart template with id " + chartTemplate.getId() + " is not a feature of protocol with id " + protocolId);
+            }
+            featureIds.add(featureId);
+        }
+        return ChartSpec.of(type, plateIds, protocolId, featureIds, chartTemplate.getGroupBy(), chartTemplate.getFilter());
+    }
+
+    private PlateColumnStore createStore(List<Long> plateIds, Long protocolId) throws ChartDataException {
+        List<ResultSetDTO> resultSets = new ArrayList<>();
+        for (Long plateId : plateIds) {
+            resultSets.add(getLatestResultSet(plateId, protocolId));
+        }
+        return new PlateColumnStore(upstreamClient, wellLayoutCache, plateIds, protocolId, resultSets);
+    }
+
+    /**
+     * Resolves the latest result sets of the given plates for the protocol of the first plate that can be resolved.
+     * Plates whose protocol, latest result set or wells cannot be resolved are left out, with an error.
+     * Returns null if none of the plates can be resolved.
+     */
+    private PlateColumnStore resolvePlates(List<Long> plateIds, List<PlateErrorDTO> errors) throws ChartDataException {
+        if (plateIds == null || plateIds.isEmpty()) throw new ChartDataException("No plates given to render");
+        Long protocolId = null;
+        List<Long> resolvedPlateIds = new ArrayList<>();
+        List<ResultSetDTO> resultSets = new ArrayList<>();
+        for (Long plateId : plateIds.stream().distinct().sorted().collect(Collectors.toList())) {
+            try {
+                if (protocolId == null) protocolId = getProtocolIdOfPlate(plateId);
+                ResultSetDTO resultSet = getLatestResultSet(plateId, protocolId);
+                wellLayoutCache.get(plateId);
+                resolvedPlateIds.add(plateId);
+                resultSets.add(resultSet);
+            } catch (ChartDataException e) {
+                errors.add(new PlateErrorDTO(plateId, e.getMessage()));
+            }
+        }
+        return resultSets.isEmpty() ? null : new PlateColumnStore(upstreamClient, wellLayoutCache, resolvedPlateIds, protocolId, resultSets);
+    }
+
+    private static List<Long> getResultSetIds(PlateColumnStore store) {
+        return store.getResultSets().stream().map(ResultSetDTO::getId).collect(Collectors.toList());
+    }
+
+    private static RenderedResult<Chart> awaitRender(Future<RenderedResult<Chart>> render) throws ChartDataException {
+        try {
+            return render.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChartDataException("Interrupted while rendering the dashboard");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ChartDataException) throw (ChartDataException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private Chart createChart(ChartSpec spec, PlateColumnStore store, WellFilter filter) throws ChartDataException {
+        switch (spec.getType()) {
+            case "scatter":
+                return createScatterPlot(spec, store, filter);
+            case "histogram":
+                return createHistogramPlot(spec, store, filter);
+            case "bar":
+                return createBarPlot(spec, store, filter);
+            case "box":
+                return spec.getGroupBy() == null ? createBoxPlot(spec, store, filter) : createBoxPlotWithGrouping(spec, store, filter);
+            default:
+                throw new ChartDataException("Unsupported chart type: " + spec.getType());
+        }
+    }
+
+    private Chart createScatterPlot(ChartSpec spec, PlateColumnStore store, WellFilter filter) throws ChartDataException {
+        Long xFeatureId = spec.getFeatureIds().get(0);
+        Long yFeatureId = spec.getFeatureIds().get(1);
+
+        float[] xValues = store.getFeatureValues(xFeatureId);
+        float[] yValues = store.getFeatureValues(yFeatureId);
+        WellLayout wells = store.getWellLayout();
+        BitSet selectedWells = selectWells(spec, wells, filter, store);
+
+        List<ChartData> data = groupByWell(spec, wells, selectedWells, spec.getGroupBy(), xValues, yValues, name -> ChartData.builder()
+                .mode("markers")
+                .type("scatter")
+                .name(name)
+                .xValue(new ArrayList<>())
+                .yValue(new ArrayList<>())
+                .build());
+
+        return createChart(data, ChartLayout.builder()
+                .chartTitle("Plate Scatter Plot")
+                .xAxisLabel(store.getFeature(xFeatureId).getName())
+                .yAxisLabel(store.getFeature(yFeatureId).getName())
+                .build());
+    }
+
+    private Chart createHistogramPlot(ChartSpec spec, PlateColumnStore store, WellFilter filter) throws ChartDataException {
+        Long featureId = spec.getFeatureIds().get(0);
+
+        float[] values = store.getFeatureValues(featureId);
+        WellLayout wells = store.getWellLayout();
+        BitSet selectedWells = selectWells(spec, wells, filter, store);
+        FeatureDTO feature = store.getFeature(featureId);
+
+        // Histograms are not grouped: all wells end up in a single trace named after the feature
+        List<ChartData> data = groupByWell(spec, wells, selectedWells, null, values, null, name -> ChartData.builder()
+                .type("histogram")
+                .name(feature.getName())
+                .xValue(new ArrayList<>())
+                .build());
+
+        return createChart(data, ChartLayout.builder()
+                .chartTitle("1D Histogram")
+                .xAxisLabel(feature.getName())
+                .build());
+    }
+
+    private Chart createBarPlot(ChartSpec spec, PlateColumnStore store, WellFilter filter) throws ChartDataException {
+        Long featureId = spec.getFeatureIds().get(0);
+
+        float[] values = store.getFeatureValues(featureId);
+        WellLayout wells = store.getWellLayout();
+        BitSet selectedWells = selectWells(spec, wells, filter, store);
+        FeatureDTO feature = store.getFeature(featureId);
+
+        List<ChartData> data = groupByWell(spec, wells, selectedWells, spec.getGroupBy(), null, values, name -> ChartData.builder()
+                .mode("markers")
+                .type("bar")
+                .name(name)
+                .yValue(new ArrayList<>())
+                .build());
+
+        return createChart(data, ChartLayout.builder()
+                .chartTitle("Plate Bar Plot")
+                .yAxisLabel(feature.getName())
+                .build());
+    }
+
+    private Chart createBoxPlot(ChartSpec spec, PlateColumnStore store, WellFilter filter) throws ChartDataException {
+        Long featureId = spec.getFeatureIds().get(0);
+
+        float[] values = store.getFeatureValues(featureId);
+        FeatureDTO feature = store.getFeature(featureId);
+
+        // Only a filtered box plot needs the wells
+        BitSet selectedWells = filter == null ? null : selectWells(spec, store.getWellLayout(), filter, store);
+        chartMetrics.recordWells(spec, selectedWells == null ? values.length : selectedWells.cardinality());
+        List<Float> yValues = chartMetrics.recordStage("grouping", spec, () -> {
+            List<Float> boxValues = new ArrayList<>(values.length);
+            if (selectedWells == null) {
+                for (float value : values) {
+                    boxValues.add(value);
+                }
+            } else {
+                for (int i = selectedWells.nextSetBit(0); i >= 0; i = selectedWells.nextSetBit(i + 1)) {
+                    boxValues.add(values[i]);
+                }
+            }
+            return boxValues;
+        });
+        ChartData chartData = ChartData.builder().type("box").yValue(yValues).build();
+
+        Chart chart = new Chart();
+        chart.setData(ArrayUtils.toArray(chartData));
+        chart.setLayout(ChartLayout.builder()
+                .chartTitle("Box plot")
+                .yAxisLabel(feature.getName())
+                .build());
+        return chart;
+    }
+
+    private Chart createBoxPlotWithGrouping(ChartSpec spec, PlateColumnStore store, WellFilter filter) throws ChartDataException {
+        Long featureId = spec.getFeatureIds().get(0);
+
+        float[] values = store.getFeatureValues(featureId);
+        WellLayout wells = store.getWellLayout();
+        BitSet selectedWells = selectWells(spec, wells, filter, store);
+        FeatureDTO feature = store.getFeature(featureId);
+
+        List<ChartData> data = groupByWell(spec, wells, selectedWells, spec.getGroupBy(), null, values, name -> ChartData.builder()
+                .type("box")
+                .name(name)
+                .yValue(new ArrayList<>())
+                .build());
+
+        return createChart(data, ChartLayout.builder()
+                .chartTitle("Box Plot")
+                .yAxisLabel(feature.getName())
+                .build());
+    }
+
+    private static Chart createChart(List<ChartData> data, ChartLayout layout) {
+        Chart chart = new Chart();
+        chart.setData(data.toArray(ChartData[]::new));
+        chart.setLayout(layout);
+        return chart;
+    }
+
+    /**
+     * Evaluates the filter over the wells of the plates. Feature values are only fetched for the features the filter refers to.
+     */
+    private BitSet selectWells(ChartSpec spec, WellLayout wells, WellFilter filter, PlateColumnStore store) throws ChartDataException {
+        if (filter == null) {
+            BitSet allWells = new BitSet(wells.getSize());
+            allWells.set(0, wells.getSize());
+            return allWells;
+        }
+        return chartMetrics.recordStage("wells", spec, () -> filter.select(WellColumns.of(wells, featureName -> {
+            FeatureDTO feature = store.findFeatureByName(featureName);
+            return feature == null ? null : store.getFeatureValues(feature.getId());
+        })));
+    }
+
+    /**
+     * Splits the values of the selected wells into traces, one per distinct group name, in order of first occurrence.
+     * Grouping by a well property is a lookup of the code of the well in the layout, any other group name puts all wells in a single trace.
+     * The values arrays are indexed like the wells, either of them may be null if the chart has no such axis.
+     */
+    private List<ChartData> groupByWell(ChartSpec spec, WellLayout wells, BitSet selectedWells, String groupBy, float[] xValues, float[] yValues,
+                                        Function<String, ChartData> newTrace) throws ChartDataException {
+        chartMetrics.recordWells(spec, selectedWells.cardinality());
+        return chartMetrics.recordStage("grouping", spec, () -> {
+            CategoricalColumn groups = wells.getGroups(groupBy);
+            String[] groupNames = groups == null ? new String[]{groupBy} : groups.getDictionary();
+            int[] groupCodes = groups == null ? null : groups.getCodes();
+
+            ChartData[] tracesByCode = new ChartData[groupNames.length];
+            List<ChartData> traces = new ArrayList<>();
+            for (int i = selectedWells.nextSetBit(0); i >= 0 && i < wells.getSize(); i = selectedWells.nextSetBit(i + 1)) {
+                int code = groupCodes == null ? 0 : groupCodes[i];
+                ChartData trace = tracesByCode[code];
+                if (trace == null) {
+                    trace = newTrace.apply(groupNames[code]);
+                    tracesByCode[code] = trace;
+                    traces.add(trace);
+                }
+                if (xValues != null) trace.getXValue().add(xValues[i]);
+                if (yValues != null) trace.getYValue().add(yValues[i]);
+            }
+            return traces;
+        });
+    }
+
+    private ResultSetDTO getLatestResultSet(Long plateId, Long protocolId) throws ChartDataException {
+        ResultSetDTO resultSet = upstreamClient.getLatestResultSetByPlateIdAndProtocolId(plateId, protocolId);
+        if (resultSet == null) throw new ChartDataException("No result set found for plate " + plateId + " and protocol " + protocolId);
+        return resultSet;
+    }
+
+    private Long getProtocolIdOfPlate(Long plateId) throws ChartDataException {
+        List<PlateMeasurementDTO> measurements = upstreamClient.getPlateMeasurements(plateId);
+        Long measurementId = measurements.stream()
+                .filter(measurement -> Boolean.TRUE.equals(measurement.getActive()))
+                .map(PlateMeasurementDTO::getMeasurementId)
+                .findFirst()
+                .orElseThrow(() -> new ChartDataException("No active measurement found for plate with id " + plateId));
+        ResultSetDTO resultSet = upstreamClient.getLatestResultSetByPlateIdAndMeasId(plateId, measurementId);
+        if (resultSet == null) throw new ChartDataException("No result set found for plate " + plateId + " and measurement " + measurementId);
+        return resultSet.getProtocolId();
+    }
+
+    private List<FeatureDTO> getFeaturesOfProtocol(Long protocolId) throws ChartDataException {
+        return upstreamClient.getFeaturesOfProtocol(protocolId);
+    }
+}
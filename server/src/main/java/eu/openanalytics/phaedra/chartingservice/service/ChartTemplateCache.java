@@ -0,0 +1,136 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Read-through cache of fully assembled chart templates, including their settings.
+ * Callers always get their own copy, so modifying a returned template never changes the cached one.
+ * Invalidations are applied locally and, when a {@link ChartTemplateInvalidationBroadcaster} is configured, on the other instances as well.
+ */
+@Component
+public class ChartTemplateCache {
+
+    private final Cache<Long, ChartTemplateDTO> cache;
+    private final ObjectProvider<ChartTemplateInvalidationBroadcaster> broadcaster;
+
+    public ChartTemplateCache(MeterRegistry meterRegistry, ObjectProvider<ChartTemplateInvalidationBroadcaster> broadcaster,
+                              @Value("${phaedra2.charting.cache.templates.max-size:10000}") long maxSize,
+                              @Value("${phaedra2.charting.cache.templates.expire-after-write:PT1H}") Duration expireAfterWrite) {
+        this.broadcaster = broadcaster;
+        // Entries also expire after a while, in case an invalidation from another instance was missed
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chart.templates");
+    }
+
+    /**
+     * Returns a copy of the cached chart template, loading it first if needed. Templates that do not exist (null) are not cached.
+     */
+    public ChartTemplateDTO get(Long id, Function<Long, ChartTemplateDTO> loader) {
+        return copy(cache.get(id, loader));
+    }
+
+    /**
+     * Evicts the chart template on all instances. Inside a transaction, this happens once the transaction has committed,
+     * so a concurrent read cannot put the old version back in the cache.
+     */
+    public void invalidate(Long id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictEverywhere(id);
+                }
+            });
+        } else {
+            evictEverywhere(id);
+        }
+    }
+
+    /**
+     * Evicts the chart template on this instance only, as requested by another instance.
+     */
+    public void evict(Long id) {
+        cache.invalidate(id);
+    }
+
+    /**
+     * Removes expired entries now, instead of as a side effect of later accesses.
+     */
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    private void evictEverywhere(Long id) {
+        evict(id);
+        broadcaster.ifAvailable(b -> b.broadcast(id));
+    }
+
+    private static ChartTemplateDTO copy(ChartTemplateDTO chartTemplateDTO) {
+        if (chartTemplateDTO == null) return null;
+        return ChartTemplateDTO.builder()
+                .id(chartTemplateDTO.getId())
+                .Type(chartTemplateDTO.getType())
+                .axisX(chartTemplateDTO.getAxisX())
+                .axisY(chartTemplateDTO.getAxisY())
+                .groupBy(chartTemplateDTO.getGroupBy())
+                .filter(chartTemplateDTO.getFilter())
+                .axisSettings(copy(chartTemplateDTO.getAxisSettings()))
+                .chartSettings(copy(chartTemplateDTO.getChartSettings()))
+                .build();
+    }
+
+    private static List<SettingDTO> copy(List<SettingDTO> settingDTOs) {
+        if (settingDTOs == null) return null;
+        return settingDTOs.stream()
+                .map(setting -> new SettingDTO(setting.getId(), setting.getChartTemplateId(), setting.getSettingType(), setting.getName(), setting.getValue()))
+                .collect(Collectors.toList());
+    }
+}
@@ -23,37 +23,32 @@ package eu.openanalytics.phaedra.chartingservice.service;
 import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
 import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
 import eu.openanalytics.phaedra.chartingservice.enumeration.SettingType;
+import eu.openanalytics.phaedra.chartingservice.mapper.ChartTemplateMapper;
 import eu.openanalytics.phaedra.chartingservice.model.ChartTemplate;
+import eu.openanalytics.phaedra.chartingservice.model.ChartTemplateQuery;
 import eu.openanalytics.phaedra.chartingservice.repository.ChartTemplateRepository;
-import org.modelmapper.Conditions;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.config.Configuration;
-import org.modelmapper.convention.NameTransformers;
-import org.modelmapper.convention.NamingConventions;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Service
 public class ChartTemplateService {
-    private final ModelMapper modelMapper = new ModelMapper();
-
     private final ChartTemplateRepository chartTemplateRepository;
     private final SettingService settingService;
+    private final ChartTemplateCache chartTemplateCache;
 
-    public ChartTemplateService(ChartTemplateRepository chartTemplateRepository, SettingService settingService) {
+    public ChartTemplateService(ChartTemplateRepository chartTemplateRepository, SettingService settingService, ChartTemplateCache chartTemplateCache) {
         this.chartTemplateRepository = chartTemplateRepository;
         this.settingService = settingService;
-
-        Configuration builderConfiguration = modelMapper.getConfiguration().copy()
-                .setDestinationNameTransformer(NameTransformers.builder())
-                .setDestinationNamingConvention(NamingConventions.builder());
-        modelMapper.createTypeMap(ChartTemplate.class, ChartTemplateDTO.class, builderConfiguration)
-                .setPropertyCondition(Conditions.isNotNull());
+        this.chartTemplateCache = chartTemplateCache;
     }
 
+    @Transactional
     public ChartTemplateDTO createChartTemplate(ChartTemplateDTO chartTemplateDTO) {
         //Hard copy setting lists
         List<SettingDTO> settingDTOAxis = new ArrayList<>();
@@ -65,32 +60,79 @@ public class ChartTemplateService {
             settingDTOChart.addAll(chartTemplateDTO.getChartSettings());
         }
         //Save chart template
-        ChartTemplate chartTemplate = modelMapper.map(chartTemplateDTO, ChartTemplate.class);
+        ChartTemplate chartTemplate = ChartTemplateMapper.toChartTemplate(chartTemplateDTO);
         chartTemplate = chartTemplateRepository.save(chartTemplate);
         //Save settings
         settingService.createSettings(settingDTOAxis, chartTemplate.getId(), SettingType.AXIS);
         settingService.createSettings(settingDTOChart, chartTemplate.getId(), SettingType.CHART);
+        chartTemplateCache.invalidate(chartTemplate.getId());
         //Return chart template
         chartTemplateDTO = mapToChartTemplateDTO(chartTemplate);
         return chartTemplateDTO;
     }
 
+    @Transactional
     public ChartTemplateDTO updateChartTemplate(ChartTemplateDTO chartTemplateDTO) {
-        ChartTemplate chartTemplate = modelMapper.map(chartTemplateDTO, ChartTemplate.class);
-
-        //Update settings
-        updateSettings(chartTemplateDTO);
+        ChartTemplate chartTemplate = ChartTemplateMapper.toChartTemplate(chartTemplateDTO);
         chartTemplate = chartTemplateRepository.save(chartTemplate);
-        chartTemplateDTO = mapToChartTemplateDTO(chartTemplate);
+
+        //Update settings as a single diff against the stored settings
+        Map<SettingType, List<SettingDTO>> settings = settingService.replaceSettings(chartTemplate.getId(), chartTemplateDTO.getAxisSettings(), chartTemplateDTO.getChartSettings());
+        chartTemplateCache.invalidate(chartTemplate.getId());
+        chartTemplateDTO = mapToChartTemplateSummaryDTO(chartTemplate);
+        chartTemplateDTO.setAxisSettings(settings.getOrDefault(SettingType.AXIS, new ArrayList<>()));
+        chartTemplateDTO.setChartSettings(settings.getOrDefault(SettingType.CHART, new ArrayList<>()));
         return chartTemplateDTO;
     }
 
+    /**
+     * Imports chart templates with their settings as new chart templates, ignoring the ids in the given templates and settings.
+     * Templates and settings are each inserted with multi-row inserts, all in one transaction. Returns the ids of the new templates, in order.
+     */
+    @Transactional
+    public List<Long> importChartTemplates(List<ChartTemplateDTO> chartTemplateDTOs) {
+        List<ChartTemplate> chartTemplates = new ArrayList<>();
+        for (ChartTemplateDTO chartTemplateDTO : chartTemplateDTOs) {
+            ChartTemplate chartTemplate = ChartTemplateMapper.toChartTemplate(chartTemplateDTO);
+            chartTemplate.setId(null);
+            chartTemplates.add(chartTemplate);
+        }
+        chartTemplateRepository.insertAll(chartTemplates);
+
+        List<SettingDTO> settingDTOs = new ArrayList<>();
+        for (int i = 0; i < chartTemplateDTOs.size(); i++) {
+            Long chartTemplateId = chartTemplates.get(i).getId();
+            addImportedSettings(settingDTOs, chartTemplateDTOs.get(i).getAxisSettings(), chartTemplateId, SettingType.AXIS);
+            addImportedSettings(settingDTOs, chartTemplateDTOs.get(i).getChartSettings(), chartTemplateId, SettingType.CHART);
+        }
+        settingService.insertSettings(settingDTOs);
+        return chartTemplates.stream().map(ChartTemplate::getId).collect(Collectors.toList());
+    }
+
+    private static void addImportedSettings(List<SettingDTO> settingDTOs, List<SettingDTO> importedSettings, Long chartTemplateId, SettingType settingType) {
+        if (importedSettings == null) return;
+        for (SettingDTO importedSetting : importedSettings) {
+            settingDTOs.add(SettingDTO.builder()
+                    .chartTemplateId(chartTemplateId)
+                    .settingType(settingType)
+                    .name(importedSetting.getName())
+                    .value(importedSetting.getValue())
+                    .build());
+        }
+    }
+
+    @Transactional
     public void deleteChartTemplate(Long id) {
         settingService.deleteSettingsByChartTemplateId(id);
         chartTemplateRepository.deleteById(id);
+        chartTemplateCache.invalidate(id);
     }
 
     public ChartTemplateDTO getChartTemplateById(Long id) {
+        return chartTemplateCache.get(id, this::loadChartTemplateById);
+    }
+
+    private ChartTemplateDTO loadChartTemplateById(Long id) {
         ChartTemplate chartTemplate = chartTemplateRepository.findById(id).orElse(null);
         if (chartTemplate == null) {
             return null;
@@ -105,61 +147,46 @@ public class ChartTemplateService {
         return chartTemplateDTOs;
     }
 
+    public List<ChartTemplateDTO> getChartTemplates(ChartTemplateQuery query) {
+        long afterId = query.getAfterId() == null ? Long.MIN_VALUE : query.getAfterId();
+        int limit = query.getLimit() == null ? Integer.MAX_VALUE : query.getLimit();
+        List<ChartTemplate> chartTemplates = chartTemplateRepository.findPage(afterId, query.getType(), query.getAxisX(), query.getAxisY(), query.getGroupBy(), limit);
+        if (query.isIncludeSettings()) {
+            return mapToChartTemplateDTOs(chartTemplates);
+        }
+        //Summary projection: the settings are not loaded at all
+        List<ChartTemplateDTO> chartTemplateDTOs = new ArrayList<>();
+        for (ChartTemplate chartTemplate : chartTemplates) {
+            chartTemplateDTOs.add(mapToChartTemplateSummaryDTO(chartTemplate));
+        }
+        return chartTemplateDTOs;
+    }
+
+    private ChartTemplateDTO mapToChartTemplateSummaryDTO(ChartTemplate chartTemplate) {
+        return ChartTemplateMapper.toChartTemplateDTO(chartTemplate);
+    }
+
     private ChartTemplateDTO mapToChartTemplateDTO(ChartTemplate chartTemplate) {
-        ChartTemplateDTO chartTemplateDTO = new ChartTemplateDTO();
-        chartTemplateDTO.setId(chartTemplate.getId());
-        chartTemplateDTO.setType(chartTemplate.getType());
-        chartTemplateDTO.setAxisX(chartTemplate.getAxisX());
-        chartTemplateDTO.setAxisY(chartTemplate.getAxisY());
-        chartTemplateDTO.setGroupBy(chartTemplate.getGroupBy());
-        chartTemplateDTO.setFilter(chartTemplate.getFilter());
+        ChartTemplateDTO chartTemplateDTO = ChartTemplateMapper.toChartTemplateDTO(chartTemplate);
         chartTemplateDTO.setAxisSettings(settingService.getSettingsByChartTemplateId(chartTemplate.getId(), SettingType.AXIS));
         chartTemplateDTO.setChartSettings(settingService.getSettingsByChartTemplateId(chartTemplate.getId(), SettingType.CHART));
         return chartTemplateDTO;
     }
 
     private List<ChartTemplateDTO> mapToChartTemplateDTOs(List<ChartTemplate> chartTemplates) {
+        //Load the settings of all chart templates at once
+        List<Long> chartTemplateIds = chartTemplates.stream().map(ChartTemplate::getId).collect(Collectors.toList());
+        Map<Long, Map<SettingType, List<SettingDTO>>> settings = settingService.getSettingsByChartTemplateIds(chartTemplateIds);
+
         List<ChartTemplateDTO> chartTemplateDTOs = new ArrayList<>();
         for (ChartTemplate chartTemplate : chartTemplates) {
-            chartTemplateDTOs.add(mapToChartTemplateDTO(chartTemplate));
+            Map<SettingType, List<SettingDTO>> chartTemplateSettings = settings.getOrDefault(chartTemplate.getId(), Collections.emptyMap());
+            ChartTemplateDTO chartTemplateDTO = mapToChartTemplateSummaryDTO(chartTemplate);
+            chartTemplateDTO.setAxisSettings(new ArrayList<>(chartTemplateSettings.getOrDefault(SettingType.AXIS, Collections.emptyList())));
+            chartTemplateDTO.setChartSettings(new ArrayList<>(chartTemplateSettings.getOrDefault(SettingType.CHART, Collections.emptyList())));
+            chartTemplateDTOs.add(chartTemplateDTO);
         }
         return chartTemplateDTOs;
     }
 
-    private void updateSettings(ChartTemplateDTO chartTemplateDTO) {
-        //Get existing settings
-        List<SettingDTO> settingDTOAxis = settingService.getSettingsByChartTemplateId(chartTemplateDTO.getId(), SettingType.AXIS);
-        List<SettingDTO> settingDTOChart = settingService.getSettingsByChartTemplateId(chartTemplateDTO.getId(), SettingType.CHART);
-        //Get settings that are not in chartTemplateDTO
-        List<SettingDTO> settingDTOAxisToDelete = new ArrayList<>(settingDTOAxis);
-        List<SettingDTO> settingDTOChartToDelete = new ArrayList<>(settingDTOChart);
-        if (chartTemplateDTO.getAxisSettings() != null) {
-            //Remove settings that only have the same id
-            List<SettingDTO> settingDTOsToKeepAxis = new ArrayList<>(chartTemplateDTO.getAxisSettings());
-            removeSettingsById(settingDTOAxisToDelete, settingDTOsToKeepAxis);
-        }
-        if (chartTemplateDTO.getChartSettings() != null) {
-            //Remove settings that only have the same id
-            List<SettingDTO> settingDTOsToKeepChart = new ArrayList<>(chartTemplateDTO.getChartSettings());
-            removeSettingsById(settingDTOChartToDelete, settingDTOsToKeepChart);
-        }
-        //Delete settings that are not in chartTemplateDTO
-        settingService.deleteSettings(settingDTOAxisToDelete);
-        settingService.deleteSettings(settingDTOChartToDelete);
-
-        //Update settings
-        settingService.updateSettings(chartTemplateDTO.getAxisSettings(), chartTemplateDTO.getId());
-    }
-
-    private void removeSettingsById(List<SettingDTO> settingDTOs, List<SettingDTO> settingDTOsToKeep) {
-        List<SettingDTO> settingDTOsToRemove = new ArrayList<>();
-        for (SettingDTO settingDTO : settingDTOsToKeep) {
-            for (SettingDTO settingDTO1 : settingDTOs) {
-                if (settingDTO.getId() != null && settingDTO.getId().equals(settingDTO1.getId())) {
-                    settingDTOsToRemove.add(settingDTO1);
-                }
-            }
-        }
-        settingDTOs.removeAll(settingDTOsToRemove);
-    }
 }
@@ -0,0 +1,137 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in profile of a single request: the wall time of every upstream call and pipeline stage, cache hits and misses,
+ * and the number of bytes of the chart results produced. A profile is collected while it is active on the current thread,
+ * see {@link #activate()}; when no profile is active nothing is recorded.
+ */
+public class ExecutionProfile {
+
+    /**
+     * Request header that enables profiling when set to {@code true}. For REST endpoints the profile is returned in a response header with the same name.
+     */
+    public static final String HEADER = "X-Chart-Profile";
+
+    private static final ThreadLocal<ExecutionProfile> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final List<Timing> upstreamCalls = new ArrayList<>();
+    private final List<Timing> stages = new ArrayList<>();
+    private final Map<String, AtomicLong[]> cacheAccesses = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Returns the profile active on the current thread, or null if the request is not profiled.
+     */
+    public static ExecutionProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes this profile the active one on the current thread until the returned scope is closed.
+     * Work handed to other threads must activate the profile there as well.
+     */
+    public Scope activate() {
+        ExecutionProfile previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        };
+    }
+
+    public void recordUpstreamCall(String name, long nanos) {
+        synchronized (upstreamCalls) {
+            upstreamCalls.add(new Timing(name, nanos));
+        }
+    }
+
+    public void recordStage(String name, long nanos) {
+        synchronized (stages) {
+            stages.add(new Timing(name, nanos));
+        }
+    }
+
+    public void recordCacheAccess(String cache, boolean hit) {
+        AtomicLong[] counts = cacheAccesses.computeIfAbsent(cache, name -> new AtomicLong[]{new AtomicLong(), new AtomicLong()});
+        counts[hit ? 0 : 1].incrementAndGet();
+    }
+
+    public void recordBytes(int count) {
+        bytes.addAndGet(count);
+    }
+
+    /**
+     * Returns the profile as a map that can be serialized as JSON, timings in milliseconds.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> profile = new LinkedHashMap<>();
+        profile.put("wallTimeMs", toMillis(System.nanoTime() - startNanos));
+        synchronized (upstreamCalls) {
+            profile.put("upstreamCalls", toMaps(upstreamCalls));
+        }
+        synchronized (stages) {
+            profile.put("stages", toMaps(stages));
+        }
+        Map<String, Object> caches = new LinkedHashMap<>();
+        cacheAccesses.forEach((cache, counts) -> caches.put(cache, Map.of("hits", counts[0].get(), "misses", counts[1].get())));
+        profile.put("caches", caches);
+        profile.put("bytes", bytes.get());
+        return profile;
+    }
+
+    private static List<Map<String, Object>> toMaps(List<Timing> timings) {
+        List<Map<String, Object>> maps = new ArrayList<>(timings.size());
+        for (Timing timing : timings) {
+            maps.add(Map.of("name", timing.name, "ms", toMillis(timing.nanos)));
+        }
+        return maps;
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    private static class Timing {
+        private final String name;
+        private final long nanos;
+
+        private Timing(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Broadcasts chart template invalidations over a Kafka topic. Every instance is assigned all partitions of the topic,
+ * without a consumer group (see {@link KafkaPartitionFinder}), so each of them receives all invalidations sent while it runs,
+ * and ignores the ones it sent itself.
+ * Enabled by setting {@code phaedra2.charting.cache.templates.invalidation-topic}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty("phaedra2.charting.cache.templates.invalidation-topic")
+public class KafkaChartTemplateInvalidationBroadcaster implements ChartTemplateInvalidationBroadcaster {
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ChartTemplateCache chartTemplateCache;
+    private final String topic;
+
+    public KafkaChartTemplateInvalidationBroadcaster(KafkaTemplate<String, String> kafkaTemplate, ChartTemplateCache chartTemplateCache,
+                                                     @Value("${phaedra2.charting.cache.templates.invalidation-topic}") String topic) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.chartTemplateCache = chartTemplateCache;
+        this.topic = topic;
+    }
+
+    @Override
+    public void broadcast(Long chartTemplateId) {
+        kafkaTemplate.send(topic, String.valueOf(chartTemplateId), InstanceId.VALUE + ":" + chartTemplateId);
+    }
+
+    @KafkaListener(topicPartitions = @TopicPartition(topic = "${phaedra2.charting.cache.templates.invalidation-topic}",
+            partitions = "#{@kafkaPartitionFinder.partitions('${phaedra2.charting.cache.templates.invalidation-topic}')}"),
+            properties = {"auto.offset.reset=latest", "enable.auto.commit=false"})
+    public void onInvalidation(String message) {
+        int separator = message.lastIndexOf(':');
+        if (separator < 0) {
+            log.warn("Ignoring malformed chart template invalidation: {}", message);
+            return;
+        }
+        if (InstanceId.VALUE.equals(message.substring(0, separator))) return;
+        chartTemplateCache.evict(Long.valueOf(message.substring(separator + 1)));
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Looks up the partitions of a topic, for listeners that are assigned all partitions of their topic instead of joining a consumer group.
+ * Every instance needs every message of such a topic and starts at its end, so there are no offsets to commit, and no consumer groups
+ * are left behind on the broker when instances are replaced. Partitions are looked up when the listener starts, so partitions added
+ * to a topic later are only consumed after a restart.
+ */
+@Component
+public class KafkaPartitionFinder {
+
+    private final ConsumerFactory<?, ?> consumerFactory;
+
+    public KafkaPartitionFinder(ConsumerFactory<?, ?> consumerFactory) {
+        this.consumerFactory = consumerFactory;
+    }
+
+    public String[] partitions(String topic) {
+        try (Consumer<?, ?> consumer = consumerFactory.createConsumer()) {
+            return consumer.partitionsFor(topic).stream()
+                    .map(partition -> String.valueOf(partition.partition()))
+                    .toArray(String[]::new);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Assigns every plate to one instance of this service, using a consistent hash ring over the instances known to the discovery client.
+ * Requests for the same plate are then served by the same instance, so each plate is cached once across all instances
+ * instead of once per instance, and cache capacity grows with the number of instances.
+ * When an instance is added or removed, only the plates of the ring segments it takes over or gives up move.
+ * <p>
+ * The ring is rebuilt periodically rather than on every request, because a discovery lookup may call the Kubernetes API.
+ * Enabled by setting {@code phaedra2.charting.routing.enabled} to true.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "phaedra2.charting.routing.enabled", havingValue = "true")
+public class PlateAffinityRouter {
+
+    private final DiscoveryClient discoveryClient;
+    private final String serviceId;
+    private final String localHost;
+    private final int localPort;
+    private final int virtualNodes;
+
+    private volatile List<String> instanceIds = List.of();
+    private volatile NavigableMap<Long, ServiceInstance> ring = new TreeMap<>();
+
+    public PlateAffinityRouter(DiscoveryClient discoveryClient,
+                               @Value("${spring.application.name}") String serviceId,
+                               @Value("${phaedra2.charting.routing.instance-host:}") String localHost,
+                               @Value("${server.port:8080}") int localPort,
+                               @Value("${phaedra2.charting.routing.virtual-nodes:100}") int virtualNodes) throws UnknownHostException {
+        this.discoveryClient = discoveryClient;
+        this.serviceId = serviceId;
+        // On Kubernetes, discovered instances are addressed by pod IP
+        this.localHost = localHost.isBlank() ? InetAddress.getLocalHost().getHostAddress() : localHost;
+        this.localPort = localPort;
+        this.virtualNodes = virtualNodes;
+        refresh();
+    }
+
+    /**
+     * Returns the instance that owns the given plate, or null if this instance owns it (or no instances are known).
+     */
+    public ServiceInstance getOwner(Long plateId) {
+        NavigableMap<Long, ServiceInstance> ring = this.ring;
+        if (ring.isEmpty()) return null;
+        Map.Entry<Long, ServiceInstance> entry = ring.ceilingEntry(hash(plateId));
+        ServiceInstance owner = entry == null ? ring.firstEntry().getValue() : entry.getValue();
+        return isLocal(owner) ? null : owner;
+    }
+
+    /**
+     * Returns an identifier of this instance, as used to mark requests forwarded by it.
+     */
+    public String getLocalInstanceId() {
+        return localHost + ":" + localPort;
+    }
+
+    @Scheduled(fixedDelayString = "${phaedra2.charting.routing.refresh-interval:PT10S}",
+            initialDelayString = "${phaedra2.charting.routing.refresh-interval:PT10S}")
+    public void refresh() {
+        List<ServiceInstance> instances;
+        try {
+            instances = discoveryClient.getInstances(serviceId).stream()
+                    .sorted(Comparator.comparing(PlateAffinityRouter::instanceId))
+                    .collect(Collectors.toList());
+        } catch (RuntimeException e) {
+            // Keep routing with the last known instances
+            log.warn("Could not look up the instances of {}: {}", serviceId, e.getMessage());
+            return;
+        }
+        List<String> ids = instances.stream().map(PlateAffinityRouter::instanceId).collect(Collectors.toList());
+        if (ids.equals(instanceIds)) return;
+
+        NavigableMap<Long, ServiceInstance> ring = new TreeMap<>();
+        for (ServiceInstance instance : instances) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(instanceId(instance) + "#" + i), instance);
+            }
+        }
+        this.ring = ring;
+        this.instanceIds = ids;
+        log.info("Routing plates over {} instances: {}", ids.size(), ids);
+    }
+
+    private boolean isLocal(ServiceInstance instance) {
+        return localHost.equals(instance.getHost()) && localPort == instance.getPort();
+    }
+
+    private static String instanceId(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+    private static long hash(Long plateId) {
+        return mix(plateId);
+    }
+
+    private static long hash(String key) {
+        // 64-bit FNV-1a, mixed so that similar keys spread over the whole ring
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        // Finalizer of SplitMix64
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.WellLayout;
+import eu.openanalytics.phaedra.chartingservice.service.ChartRequestCoalescer.ChartLoader;
+import eu.openanalytics.phaedra.protocolservice.dto.FeatureDTO;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The wells and feature columns of a set of plates, for the latest result sets of one protocol.
+ * Every upstream lookup is done at most once per store, also when several charts are assembled from the same store concurrently.
+ * Wells and feature values of multiple plates are concatenated in the order of the given plates.
+ */
+class PlateColumnStore {
+
+    private final UpstreamClient upstreamClient;
+    private final WellLayoutCache wellLayoutCache;
+
+    @Getter
+    private final List<Long> plateIds;
+    @Getter
+    private final Long protocolId;
+    @Getter
+    private final List<ResultSetDTO> resultSets;
+
+    private final Map<Object, CompletableFuture<Object>> loaded = new ConcurrentHashMap<>();
+
+    PlateColumnStore(UpstreamClient upstreamClient, WellLayoutCache wellLayoutCache, List<Long> plateIds, Long protocolId, List<ResultSetDTO> resultSets) {
+        this.upstreamClient = upstreamClient;
+        this.wellLayoutCache = wellLayoutCache;
+        this.plateIds = plateIds;
+        this.protocolId = protocolId;
+        this.resultSets = resultSets;
+    }
+
+    /**
+     * Returns the layout of the wells of all plates. The layout of each plate is shared with other stores through the {@link WellLayoutCache}.
+     */
+    WellLayout getWellLayout() throws ChartDataException {
+        return load(List.of("wells"), () -> {
+            List<WellLayout> layouts = new ArrayList<>(plateIds.size());
+            for (Long plateId : plateIds) {
+                layouts.add(wellLayoutCache.get(plateId));
+            }
+            return WellLayout.concat(layouts);
+        });
+    }
+
+    /**
+     * Returns the values of the feature for all wells, indexed like {@link #getWellLayout()}.
+     * With multiple plates, the values of each plate fill the segment of its wells: values beyond the wells of the plate are dropped,
+     * and wells without a value are NaN, so result data that does not match the wells of its plate cannot shift the values of the next plates.
+     */
+    float[] getFeatureValues(Long featureId) throws ChartDataException {
+        return load(List.of("values", featureId), () -> {
+            if (resultSets.size() == 1) return getFeatureValues(resultSets.get(0), featureId);
+            float[] allValues = new float[getWellLayout().getSize()];
+            int offset = 0;
+            for (int i = 0; i < plateIds.size(); i++) {
+                int wellCount = wellLayoutCache.get(plateIds.get(i)).getSize();
+                float[] values = getFeatureValues(resultSets.get(i), featureId);
+                int length = Math.min(values.length, wellCount);
+                System.arraycopy(values, 0, allValues, offset, length);
+                Arrays.fill(allValues, offset + length, offset + wellCount, Float.NaN);
+                offset += wellCount;
+            }
+            return allValues;
+        });
+    }
+
+    FeatureDTO getFeature(Long featureId) throws ChartDataException {
+        return load(List.of("feature", featureId), () -> upstreamClient.getFeature(featureId));
+    }
+
+    FeatureDTO findFeatureByName(String featureName) throws ChartDataException {
+        return getFeaturesOfProtocol().stream()
+                .filter(feature -> featureName.equals(feature.getName()))
+                .findFirst().orElse(null);
+    }
+
+    List<FeatureDTO> getFeaturesOfProtocol() throws ChartDataException {
+        return load(List.of("features"), () -> upstreamClient.getFeaturesOfProtocol(protocolId));
+    }
+
+    private float[] getFeatureValues(ResultSetDTO resultSetDTO, Long featureId) throws ChartDataException {
+        return upstreamClient.getResultData(resultSetDTO.getId(), featureId).getValues();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T load(List<Object> key, ChartLoader<T> loader) throws ChartDataException {
+        CompletableFuture<Object> value = new CompletableFuture<>();
+        CompletableFuture<Object> existingValue = loaded.putIfAbsent(key, value);
+        if (existingValue != null) return (T) await(existingValue);
+        try {
+            T result = loader.load();
+            value.complete(result);
+            return result;
+        } catch (Throwable t) {
+            // Failures are not remembered, a later chart may try again
+            loaded.remove(key, value);
+            value.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> value) throws ChartDataException {
+        try {
+            return value.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChartDataException("Interrupted while waiting for plate data to be loaded");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ChartDataException) throw (ChartDataException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
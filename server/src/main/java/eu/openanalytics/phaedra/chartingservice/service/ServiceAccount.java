@@ -0,0 +1,136 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Authenticates the upstream calls of background jobs, such as cache warming, which run outside of any user request.
+ * The upstream clients send the bearer token of the current security context, so these jobs run in a security context
+ * of their own, with an access token of the service account of the charting service.
+ * <p>
+ * The token is obtained from the token endpoint of the identity provider with the OAuth2 client credentials grant,
+ * decoded and validated like the token of a user request, and reused until shortly before it expires.
+ * Enabled by setting {@code phaedra2.charting.service-account.client-id}, together with {@code .token-uri},
+ * {@code .client-secret} and optionally {@code .scope}.
+ */
+@Component
+@ConditionalOnProperty("phaedra2.charting.service-account.client-id")
+public class ServiceAccount {
+
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    private final RestTemplate restTemplate;
+    private final JwtDecoder jwtDecoder;
+    private final Clock clock;
+    private final String tokenUri;
+    private final String clientId;
+    private final String clientSecret;
+    private final String scope;
+
+    private Jwt token;
+
+    public ServiceAccount(RestTemplateBuilder restTemplateBuilder, JwtDecoder jwtDecoder, Clock clock,
+                          @Value("${phaedra2.charting.service-account.token-uri}") String tokenUri,
+                          @Value("${phaedra2.charting.service-account.client-id}") String clientId,
+                          @Value("${phaedra2.charting.service-account.client-secret}") String clientSecret,
+                          @Value("${phaedra2.charting.service-account.scope:}") String scope) {
+        // The token endpoint is the identity provider, not a service found through discovery
+        this.restTemplate = restTemplateBuilder
+                .setConnectTimeout(Duration.ofSeconds(5))
+                .setReadTimeout(Duration.ofSeconds(10))
+                .build();
+        this.jwtDecoder = jwtDecoder;
+        this.clock = clock;
+        this.tokenUri = tokenUri;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.scope = scope;
+    }
+
+    /**
+     * Runs the job in a security context authenticated as the service account, and restores the security context of the calling thread afterwards.
+     */
+    public <T, E extends Exception> T runAs(Job<T, E> job) throws E, ChartDataException {
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new JwtAuthenticationToken(getToken()));
+        SecurityContext previous = SecurityContextHolder.getContext();
+        SecurityContextHolder.setContext(context);
+        try {
+            return job.run();
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
+
+    private synchronized Jwt getToken() throws ChartDataException {
+        if (token == null || token.getExpiresAt() == null || clock.instant().plus(EXPIRY_MARGIN).isAfter(token.getExpiresAt())) {
+            token = requestToken();
+        }
+        return token;
+    }
+
+    private Jwt requestToken() throws ChartDataException {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("grant_type", "client_credentials");
+        form.add("client_id", clientId);
+        form.add("client_secret", clientSecret);
+        if (!scope.isBlank()) form.add("scope", scope);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        try {
+            JsonNode response = restTemplate.postForObject(tokenUri, new HttpEntity<>(form, headers), JsonNode.class);
+            JsonNode accessToken = response == null ? null : response.get("access_token");
+            if (accessToken == null || !accessToken.isTextual()) {
+                throw new ChartDataException("No access token in the token response for service account " + clientId);
+            }
+            return jwtDecoder.decode(accessToken.asText());
+        } catch (RestClientException | JwtException e) {
+            throw new ChartDataException("Could not obtain an access token for service account " + clientId + ": " + e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    public interface Job<T, E extends Exception> {
+        T run() throws E;
+    }
+}
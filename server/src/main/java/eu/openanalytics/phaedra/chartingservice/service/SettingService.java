@@ -22,23 +22,30 @@ package eu.openanalytics.phaedra.chartingservice.service;
 
 import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
 import eu.openanalytics.phaedra.chartingservice.enumeration.SettingType;
+import eu.openanalytics.phaedra.chartingservice.mapper.SettingMapper;
 import eu.openanalytics.phaedra.chartingservice.model.Setting;
 import eu.openanalytics.phaedra.chartingservice.repository.ChartTemplateRepository;
 import eu.openanalytics.phaedra.chartingservice.repository.SettingRepository;
-import org.modelmapper.Conditions;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.config.Configuration;
-import org.modelmapper.convention.NameTransformers;
-import org.modelmapper.convention.NamingConventions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class SettingService {
-    private final ModelMapper modelMapper = new ModelMapper();
+    //Keeps the IN list of a bulk settings query well below the JDBC bind parameter limit
+    private static final int SETTINGS_QUERY_BATCH_SIZE = 1000;
 
     @Autowired
     private final SettingRepository settingRepository;
@@ -47,20 +54,13 @@ public class SettingService {
     public SettingService(SettingRepository settingRepository, ChartTemplateRepository chartTemplateRepository) {
         this.settingRepository = settingRepository;
         this.chartTemplateRepository = chartTemplateRepository;
-
-        Configuration builderConfiguration = modelMapper.getConfiguration().copy()
-                .setDestinationNameTransformer(NameTransformers.builder())
-                .setDestinationNamingConvention(NamingConventions.builder());
-        modelMapper.createTypeMap(Setting.class, SettingDTO.SettingDTOBuilder.class, builderConfiguration)
-                .setPropertyCondition(Conditions.isNotNull());
-
     }
 
     public SettingDTO createSetting(SettingDTO settingDTO) {
         if (!doesChartTemplateExist(settingDTO.getChartTemplateId())) {
             throw new IllegalArgumentException("Chart template does not exist");
         }
-        Setting newSetting = modelMapper.map(settingDTO, Setting.class);
+        Setting newSetting = SettingMapper.toSetting(settingDTO);
         newSetting = settingRepository.save(newSetting);
         return mapToSettingDTO(newSetting);
     }
@@ -76,15 +76,30 @@ public class SettingService {
         for (SettingDTO settingDTO : settingDTOs) {
             settingDTO.setChartTemplateId(chartTemplateId);
             settingDTO.setSettingType(settingType);
-            Setting newSetting = modelMapper.map(settingDTO, Setting.class);
+            Setting newSetting = SettingMapper.toSetting(settingDTO);
             settings.add(newSetting);
         }
-        settings = (List<Setting>) settingRepository.saveAll(settings);
+        //Inserted with multi-row inserts instead of one statement per setting
+        settings = settingRepository.insertAll(settings);
+        return mapToSettingDTOs(settings);
+    }
+
+    /**
+     * Inserts settings that already have their chart template id and setting type set, without checking that the chart templates exist.
+     */
+    public List<SettingDTO> insertSettings(List<SettingDTO> settingDTOs) {
+        List<Setting> settings = new ArrayList<>();
+        for (SettingDTO settingDTO : settingDTOs) {
+            Setting setting = SettingMapper.toSetting(settingDTO);
+            setting.setId(null);
+            settings.add(setting);
+        }
+        settings = settingRepository.insertAll(settings);
         return mapToSettingDTOs(settings);
     }
 
     public SettingDTO updateSetting(SettingDTO settingDTO) {
-        Setting setting = modelMapper.map(settingDTO, Setting.class);
+        Setting setting = SettingMapper.toSetting(settingDTO);
         setting = settingRepository.save(setting);
         return mapToSettingDTO(setting);
     }
@@ -93,7 +108,7 @@ public class SettingService {
         settingDTOs.forEach(settingDTO -> settingDTO.setChartTemplateId(chartTemplateId));
         List<Setting> settings = new ArrayList<>();
         for (SettingDTO settingDTO : settingDTOs) {
-            Setting setting = modelMapper.map(settingDTO, Setting.class);
+            Setting setting = SettingMapper.toSetting(settingDTO);
             settings.add(setting);
         }
         settings = (List<Setting>) settingRepository.saveAll(settings);
@@ -105,14 +120,62 @@ public class SettingService {
     }
 
     public void deleteSettings(List<SettingDTO> settingDTOs) {
-        for (SettingDTO settingDTO : settingDTOs) {
-            settingRepository.deleteById(settingDTO.getId());
+        List<Long> ids = settingDTOs.stream().map(SettingDTO::getId).filter(Objects::nonNull).collect(Collectors.toList());
+        if (!ids.isEmpty()) {
+            settingRepository.deleteByIdIn(ids);
+        }
+    }
+
+    /**
+     * Makes the settings of a chart template equal to the given axis and chart settings, a null list meaning no settings of that type.
+     * Given settings with the id of an existing setting of the chart template are updated if they changed, other given settings are inserted
+     * and existing settings that are not given anymore are deleted. This takes one query, one delete and two batched writes at most,
+     * regardless of the number of settings. Returns the resulting settings per setting type, in the given order.
+     */
+    @Transactional
+    public Map<SettingType, List<SettingDTO>> replaceSettings(Long chartTemplateId, List<SettingDTO> axisSettings, List<SettingDTO> chartSettings) {
+        Map<Long, Setting> existingSettings = new HashMap<>();
+        for (Setting setting : settingRepository.findByChartTemplateId(chartTemplateId)) {
+            existingSettings.put(setting.getId(), setting);
+        }
+
+        List<Setting> settings = new ArrayList<>();
+        List<Setting> settingsToInsert = new ArrayList<>();
+        List<Setting> settingsToUpdate = new ArrayList<>();
+        Set<Long> keptIds = new HashSet<>();
+        for (SettingType settingType : List.of(SettingType.AXIS, SettingType.CHART)) {
+            List<SettingDTO> settingDTOs = settingType == SettingType.AXIS ? axisSettings : chartSettings;
+            if (settingDTOs == null) continue;
+            for (SettingDTO settingDTO : settingDTOs) {
+                Setting setting = SettingMapper.toSetting(settingDTO);
+                setting.setChartTemplateId(chartTemplateId);
+                setting.setSettingType(settingType);
+                Setting existingSetting = setting.getId() == null ? null : existingSettings.get(setting.getId());
+                if (existingSetting != null && keptIds.add(setting.getId())) {
+                    if (!existingSetting.equals(setting)) settingsToUpdate.add(setting);
+                } else {
+                    //Unknown ids (e.g. of another chart template) and duplicates are stored as new settings
+                    setting.setId(null);
+                    settingsToInsert.add(setting);
+                }
+                settings.add(setting);
+            }
         }
+
+        List<Long> idsToDelete = existingSettings.keySet().stream().filter(id -> !keptIds.contains(id)).collect(Collectors.toList());
+        if (!idsToDelete.isEmpty()) settingRepository.deleteByIdIn(idsToDelete);
+        settingRepository.updateAll(settingsToUpdate);
+        settingRepository.insertAll(settingsToInsert);
+
+        Map<SettingType, List<SettingDTO>> settingsByType = new EnumMap<>(SettingType.class);
+        for (Setting setting : settings) {
+            settingsByType.computeIfAbsent(setting.getSettingType(), type -> new ArrayList<>()).add(mapToSettingDTO(setting));
+        }
+        return settingsByType;
     }
 
     public SettingDTO getSettingById(Long id) {
-        Setting setting = settingRepository.findById(id).orElse(null);
-        return modelMapper.map(setting, SettingDTO.class);
+        return settingRepository.findById(id).map(SettingMapper::toSettingDTO).orElse(null);
     }
 
     public List<SettingDTO> getSettingsByChartTemplateId(Long chartTemplateId, SettingType settingType) {
@@ -120,17 +183,31 @@ public class SettingService {
         return mapToSettingDTOs(settings);
     }
 
+    /**
+     * Returns the settings of the given chart templates, grouped by chart template id and setting type.
+     * The settings are loaded with one query per batch of chart templates instead of one per template and setting type.
+     */
+    public Map<Long, Map<SettingType, List<SettingDTO>>> getSettingsByChartTemplateIds(Collection<Long> chartTemplateIds) {
+        Map<Long, Map<SettingType, List<SettingDTO>>> settingsByChartTemplateId = new HashMap<>();
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(chartTemplateIds));
+        for (int from = 0; from < ids.size(); from += SETTINGS_QUERY_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + SETTINGS_QUERY_BATCH_SIZE, ids.size()));
+            for (Setting setting : settingRepository.findByChartTemplateIdIn(batch)) {
+                settingsByChartTemplateId
+                        .computeIfAbsent(setting.getChartTemplateId(), id -> new EnumMap<>(SettingType.class))
+                        .computeIfAbsent(setting.getSettingType(), type -> new ArrayList<>())
+                        .add(mapToSettingDTO(setting));
+            }
+        }
+        return settingsByChartTemplateId;
+    }
+
     private SettingDTO mapToSettingDTO(Setting setting) {
-        var builder = modelMapper.map(setting, SettingDTO.SettingDTOBuilder.class);
-        return builder.build();
+        return SettingMapper.toSettingDTO(setting);
     }
 
     private List<SettingDTO> mapToSettingDTOs(List<Setting> settings) {
-        List<SettingDTO> settingDTOs = new ArrayList<>();
-        for (Setting setting : settings) {
-            settingDTOs.add(mapToSettingDTO(setting));
-        }
-        return settingDTOs;
+        return SettingMapper.toSettingDTOs(settings);
     }
 
     private boolean doesChartTemplateExist(Long id) {
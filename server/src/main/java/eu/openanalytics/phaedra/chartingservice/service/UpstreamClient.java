@@ -0,0 +1,139 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.plateservice.client.PlateServiceClient;
+import eu.openanalytics.phaedra.plateservice.client.exception.PlateUnresolvableException;
+import eu.openanalytics.phaedra.plateservice.dto.PlateMeasurementDTO;
+import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
+import eu.openanalytics.phaedra.protocolservice.client.ProtocolServiceClient;
+import eu.openanalytics.phaedra.protocolservice.client.exception.FeatureUnresolvableException;
+import eu.openanalytics.phaedra.protocolservice.client.exception.ProtocolUnresolvableException;
+import eu.openanalytics.phaedra.protocolservice.dto.FeatureDTO;
+import eu.openanalytics.phaedra.resultdataservice.client.ResultDataServiceClient;
+import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultDataUnresolvableException;
+import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultSetUnresolvableException;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultDataDTO;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * The calls to the plate, protocol and result data services that charts are assembled from.
+ * Every call is timed per client method, runs isolated per service with a timeout (see {@link UpstreamGuard}),
+ * and failures are translated to a {@link ChartDataException}.
+ */
+@Component
+public class UpstreamClient {
+
+    private static final String PLATE_SERVICE = "plateservice";
+    private static final String PROTOCOL_SERVICE = "protocolservice";
+    private static final String RESULT_DATA_SERVICE = "resultdataservice";
+
+    private final PlateServiceClient plateServiceClient;
+    private final ProtocolServiceClient protocolServiceClient;
+    private final ResultDataServiceClient resultDataServiceClient;
+    private final ChartMetrics chartMetrics;
+    private final UpstreamGuard upstreamGuard;
+
+    public UpstreamClient(PlateServiceClient plateServiceClient, ProtocolServiceClient protocolServiceClient, ResultDataServiceClient resultDataServiceClient,
+                          ChartMetrics chartMetrics, UpstreamGuard upstreamGuard) {
+        this.plateServiceClient = plateServiceClient;
+        this.protocolServiceClient = protocolServiceClient;
+        this.resultDataServiceClient = resultDataServiceClient;
+        this.chartMetrics = chartMetrics;
+        this.upstreamGuard = upstreamGuard;
+    }
+
+    public List<WellDTO> getWells(Long plateId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(PLATE_SERVICE, "getWells",
+                    () -> upstreamGuard.call(PLATE_SERVICE, () -> plateServiceClient.getWells(plateId)));
+        } catch (PlateUnresolvableException e) {
+            throw new ChartDataException("Wells for plate with id " + plateId + " could not be found");
+        }
+    }
+
+    public List<PlateMeasurementDTO> getPlateMeasurements(Long plateId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(PLATE_SERVICE, "getPlateMeasurements",
+                    () -> upstreamGuard.call(PLATE_SERVICE, () -> plateServiceClient.getPlateMeasurements(plateId)));
+        } catch (PlateUnresolvableException e) {
+            throw new ChartDataException("Measurements for plate with id " + plateId + " are not resolvable");
+        }
+    }
+
+    public ResultSetDTO getLatestResultSetByPlateIdAndMeasId(Long plateId, Long measurementId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(RESULT_DATA_SERVICE, "getLatestResultSetByPlateIdAndMeasId",
+                    () -> upstreamGuard.call(RESULT_DATA_SERVICE, () -> resultDataServiceClient.getLatestResultSetByPlateIdAndMeasId(plateId, measurementId)));
+        } catch (ResultSetUnresolvableException e) {
+            throw new ChartDataException("Latest result set for plate with id " + plateId + " and measurement with id " + measurementId + " is not resolvable");
+        }
+    }
+
+    public ResultSetDTO getLatestResultSetByPlateIdAndProtocolId(Long plateId, Long protocolId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(RESULT_DATA_SERVICE, "getLatestResultSetByPlateIdAndProtocolId",
+                    () -> upstreamGuard.call(RESULT_DATA_SERVICE, () -> resultDataServiceClient.getLatestResultSetByPlateIdAndProtocolId(plateId, protocolId)));
+        } catch (ResultSetUnresolvableException e) {
+            throw new ChartDataException("Latest result set for plate with id " + plateId + " and protocol with id " + protocolId + " is not resolvable");
+        }
+    }
+
+    public List<ResultDataDTO> getResultData(Long resultSetId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(RESULT_DATA_SERVICE, "getResultData",
+                    () -> upstreamGuard.call(RESULT_DATA_SERVICE, () -> resultDataServiceClient.getResultData(resultSetId)));
+        } catch (ResultDataUnresolvableException e) {
+            throw new ChartDataException("Result data for result set with id " + resultSetId + " is not resolvable");
+        }
+    }
+
+    public ResultDataDTO getResultData(Long resultSetId, Long featureId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(RESULT_DATA_SERVICE, "getResultDataOfFeature",
+                    () -> upstreamGuard.call(RESULT_DATA_SERVICE, () -> resultDataServiceClient.getResultData(resultSetId, featureId)));
+        } catch (ResultDataUnresolvableException e) {
+            throw new ChartDataException("Result data for result set with id " + resultSetId + " and feature with id " + featureId + " is not resolvable");
+        }
+    }
+
+    public FeatureDTO getFeature(Long featureId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(PROTOCOL_SERVICE, "getFeature",
+                    () -> upstreamGuard.call(PROTOCOL_SERVICE, () -> protocolServiceClient.getFeature(featureId)));
+        } catch (FeatureUnresolvableException e) {
+            throw new ChartDataException("Feature with id " + featureId + " is not resolvable");
+        }
+    }
+
+    public List<FeatureDTO> getFeaturesOfProtocol(Long protocolId) throws ChartDataException {
+        try {
+            return chartMetrics.recordUpstreamCall(PROTOCOL_SERVICE, "getFeaturesOfProtocol",
+                    () -> upstreamGuard.call(PROTOCOL_SERVICE, () -> protocolServiceClient.getFeaturesOfProtocol(protocolId)));
+        } catch (ProtocolUnresolvableException e) {
+            throw new ChartDataException("Features for protocol with id " + protocolId + " are not resolvable");
+        }
+    }
+}
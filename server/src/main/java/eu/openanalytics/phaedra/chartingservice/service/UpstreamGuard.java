@@ -0,0 +1,224 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.service.ChartMetrics.UpstreamCall;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Isolates the calls to each upstream service, so one degraded service cannot stall chart requests or starve the calls to the other services:
+ * <ul>
+ *     <li>Bulkhead: the calls to a service run on a thread pool of its own with a bounded queue, calls beyond that are rejected.</li>
+ *     <li>Timeout: a call that does not complete in time fails, instead of holding on to the request.</li>
+ *     <li>Hedging (optional): if a call has not completed after a delay, a second identical call is sent and the first successful response is used.
+ *     All upstream calls of the charting service are idempotent reads, so this is safe for every service.</li>
+ * </ul>
+ * Settings are per service ({@code plateservice}, {@code protocolservice}, {@code resultdataservice}):
+ * {@code phaedra2.charting.upstream.<service>.timeout} (default 10s), {@code .max-concurrent-calls} (default 16),
+ * {@code .max-queued-calls} (default 100, 0 to reject calls as soon as all threads are busy) and {@code .hedge-after} (not set by default, which disables hedging).
+ * <p>
+ * Besides the {@code executor.*} meters of the thread pools (tagged {@code name=upstream.<service>}), the counters
+ * {@code chart.upstream.timeouts}, {@code chart.upstream.rejections} and {@code chart.upstream.hedges} (outcome sent or won) are published per service.
+ */
+@Component
+public class UpstreamGuard {
+
+    private static final String PREFIX = "phaedra2.charting.upstream.";
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    private static final int DEFAULT_MAX_CONCURRENT_CALLS = 16;
+    private static final int DEFAULT_MAX_QUEUED_CALLS = 100;
+
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    public UpstreamGuard(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T, E extends Exception> T call(String client, UpstreamCall<T, E> call) throws E, ChartDataException {
+        return bulkheads.computeIfAbsent(client, this::createBulkhead).call(call);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkheads.values().forEach(bulkhead -> bulkhead.executor.shutdownNow());
+    }
+
+    private Bulkhead createBulkhead(String client) {
+        int maxConcurrentCalls = environment.getProperty(PREFIX + client + ".max-concurrent-calls", Integer.class, DEFAULT_MAX_CONCURRENT_CALLS);
+        int maxQueuedCalls = environment.getProperty(PREFIX + client + ".max-queued-calls", Integer.class, DEFAULT_MAX_QUEUED_CALLS);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxConcurrentCalls, maxConcurrentCalls, 60, TimeUnit.SECONDS,
+                maxQueuedCalls == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(maxQueuedCalls), runnable -> {
+                    Thread thread = new Thread(runnable, "upstream-" + client + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        threadPool.allowCoreThreadTimeOut(true);
+        new ExecutorServiceMetrics(threadPool, "upstream." + client, Tags.empty()).bindTo(meterRegistry);
+        // Upstream clients authenticate with the security context of the request
+        return new Bulkhead(client, new DelegatingSecurityContextExecutorService(threadPool),
+                getDuration(client, "timeout", DEFAULT_TIMEOUT), getDuration(client, "hedge-after", null));
+    }
+
+    private Duration getDuration(String client, String property, Duration defaultValue) {
+        String value = environment.getProperty(PREFIX + client + "." + property);
+        return value == null || value.isBlank() ? defaultValue : DurationStyle.detectAndParse(value);
+    }
+
+    private class Bulkhead {
+
+        private final String client;
+        private final ExecutorService executor;
+        private final Duration timeout;
+        private final Duration hedgeAfter;
+
+        private Bulkhead(String client, ExecutorService executor, Duration timeout, Duration hedgeAfter) {
+            this.client = client;
+            this.executor = executor;
+            this.timeout = timeout;
+            this.hedgeAfter = hedgeAfter;
+        }
+
+        private <T, E extends Exception> T call(UpstreamCall<T, E> call) throws E, ChartDataException {
+            long deadline = System.nanoTime() + timeout.toNanos();
+            CompletableFuture<T> first = submit(call);
+            if (first == null) {
+                counter("chart.upstream.rejections").increment();
+                throw new ChartDataException("Call to " + client + " rejected, too many calls in progress");
+            }
+            CompletableFuture<T> hedge = null;
+            try {
+                if (hedgeAfter != null && hedgeAfter.compareTo(timeout) < 0) {
+                    try {
+                        return first.get(hedgeAfter.toNanos(), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        // A full bulkhead means the service is overloaded already, so no hedge is sent then
+                        hedge = submit(call);
+                        if (hedge != null) counter("chart.upstream.hedges", "outcome", "sent").increment();
+                    }
+                }
+                T result = await(hedge == null ? first : firstSuccessful(first, hedge), deadline);
+                if (hedge != null && (!first.isDone() || first.isCompletedExceptionally())) {
+                    counter("chart.upstream.hedges", "outcome", "won").increment();
+                }
+                return result;
+            } catch (TimeoutException e) {
+                counter("chart.upstream.timeouts").increment();
+                throw new ChartDataException("Call to " + client + " timed out after " + timeout.toMillis() + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChartDataException("Interrupted while waiting for a call to " + client);
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            } finally {
+                first.cancel(true);
+                if (hedge != null) hedge.cancel(true);
+            }
+        }
+
+        /**
+         * Submits the call to the thread pool of the service, or returns null if the bulkhead is full.
+         * Cancelling the returned future interrupts the call.
+         */
+        private <T, E extends Exception> CompletableFuture<T> submit(UpstreamCall<T, E> call) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            try {
+                Future<?> task = executor.submit(() -> {
+                    try {
+                        result.complete(call.call());
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+                result.whenComplete((value, t) -> {
+                    if (result.isCancelled()) task.cancel(true);
+                });
+                return result;
+            } catch (RejectedExecutionException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Completes with the result of the call that succeeds first, or with the failure of the call that fails last if both fail.
+         */
+        private <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> hedge) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            BiConsumer<T, Throwable> onCompletion = (value, t) -> {
+                if (t == null) result.complete(value);
+                else if (failures.incrementAndGet() == 2) result.completeExceptionally(t);
+            };
+            first.whenComplete(onCompletion);
+            hedge.whenComplete(onCompletion);
+            return result;
+        }
+
+        private <T> T await(CompletableFuture<T> result, long deadline) throws InterruptedException, ExecutionException, TimeoutException {
+            return result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        private Counter counter(String name, String... tags) {
+            return Counter.builder(name)
+                    .tag("client", client)
+                    .tags(tags)
+                    .register(meterRegistry);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E rethrow(Throwable cause) throws E, ChartDataException {
+        if (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+        if (cause instanceof ChartDataException) throw (ChartDataException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw (E) cause;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.WellLayout;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the {@link WellLayout} of each plate, so all charts on a plate share one well lookup and one encoding of its wells.
+ * Well types, substances and statuses can still be edited on a plate, so entries expire after a while.
+ */
+@Slf4j
+@Component
+public class WellLayoutCache {
+
+    private final Cache<Long, WellLayout> cache;
+    private final UpstreamClient upstreamClient;
+
+    public WellLayoutCache(UpstreamClient upstreamClient, MeterRegistry meterRegistry,
+                           @Value("${phaedra2.charting.cache.well-layouts.max-size:5000}") long maxSize,
+                           @Value("${phaedra2.charting.cache.well-layouts.expire-after-write:PT5M}") Duration expireAfterWrite) {
+        this.upstreamClient = upstreamClient;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chart.well-layouts");
+    }
+
+    /**
+     * Returns the layout of the wells of the plate, in the order in which the plate service returns them.
+     */
+    public WellLayout get(Long plateId) throws ChartDataException {
+        WellLayout layout = cache.getIfPresent(plateId);
+        ExecutionProfile profile = ExecutionProfile.current();
+        if (profile != null) profile.recordCacheAccess("chart.well-layouts", layout != null);
+        if (layout == null) {
+            layout = WellLayout.of(upstreamClient.getWells(plateId));
+            cache.put(plateId, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Reloads the most frequently used layouts that would expire within the given window, so a layout that is in use
+     * does not expire and get loaded again on a request. Returns the number of layouts that were reloaded.
+     * The wells are loaded with the security context of the calling thread, see {@link ServiceAccount}.
+     */
+    public int refreshAhead(Duration window, int maxEntries) {
+        Policy.FixedExpiration<Long, WellLayout> expiration = cache.policy().expireAfterWrite().orElseThrow();
+        long refreshAfterMillis = expiration.getExpiresAfter(TimeUnit.MILLISECONDS) - window.toMillis();
+        Map<Long, WellLayout> hottest = cache.policy().eviction().map(eviction -> eviction.hottest(maxEntries)).orElse(Map.of());
+        int refreshed = 0;
+        for (Long plateId : hottest.keySet()) {
+            OptionalLong age = expiration.ageOf(plateId, TimeUnit.MILLISECONDS);
+            if (age.isEmpty() || age.getAsLong() < refreshAfterMillis) continue;
+            try {
+                cache.put(plateId, WellLayout.of(upstreamClient.getWells(plateId)));
+                refreshed++;
+            } catch (ChartDataException | RuntimeException e) {
+                // The entry is left to expire, and is loaded again on the next request
+                log.debug("Could not refresh the well layout of plate {}: {}", plateId, e.getMessage());
+            }
+        }
+        return refreshed;
+    }
+
+    /**
+     * Removes expired entries now, instead of as a side effect of later accesses.
+     */
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartFilterException;
+import eu.openanalytics.phaedra.chartingservice.service.ChartDataService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class ChartExceptionHandlerTest {
+
+    @Test
+    public void invalidFilterIsBadRequest() throws Exception {
+        ChartDataService chartDataService = mock(ChartDataService.class);
+        doThrow(new ChartFilterException("Invalid filter 'row =' at position 5: Expected a value but got ''"))
+                .when(chartDataService).renderChartDataByPlateIds(List.of(1L), "scatter", "row =");
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new ChartDataController(chartDataService, new ObjectMapper(), new ChartResponseEncoder(new Jackson2ObjectMapperBuilder())))
+                .setControllerAdvice(new ChartExceptionHandler())
+                .build();
+
+        mockMvc.perform(get("/chartdata/scatter").param("plateIds", "1").param("filter", "row ="))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Invalid filter 'row =' at position 5: Expected a value but got ''"));
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.Chart;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates.PROTOCOL_ID;
+
+/**
+ * Time to render each plot type of the GraphQL API for one plate, including the serialization for the chart result cache,
+ * with upstream services mocked by {@link SyntheticPlates}: well layouts are cached, feature values are not.
+ * Run with {@code -Dbenchmark=ChartGraphQLControllerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChartGraphQLControllerBenchmark {
+
+    private static final long PLATE_ID = 1L;
+    private static final long X_FEATURE_ID = 1L;
+    private static final long Y_FEATURE_ID = 2L;
+
+    @Param({"384", "1536"})
+    public int wells;
+
+    @Param({"200"})
+    public int features;
+
+    private ChartGraphQLController chartGraphQLController;
+
+    @Setup
+    public void setup() throws Exception {
+        chartGraphQLController = new ChartGraphQLController(new SyntheticPlates(wells, features).createChartService());
+    }
+
+    @Benchmark
+    public Chart scatterPlot() throws ChartDataException {
+        return chartGraphQLController.scatterPlot(PLATE_ID, PROTOCOL_ID, X_FEATURE_ID, Y_FEATURE_ID, "welltype", null);
+    }
+
+    @Benchmark
+    public Chart histogramPlot() throws ChartDataException {
+        return chartGraphQLController.histogramPlot(PLATE_ID, PROTOCOL_ID, X_FEATURE_ID, "welltype", null);
+    }
+
+    @Benchmark
+    public Chart barPlot() throws ChartDataException {
+        return chartGraphQLController.barPlot(PLATE_ID, PROTOCOL_ID, X_FEATURE_ID, null, null);
+    }
+
+    @Benchmark
+    public Chart boxPlot() throws ChartDataException {
+        return chartGraphQLController.boxPlot(PLATE_ID, PROTOCOL_ID, X_FEATURE_ID, null);
+    }
+
+    @Benchmark
+    public Chart boxPlotWithGrouping() throws ChartDataException {
+        return chartGraphQLController.boxPlotWithGrouping(PLATE_ID, PROTOCOL_ID, X_FEATURE_ID, "welltype", null);
+    }
+
+    @Benchmark
+    public Chart scatterPlotFiltered() throws ChartDataException {
+        return chartGraphQLController.scatterPlot(PLATE_ID, PROTOCOL_ID, X_FEATURE_ID, Y_FEATURE_ID, "welltype", "wellType = 'SAMPLE'");
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import eu.openanalytics.phaedra.chartingservice.model.Chart;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+
+import static eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates.PROTOCOL_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChartResponseEncoderTest {
+
+    private final ChartResponseEncoder encoder = new ChartResponseEncoder(new Jackson2ObjectMapperBuilder());
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private RenderedResult<Chart> chart;
+
+    @BeforeEach
+    public void before() throws Exception {
+        chart = new SyntheticPlates(96, 2).createChartService().renderChart(
+                ChartSpec.of("scatter", List.of(1L), PROTOCOL_ID, List.of(1L, 2L), "welltype"));
+    }
+
+    @Test
+    public void negotiatesJsonByDefault() {
+        assertThat(encoder.negotiate(null)).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(encoder.negotiate("*/*")).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(encoder.negotiate("application/json, application/cbor;q=0.5")).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(encoder.negotiate("text/html")).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(encoder.negotiate("not a media type")).isEqualTo(MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    public void negotiatesPreferredBinaryEncoding() {
+        assertThat(encoder.negotiate("application/cbor")).isEqualTo(ChartResponseEncoder.APPLICATION_CBOR);
+        assertThat(encoder.negotiate("application/json;q=0.5, application/x-jackson-smile")).isEqualTo(ChartResponseEncoder.APPLICATION_SMILE);
+        assertThat(encoder.negotiate("application/cbor;q=0, application/json")).isEqualTo(MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    public void servesCachedJson() throws Exception {
+        ResponseEntity<byte[]> response = encoder.render("application/json", chart);
+
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT);
+        assertThat(response.getBody()).isSameAs(chart.getJson());
+    }
+
+    @Test
+    public void encodesSameChartInBinaryEncodings() throws Exception {
+        ResponseEntity<byte[]> cbor = encoder.render("application/cbor", chart);
+        ResponseEntity<byte[]> smile = encoder.render("application/x-jackson-smile", chart);
+
+        // Compared as JSON text, as the binary encodings keep floats as floats where JSON parsing yields doubles
+        String json = objectMapper.writeValueAsString(objectMapper.readTree(chart.getJson()));
+        assertThat(cbor.getHeaders().getContentType()).isEqualTo(ChartResponseEncoder.APPLICATION_CBOR);
+        assertThat(objectMapper.writeValueAsString(new CBORMapper().readTree(cbor.getBody()))).isEqualTo(json);
+        assertThat(smile.getHeaders().getContentType()).isEqualTo(ChartResponseEncoder.APPLICATION_SMILE);
+        assertThat(objectMapper.writeValueAsString(new SmileMapper().readTree(smile.getBody()))).isEqualTo(json);
+    }
+
+    @Test
+    public void encodesWithApplicationJacksonConfiguration() throws Exception {
+        ChartResponseEncoder encoder = new ChartResponseEncoder(new Jackson2ObjectMapperBuilder().serializationInclusion(JsonInclude.Include.NON_NULL));
+        Title title = new Title();
+
+        ResponseEntity<byte[]> cbor = encoder.render("application/cbor", title, () -> new byte[0]);
+        ResponseEntity<byte[]> smile = encoder.render("application/x-jackson-smile", title, () -> new byte[0]);
+
+        assertThat(objectMapper.writeValueAsString(new CBORMapper().readTree(cbor.getBody()))).isEqualTo("{\"text\":\"Nuclei Count\"}");
+        assertThat(objectMapper.writeValueAsString(new SmileMapper().readTree(smile.getBody()))).isEqualTo("{\"text\":\"Nuclei Count\"}");
+    }
+
+    public static class Title {
+        public String text = "Nuclei Count";
+        public String subtitle;
+    }
+}
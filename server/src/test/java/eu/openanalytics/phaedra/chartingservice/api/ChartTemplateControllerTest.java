@@ -20,6 +20,7 @@
  */
 package eu.openanalytics.phaedra.chartingservice.api;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
 import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
@@ -39,10 +40,13 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @Testcontainers
@@ -172,4 +176,70 @@ public class ChartTemplateControllerTest {
         List<ChartTemplateDTO> chartTemplateDTOResult = objectMapper.readValue(result.getResponse().getContentAsString(), List.class);
         assertThat(chartTemplateDTOResult).hasSize(2);
     }
+
+    @Test
+    public void chartTemplateGetPageTest() throws Exception {
+        //First page
+        MvcResult result = this.mockMvc.perform(get("/chart-template").param("limit", "1"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-After-Id", "1000"))
+                .andReturn();
+        List<ChartTemplateDTO> page = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<ChartTemplateDTO>>() {});
+        assertThat(page).extracting(ChartTemplateDTO::getId).containsExactly(1000L);
+        assertThat(page.get(0).getAxisSettings()).hasSize(2);
+        //Last page, as a summary without settings
+        result = this.mockMvc.perform(get("/chart-template").param("afterId", "1000").param("limit", "1").param("projection", "summary"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andReturn();
+        page = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<ChartTemplateDTO>>() {});
+        assertThat(page).extracting(ChartTemplateDTO::getId).containsExactly(2000L);
+        assertThat(page.get(0).getAxisSettings()).isNull();
+        //Filtered
+        result = this.mockMvc.perform(get("/chart-template").param("type", "scatter"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-After-Id"))
+                .andReturn();
+        page = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<ChartTemplateDTO>>() {});
+        assertThat(page).isEmpty();
+        //Invalid page size
+        this.mockMvc.perform(get("/chart-template").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void chartTemplateExportImportTest() throws Exception {
+        //Export
+        MvcResult result = this.mockMvc.perform(get("/chart-template/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String export = this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertThat(export.lines()).hasSize(2);
+        //Import the export again, as new chart templates
+        result = this.mockMvc.perform(post("/chart-template/import")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .content(export))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andReturn();
+        Map<String, Object> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<Map<String, Object>>() {});
+        assertThat(response.get("imported")).isEqualTo(2);
+        result = this.mockMvc.perform(get("/chart-template").param("afterId", "2000"))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<ChartTemplateDTO> imported = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<ChartTemplateDTO>>() {});
+        assertThat(imported).hasSize(2);
+        assertThat(imported.get(0).getFilter()).isEqualTo("plateId = 2000");
+        assertThat(imported.get(0).getAxisSettings()).extracting(SettingDTO::getValue).containsExactlyInAnyOrder("10", "20");
+        assertThat(imported.get(0).getChartSettings()).extracting(SettingDTO::getValue).containsExactlyInAnyOrder("30", "40");
+        //Invalid lines are reported
+        this.mockMvc.perform(post("/chart-template/import")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .content("{not json"))
+                .andExpect(status().isBadRequest());
+    }
 }
@@ -0,0 +1,152 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.api;
+
+import com.sun.net.httpserver.HttpServer;
+import eu.openanalytics.phaedra.chartingservice.service.PlateAffinityRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * The instance owning plate 1 is an in-process HTTP server standing in for a peer instance.
+ */
+public class PlateAffinityFilterTest {
+
+    private static final byte[] PEER_RESPONSE = "{\"peer\":true}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer peer;
+    private Map<String, String> peerRequest;
+    private PlateAffinityRouter router;
+    private PlateAffinityFilter filter;
+
+    @BeforeEach
+    public void before() throws Exception {
+        peerRequest = new ConcurrentHashMap<>();
+        peer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        peer.createContext("/", exchange -> {
+            peerRequest.put("uri", exchange.getRequestURI().toString());
+            peerRequest.put("forwardedBy", String.valueOf(exchange.getRequestHeaders().getFirst(PlateAffinityFilter.FORWARDED_BY_HEADER)));
+            peerRequest.put("authorization", String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, PEER_RESPONSE.length);
+            exchange.getResponseBody().write(PEER_RESPONSE);
+            exchange.close();
+        });
+        peer.start();
+
+        router = mock(PlateAffinityRouter.class);
+        doReturn("10.0.0.1:8080").when(router).getLocalInstanceId();
+        doReturn(new DefaultServiceInstance("peer", "phaedra-charting-service", "127.0.0.1", peer.getAddress().getPort(), false))
+                .when(router).getOwner(1L);
+        filter = new PlateAffinityFilter(router, new SimpleMeterRegistry(), Duration.ofSeconds(1), Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    public void after() {
+        peer.stop(0);
+    }
+
+    @Test
+    public void forwardsRequestToOwnerOfLowestPlate() throws Exception {
+        MockHttpServletRequest request = request("/chartdata/scatter", "plateIds=3,1&format=columnar");
+        request.addHeader("Authorization", "Bearer token");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, response, chain);
+
+        assertThat(chain.getRequest()).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(PEER_RESPONSE);
+        assertThat(response.getContentType()).isEqualTo("application/json");
+        assertThat(peerRequest).containsEntry("uri", "/phaedra/charting-service/chartdata/scatter?plateIds=3,1&format=columnar")
+                .containsEntry("forwardedBy", "10.0.0.1:8080")
+                .containsEntry("authorization", "Bearer token");
+    }
+
+    @Test
+    public void handlesRequestOfOwnPlatesLocally() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("/dashboard", "templateIds=1&plateIds=2"), new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isNotNull();
+        assertThat(peerRequest).isEmpty();
+    }
+
+    @Test
+    public void handlesForwardedRequestLocally() throws Exception {
+        MockHttpServletRequest request = request("/chart-template/5/chart", "plateIds=1");
+        request.addHeader(PlateAffinityFilter.FORWARDED_BY_HEADER, "10.0.0.2:8080");
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isNotNull();
+        assertThat(peerRequest).isEmpty();
+    }
+
+    @Test
+    public void handlesOtherEndpointsLocally() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("/chart-template", "plateIds=1"), new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isNotNull();
+        assertThat(peerRequest).isEmpty();
+    }
+
+    @Test
+    public void handlesRequestLocallyWhenOwnerIsUnreachable() throws Exception {
+        peer.stop(0);
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("/chartdata/scatter", "plateIds=1"), new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isNotNull();
+    }
+
+    private static MockHttpServletRequest request(String path, String query) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/phaedra/charting-service" + path);
+        request.setContextPath("/phaedra/charting-service");
+        request.setQueryString(query);
+        for (String parameter : query.split("&")) {
+            String[] nameAndValue = parameter.split("=");
+            request.addParameter(nameAndValue[0], nameAndValue[1]);
+        }
+        return request;
+    }
+}
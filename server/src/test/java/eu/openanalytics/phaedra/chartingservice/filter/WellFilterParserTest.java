@@ -0,0 +1,131 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.filter;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartFilterException;
+import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
+import eu.openanalytics.phaedra.plateservice.dto.WellSubstanceDTO;
+import eu.openanalytics.phaedra.plateservice.enumeration.WellStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WellFilterParserTest {
+
+    private WellColumns wellColumns;
+
+    @BeforeEach
+    public void before() {
+        WellSubstanceDTO dmso = new WellSubstanceDTO();
+        dmso.setName("DMSO");
+        WellSubstanceDTO compound = new WellSubstanceDTO();
+        compound.setName("CMP-1");
+
+        List<WellDTO> wells = new ArrayList<>();
+        wells.add(WellDTO.builder().id(1L).plateId(1L).row(1).column(1).wellType("LC").status(WellStatus.ACCEPTED).wellSubstance(dmso).build());
+        wells.add(WellDTO.builder().id(2L).plateId(1L).row(1).column(2).wellType("SAMPLE").status(WellStatus.ACCEPTED).wellSubstance(compound).build());
+        wells.add(WellDTO.builder().id(3L).plateId(1L).row(2).column(1).wellType("SAMPLE").status(WellStatus.ACCEPTED).build());
+        wells.add(WellDTO.builder().id(4L).plateId(1L).row(2).column(2).wellType("HC").status(WellStatus.ACCEPTED).wellSubstance(dmso).build());
+
+        Map<String, float[]> features = Map.of(
+                "Count", new float[]{10f, 20f, 30f, Float.NaN},
+                "Nuclei Count", new float[]{1f, 2f, 3f, 4f});
+        wellColumns = WellColumns.of(wells, features::get);
+    }
+
+    @Test
+    public void emptyExpressionHasNoFilter() throws Exception {
+        assertThat(WellFilterParser.parse(null)).isNull();
+        assertThat(WellFilterParser.parse("  ")).isNull();
+    }
+
+    @Test
+    public void categoricalComparisonsAreCaseInsensitive() throws Exception {
+        assertThat(select("wellType = 'sample'")).containsExactly(1, 2);
+        assertThat(select("welltype != SAMPLE")).containsExactly(0, 3);
+        assertThat(select("status = accepted")).containsExactly(0, 1, 2, 3);
+        assertThat(select("substance in ('dmso', 'other')")).containsExactly(0, 3);
+    }
+
+    @Test
+    public void missingSubstanceNeverMatches() throws Exception {
+        assertThat(select("substance = 'CMP-1' or substance = 'DMSO'")).containsExactly(0, 1, 3);
+        assertThat(select("not (substance = 'DMSO')")).containsExactly(1, 2);
+    }
+
+    @Test
+    public void numericComparisons() throws Exception {
+        assertThat(select("row = B")).containsExactly(2, 3);
+        assertThat(select("row between A and B and column >= 2")).containsExactly(1, 3);
+        assertThat(select("wellId not in (1, 4)")).containsExactly(1, 2);
+        assertThat(select("plateId <> 1")).isEmpty();
+    }
+
+    @Test
+    public void featureComparisonsSkipMissingValues() throws Exception {
+        assertThat(select("Count > 15")).containsExactly(1, 2);
+        assertThat(select("Count <= 100")).containsExactly(0, 1, 2);
+        assertThat(select("\"Nuclei Count\" >= 2 and wellType = 'SAMPLE'")).containsExactly(1, 2);
+    }
+
+    @Test
+    public void negatedFeatureComparisonsSkipMissingValues() throws Exception {
+        assertThat(select("not Count > 15")).containsExactly(0);
+        assertThat(select("Count != 20")).containsExactly(0, 2);
+        assertThat(select("not (Count > 15 and wellType = 'HC')")).containsExactly(0, 1, 2);
+        assertThat(select("not (Count > 15 or wellType = 'HC')")).containsExactly(0);
+        assertThat(select("Count > 15 or wellType = 'HC'")).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    public void andBindsStrongerThanOr() throws Exception {
+        assertThat(select("wellType = 'LC' or wellType = 'HC' and column = 1")).containsExactly(0);
+        assertThat(select("(wellType = 'LC' or wellType = 'HC') and column = 2")).containsExactly(3);
+    }
+
+    @Test
+    public void invalidExpressionsAreRejected() {
+        assertThatThrownBy(() -> WellFilterParser.parse("row = ")).isInstanceOf(ChartFilterException.class);
+        assertThatThrownBy(() -> WellFilterParser.parse("row = 1 and")).isInstanceOf(ChartFilterException.class);
+        assertThatThrownBy(() -> WellFilterParser.parse("(row = 1")).isInstanceOf(ChartFilterException.class);
+        assertThatThrownBy(() -> WellFilterParser.parse("wellType > 'SAMPLE'")).isInstanceOf(ChartFilterException.class);
+    }
+
+    @Test
+    public void unknownFeatureIsRejectedOnEvaluation() throws Exception {
+        WellFilter filter = WellFilterParser.parse("Area > 5");
+        assertThatThrownBy(() -> filter.select(wellColumns)).isInstanceOf(ChartFilterException.class);
+    }
+
+    private List<Integer> select(String expression) throws Exception {
+        BitSet selection = WellFilterParser.parse(expression).select(wellColumns);
+        List<Integer> indices = new ArrayList<>();
+        selection.stream().forEach(indices::add);
+        return indices;
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.support.Containers;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import eu.openanalytics.phaedra.plateservice.client.PlateServiceClient;
+import eu.openanalytics.phaedra.protocolservice.client.ProtocolServiceClient;
+import eu.openanalytics.phaedra.resultdataservice.client.ResultDataServiceClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * End-to-end load test of the charting service against in-process stand-ins for the plate, protocol and result data services
+ * (see {@link SyntheticPlates}). A number of simulated users send a mix of dashboard, GraphQL plot and chart data requests for a while,
+ * after which the throughput, latency percentiles and heap usage are reported per request type.
+ * <p>
+ * Run with {@code -Dloadtest=true}. The traffic and the stand-ins are configured with system properties:
+ * <ul>
+ *     <li>{@code loadtest.users}: number of concurrent users (default 16)</li>
+ *     <li>{@code loadtest.duration}: duration of the test, after a warm-up of a tenth of it (default PT60S)</li>
+ *     <li>{@code loadtest.plates}: number of plates; popular plates are requested more often (default 50)</li>
+ *     <li>{@code loadtest.wells}: wells per plate (default 384)</li>
+ *     <li>{@code loadtest.features}: features per plate (default 200)</li>
+ *     <li>{@code loadtest.latency}: latency of every call to an upstream service (default PT0.02S)</li>
+ *     <li>{@code loadtest.recalculating}: whether every request sees a new result set, defeating the chart result cache (default false)</li>
+ * </ul>
+ */
+@Testcontainers
+@SpringBootTest
+@AutoConfigureMockMvc(addFilters = false)
+@TestPropertySource(locations = "classpath:application-test.properties")
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+public class DashboardLoadTest {
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 16);
+    private static final Duration DURATION = Duration.parse(System.getProperty("loadtest.duration", "PT60S"));
+    private static final int PLATES = Integer.getInteger("loadtest.plates", 50);
+    private static final int WELLS = Integer.getInteger("loadtest.wells", 384);
+    private static final int FEATURES = Integer.getInteger("loadtest.features", 200);
+    private static final Duration LATENCY = Duration.parse(System.getProperty("loadtest.latency", "PT0.02S"));
+    private static final boolean RECALCULATING = Boolean.getBoolean("loadtest.recalculating");
+
+    private static final String[] PLOT_QUERIES = {
+            "{ scatterPlot(plateId: %d, protocolId: 1, xFeatureId: 1, yFeatureId: 2, groupBy: \"welltype\") { data { xValue yValue name } } }",
+            "{ histogramPlot(plateId: %d, protocolId: 1, featureId: 3, groupBy: \"welltype\") { data { xValue name } } }",
+            "{ barPlot(plateId: %d, protocolId: 1, featureId: 4) { data { xValue yValue } } }",
+            "{ boxPlotWithGrouping(plateId: %d, protocolId: 1, featureId: 5, groupBy: \"welltype\") { data { yValue name } } }"
+    };
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private volatile boolean recording;
+
+    @DynamicPropertySource
+    static void registerPgProperties(DynamicPropertyRegistry registry) {
+        registry.add("DB_URL", Containers.postgreSQLContainer::getJdbcUrl);
+        registry.add("DB_USER", Containers.postgreSQLContainer::getUsername);
+        registry.add("DB_PASSWORD", Containers.postgreSQLContainer::getPassword);
+    }
+
+    @TestConfiguration
+    static class UpstreamStandIns {
+
+        private final SyntheticPlates syntheticPlates;
+
+        UpstreamStandIns() throws Exception {
+            syntheticPlates = new SyntheticPlates(WELLS, FEATURES).latency(LATENCY);
+            if (!RECALCULATING) syntheticPlates.stableResultSets();
+        }
+
+        @Bean
+        @Primary
+        public PlateServiceClient plateServiceClientStandIn() {
+            return syntheticPlates.getPlateServiceClient();
+        }
+
+        @Bean
+        @Primary
+        public ProtocolServiceClient protocolServiceClientStandIn() {
+            return syntheticPlates.getProtocolServiceClient();
+        }
+
+        @Bean
+        @Primary
+        public ResultDataServiceClient resultDataServiceClientStandIn() {
+            return syntheticPlates.getResultDataServiceClient();
+        }
+    }
+
+    @Test
+    public void dashboardTraffic() throws Exception {
+        String templateIds = LongStream.of(
+                createTemplate("scatter", "Feature 1", "Feature 2", "welltype"),
+                createTemplate("histogram", "Feature 3", null, "welltype"),
+                createTemplate("bar", "column", "Feature 4", null),
+                createTemplate("box", null, "Feature 5", "welltype"))
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(","));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong maxHeapUsed = new AtomicLong();
+        ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor();
+        heapSampler.scheduleAtFixedRate(() -> {
+            if (recording) maxHeapUsed.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }, 0, 100, TimeUnit.MILLISECONDS);
+
+        ExecutorService users = Executors.newFixedThreadPool(USERS);
+        long warmUpEnd = System.nanoTime() + DURATION.toNanos() / 10;
+        long end = warmUpEnd + DURATION.toNanos();
+        List<Future<?>> sessions = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            sessions.add(users.submit(() -> {
+                while (System.nanoTime() < end) {
+                    sendRequest(templateIds);
+                }
+                return null;
+            }));
+        }
+
+        while (System.nanoTime() < warmUpEnd) Thread.sleep(10);
+        long gcCount = getGcCount();
+        long gcTime = getGcTime();
+        recording = true;
+        long start = System.nanoTime();
+        for (Future<?> session : sessions) {
+            session.get();
+        }
+        recording = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        users.shutdown();
+        heapSampler.shutdown();
+
+        System.out.printf("%d users, %d plates of %d wells with %d features, upstream latency %d ms%s%n", USERS, PLATES, WELLS, FEATURES,
+                LATENCY.toMillis(), RECALCULATING ? ", recalculating" : "");
+        System.out.printf("%-16s %10s %8s %10s %10s %10s %10s %10s%n", "request", "count", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        List<Long> all = new ArrayList<>();
+        latencies.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
+            all.addAll(entry.getValue());
+            report(entry.getKey(), entry.getValue(), errors.getOrDefault(entry.getKey(), new AtomicLong()).get(), seconds);
+        });
+        report("total", all, errors.values().stream().mapToLong(AtomicLong::get).sum(), seconds);
+        System.out.printf("max heap used %d MB, %d collections taking %d ms%n", maxHeapUsed.get() / (1024 * 1024),
+                getGcCount() - gcCount, getGcTime() - gcTime);
+
+        assertThat(all).isNotEmpty();
+        assertThat(errors.values()).allMatch(count -> count.get() == 0);
+    }
+
+    private long createTemplate(String type, String axisX, String axisY, String groupBy) throws Exception {
+        ChartTemplateDTO chartTemplate = ChartTemplateDTO.builder().Type(type).axisX(axisX).axisY(axisY).groupBy(groupBy).build();
+        MvcResult result = mockMvc.perform(post("/chart-template")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(chartTemplate)))
+                .andReturn();
+        return objectMapper.readValue(result.getResponse().getContentAsString(), ChartTemplateDTO.class).getId();
+    }
+
+    /**
+     * Sends one request of the traffic mix: 40% dashboards (a quarter of them over three plates), 40% GraphQL plots and 20% chart data.
+     */
+    private void sendRequest(String templateIds) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long plateId = getPlateId(random);
+        double kind = random.nextDouble();
+        if (kind < 0.3) {
+            send("dashboard", get("/dashboard").param("templateIds", templateIds).param("plateIds", String.valueOf(plateId)));
+        } else if (kind < 0.4) {
+            String plateIds = LongStream.range(plateId, plateId + 3).map(id -> (id - 1) % PLATES + 1)
+                    .mapToObj(String::valueOf).collect(Collectors.joining(","));
+            send("dashboard-3", get("/dashboard").param("templateIds", templateIds).param("plateIds", plateIds));
+        } else if (kind < 0.8) {
+            String query = String.format(PLOT_QUERIES[random.nextInt(PLOT_QUERIES.length)], plateId);
+            send("graphql", post("/graphql")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(Map.of("query", query))));
+        } else if (kind < 0.9) {
+            send("chartdata", get("/chartdata/scatter").param("plateIds", String.valueOf(plateId)));
+        } else {
+            send("chartdata-col", get("/chartdata/scatter").param("plateIds", String.valueOf(plateId)).param("format", "columnar"));
+        }
+    }
+
+    private void send(String type, RequestBuilder request) throws Exception {
+        long start = System.nanoTime();
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        long nanos = System.nanoTime() - start;
+        if (!recording) return;
+        latencies.computeIfAbsent(type, key -> Collections.synchronizedList(new ArrayList<>())).add(nanos);
+        if (result.getResponse().getStatus() != 200) {
+            errors.computeIfAbsent(type, key -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a plate id between 1 and the number of plates, where low ids (recent plates) are more popular.
+     */
+    private static long getPlateId(ThreadLocalRandom random) {
+        double r = random.nextDouble();
+        return (long) (PLATES * r * r) + 1;
+    }
+
+    private static void report(String type, List<Long> nanos, long errorCount, double seconds) {
+        long[] sorted;
+        synchronized (nanos) {
+            sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        if (sorted.length == 0) return;
+        System.out.printf("%-16s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", type, sorted.length, errorCount, sorted.length / seconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.ceil(percentile * sorted.length) - 1] / 1e6;
+    }
+
+    private static long getGcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long getGcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+}
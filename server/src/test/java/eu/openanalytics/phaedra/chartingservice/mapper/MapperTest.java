@@ -0,0 +1,63 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.mapper;
+
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
+import eu.openanalytics.phaedra.chartingservice.enumeration.SettingType;
+import eu.openanalytics.phaedra.chartingservice.model.ChartTemplate;
+import eu.openanalytics.phaedra.chartingservice.model.Setting;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MapperTest {
+
+    @Test
+    public void settingRoundTrip() {
+        SettingDTO settingDTO = new SettingDTO(1L, 2L, SettingType.AXIS, "name", "value");
+
+        Setting setting = SettingMapper.toSetting(settingDTO);
+        assertThat(setting.getId()).isEqualTo(1L);
+        assertThat(setting.getChartTemplateId()).isEqualTo(2L);
+        assertThat(setting.getSettingType()).isEqualTo(SettingType.AXIS);
+        assertThat(setting.getName()).isEqualTo("name");
+        assertThat(setting.getValue()).isEqualTo("value");
+
+        assertThat(SettingMapper.toSettingDTO(setting)).isEqualTo(settingDTO);
+    }
+
+    @Test
+    public void chartTemplateRoundTrip() {
+        ChartTemplateDTO chartTemplateDTO = ChartTemplateDTO.builder()
+                .id(1L).Type("scatter").axisX("x").axisY("y").groupBy("welltype").filter("x > 1").build();
+
+        ChartTemplate chartTemplate = ChartTemplateMapper.toChartTemplate(chartTemplateDTO);
+        assertThat(chartTemplate.getId()).isEqualTo(1L);
+        assertThat(chartTemplate.getType()).isEqualTo("scatter");
+        assertThat(chartTemplate.getAxisX()).isEqualTo("x");
+        assertThat(chartTemplate.getAxisY()).isEqualTo("y");
+        assertThat(chartTemplate.getGroupBy()).isEqualTo("welltype");
+        assertThat(chartTemplate.getFilter()).isEqualTo("x > 1");
+
+        assertThat(ChartTemplateMapper.toChartTemplateDTO(chartTemplate)).isEqualTo(chartTemplateDTO);
+    }
+}
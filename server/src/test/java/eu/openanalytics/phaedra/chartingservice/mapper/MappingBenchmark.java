@@ -0,0 +1,123 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.mapper;
+
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
+import eu.openanalytics.phaedra.chartingservice.enumeration.SettingType;
+import eu.openanalytics.phaedra.chartingservice.model.ChartTemplate;
+import eu.openanalytics.phaedra.chartingservice.model.Setting;
+import org.modelmapper.Conditions;
+import org.modelmapper.ModelMapper;
+import org.modelmapper.config.Configuration;
+import org.modelmapper.convention.NameTransformers;
+import org.modelmapper.convention.NamingConventions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of mapping a list of chart templates with their settings to DTOs, as done when listing chart templates:
+ * the previous ModelMapper configuration against the hand-written mappers. Run with {@code -Dbenchmark=MappingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+
+    private static final int SETTINGS_PER_TEMPLATE = 20;
+
+    @Param({"100", "10000"})
+    public int templates;
+
+    private List<ChartTemplate> chartTemplates;
+    private List<Setting> settings;
+    private ModelMapper modelMapper;
+
+    @Setup
+    public void setup() {
+        chartTemplates = new ArrayList<>();
+        settings = new ArrayList<>();
+        for (long id = 1; id <= templates; id++) {
+            ChartTemplate chartTemplate = new ChartTemplate();
+            chartTemplate.setId(id);
+            chartTemplate.setType("scatter");
+            chartTemplate.setAxisX("x");
+            chartTemplate.setAxisY("y");
+            chartTemplate.setGroupBy("welltype");
+            chartTemplates.add(chartTemplate);
+            for (int i = 0; i < SETTINGS_PER_TEMPLATE; i++) {
+                Setting setting = new Setting();
+                setting.setId(id * SETTINGS_PER_TEMPLATE + i);
+                setting.setChartTemplateId(id);
+                setting.setSettingType(i % 2 == 0 ? SettingType.AXIS : SettingType.CHART);
+                setting.setName("setting" + i);
+                setting.setValue("value" + i);
+                settings.add(setting);
+            }
+        }
+
+        //The configuration the services used before the hand-written mappers
+        modelMapper = new ModelMapper();
+        Configuration builderConfiguration = modelMapper.getConfiguration().copy()
+                .setDestinationNameTransformer(NameTransformers.builder())
+                .setDestinationNamingConvention(NamingConventions.builder());
+        modelMapper.createTypeMap(Setting.class, SettingDTO.SettingDTOBuilder.class, builderConfiguration)
+                .setPropertyCondition(Conditions.isNotNull());
+    }
+
+    @Benchmark
+    public List<Object> modelMapper() {
+        List<Object> result = new ArrayList<>(chartTemplates.size() + settings.size());
+        for (ChartTemplate chartTemplate : chartTemplates) {
+            result.add(modelMapper.map(chartTemplate, ChartTemplateDTO.class));
+        }
+        for (Setting setting : settings) {
+            result.add(modelMapper.map(setting, SettingDTO.SettingDTOBuilder.class).build());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Object> handWritten() {
+        List<Object> result = new ArrayList<>(chartTemplates.size() + settings.size());
+        for (ChartTemplate chartTemplate : chartTemplates) {
+            result.add(ChartTemplateMapper.toChartTemplateDTO(chartTemplate));
+        }
+        result.addAll(SettingMapper.toSettingDTOs(settings));
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates.PROTOCOL_ID;
+
+/**
+ * CPU time to encode a chart response in each of the encodings the service can negotiate, as served:
+ * JSON comes from the chart result cache as is, CBOR and Smile are encoded from the chart value, and gzip is applied by the server
+ * on top of any of them (at the default level, as Tomcat does). The encoded size of each combination is printed once per trial,
+ * so the time spent can be weighed against the bytes saved. Run with {@code -Dbenchmark=ChartEncodingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChartEncodingBenchmark {
+
+    @Param({"384", "1536"})
+    public int wells;
+
+    @Param({"chart", "chartDataRows", "chartDataColumns"})
+    public String payload;
+
+    @Param({"json", "json+gzip", "cbor", "cbor+gzip", "smile", "smile+gzip"})
+    public String encoding;
+
+    private Object value;
+    private byte[] json;
+    private ObjectMapper binaryMapper;
+    private boolean gzip;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticPlates plates = new SyntheticPlates(wells, 200);
+        switch (payload) {
+            case "chart":
+                value = plates.createChartService().scatterPlot(1L, PROTOCOL_ID, 1L, 2L, "welltype", null);
+                break;
+            case "chartDataRows":
+                value = plates.createChartDataService().renderChartDataByPlateIds(List.of(1L), "scatter", null).getValue();
+                break;
+            default:
+                value = plates.createChartDataService().renderChartDataColumnsByPlateIds(List.of(1L), "scatter", null).getValue();
+        }
+        json = new ObjectMapper().writeValueAsBytes(value);
+        String format = encoding.replace("+gzip", "");
+        binaryMapper = format.equals("cbor") ? new CBORMapper() : format.equals("smile") ? new SmileMapper() : null;
+        gzip = encoding.endsWith("+gzip");
+
+        System.out.printf("%n%s with %d wells as %s: %d bytes (JSON: %d bytes)%n", payload, wells, encoding, encode().length, json.length);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        byte[] body = binaryMapper == null ? json : binaryMapper.writeValueAsBytes(value);
+        return gzip ? gzip(body) : body;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        }
+        return compressed.toByteArray();
+    }
+}
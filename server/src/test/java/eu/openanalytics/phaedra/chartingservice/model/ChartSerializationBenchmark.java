@@ -0,0 +1,115 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartDataColumnsDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartDataDTO;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates.PROTOCOL_ID;
+
+/**
+ * Time to serialize an assembled {@link Chart} (a scatter plot grouped by well type) as JSON, and as a GraphQL response using the service schema,
+ * and the chart data of a plate as JSON in the row and columnar formats. Run with {@code -Dbenchmark=ChartSerializationBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChartSerializationBenchmark {
+
+    private static final String SCATTER_PLOT_QUERY = "{ scatterPlot(plateId: 1, protocolId: 1, xFeatureId: 1, yFeatureId: 2, groupBy: \"welltype\") "
+            + "{ data { xValue yValue type name mode } layout { chartTitle xAxisLabel yAxisLabel } } }";
+
+    @Param({"384", "1536"})
+    public int wells;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Chart chart;
+    private List<ChartDataDTO> chartData;
+    private ChartDataColumnsDTO chartDataColumns;
+    private GraphQL graphQL;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticPlates plates = new SyntheticPlates(wells, 200);
+        chart = plates.createChartService().scatterPlot(1L, PROTOCOL_ID, 1L, 2L, "welltype", null);
+        chartData = plates.createChartDataService().renderChartDataByPlateIds(List.of(1L), "scatter", null).getValue();
+        chartDataColumns = plates.createChartDataService().renderChartDataColumnsByPlateIds(List.of(1L), "scatter", null).getValue();
+
+        TypeDefinitionRegistry typeDefinitions;
+        try (Reader schema = new InputStreamReader(getClass().getResourceAsStream("/graphql/schema.graphqls"), StandardCharsets.UTF_8)) {
+            typeDefinitions = new SchemaParser().parse(schema);
+        }
+        RuntimeWiring runtimeWiring = RuntimeWiring.newRuntimeWiring()
+                .type("Query", builder -> builder.dataFetcher("scatterPlot", environment -> chart))
+                .build();
+        graphQL = GraphQL.newGraphQL(new SchemaGenerator().makeExecutableSchema(typeDefinitions, runtimeWiring)).build();
+    }
+
+    @Benchmark
+    public byte[] chartJson() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(chart);
+    }
+
+    @Benchmark
+    public byte[] chartGraphQL() throws JsonProcessingException {
+        ExecutionResult result = graphQL.execute(SCATTER_PLOT_QUERY);
+        return objectMapper.writeValueAsBytes(result.toSpecification());
+    }
+
+    @Benchmark
+    public byte[] chartDataRowsJson() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(chartData);
+    }
+
+    @Benchmark
+    public byte[] chartDataColumnsJson() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(chartDataColumns);
+    }
+}
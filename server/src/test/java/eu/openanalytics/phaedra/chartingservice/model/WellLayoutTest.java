@@ -0,0 +1,111 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.model;
+
+import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
+import eu.openanalytics.phaedra.plateservice.dto.WellSubstanceDTO;
+import eu.openanalytics.phaedra.plateservice.enumeration.WellStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WellLayoutTest {
+
+    @Test
+    public void wellPropertiesAreDictionaryEncoded() {
+        WellLayout layout = WellLayout.of(List.of(
+                well(1L, 1L, 1, 1, "SAMPLE", "CMP-1"),
+                well(2L, 1L, 1, 2, "LC", null),
+                well(3L, 1L, 2, 1, "SAMPLE", "CMP-1")));
+
+        assertThat(layout.getSize()).isEqualTo(3);
+        assertThat(layout.getRows()).containsExactly(1, 1, 2);
+        assertThat(layout.getWellTypes().getDictionary()).containsExactly("SAMPLE", "LC");
+        assertThat(layout.getWellTypes().getCodes()).containsExactly(0, 1, 0);
+        assertThat(layout.getSubstances().get(1)).isNull();
+        assertThat(layout.getGroups("row").getDictionary()).containsExactly("1", "2");
+        assertThat(layout.getGroups("column").getCodes()).containsExactly(0, 1, 0);
+        assertThat(layout.getGroups("status").getDictionary()).containsExactly("ACCEPTED");
+        assertThat(layout.getGroups("All wells")).isNull();
+    }
+
+    @Test
+    public void layoutsOfPlatesAreConcatenated() {
+        WellLayout first = WellLayout.of(List.of(well(1L, 1L, 1, 1, "SAMPLE", null), well(2L, 1L, 1, 2, "LC", null)));
+        WellLayout second = WellLayout.of(List.of(well(3L, 2L, 1, 1, "HC", null), well(4L, 2L, 1, 2, "SAMPLE", null)));
+
+        WellLayout layout = WellLayout.concat(List.of(first, second));
+
+        assertThat(layout.getWellIds()).containsExactly(1L, 2L, 3L, 4L);
+        assertThat(layout.getPlateIds()).containsExactly(1L, 1L, 2L, 2L);
+        assertThat(layout.getWellTypes().getDictionary()).containsExactly("SAMPLE", "LC", "HC");
+        assertThat(layout.getWellTypes().getCodes()).containsExactly(0, 1, 2, 0);
+    }
+
+    @Test
+    public void layoutIsSortedByWellId() {
+        WellLayout layout = WellLayout.of(List.of(well(3L, 1L, 2, 1, "HC", null), well(1L, 1L, 1, 1, "SAMPLE", null), well(2L, 1L, 1, 2, "LC", null)));
+
+        WellLayout sorted = layout.sortedById();
+
+        assertThat(sorted.getWellIds()).containsExactly(1L, 2L, 3L);
+        assertThat(sorted.getRows()).containsExactly(1, 1, 2);
+        assertThat(sorted.getWellTypes().get(0)).isEqualTo("SAMPLE");
+        assertThat(sorted.getWellTypes().get(2)).isEqualTo("HC");
+        assertThat(sorted.getGroups("row").get(2)).isEqualTo("2");
+        assertThat(sorted.sortedById()).isSameAs(sorted);
+    }
+
+    @Test
+    public void selectionCompactsDictionaries() {
+        WellLayout layout = WellLayout.of(List.of(
+                well(1L, 1L, 1, 1, "LC", "DMSO"),
+                well(2L, 1L, 1, 2, "SAMPLE", "CMP-1"),
+                well(3L, 1L, 2, 1, "SAMPLE", "CMP-2"),
+                well(4L, 1L, 2, 2, "HC", "DMSO")));
+        BitSet selection = new BitSet();
+        selection.set(1);
+        selection.set(2);
+
+        WellLayout selected = layout.select(selection);
+
+        assertThat(selected.getWellIds()).containsExactly(2L, 3L);
+        assertThat(selected.getWellTypes().getDictionary()).containsExactly("SAMPLE");
+        assertThat(selected.getWellTypes().getCodes()).containsExactly(0, 0);
+        assertThat(selected.getSubstances().getDictionary()).containsExactly("CMP-1", "CMP-2");
+        assertThat(selected.getGroups("row").getDictionary()).containsExactly("1", "2");
+
+        selection.set(0, 4);
+        assertThat(layout.select(selection)).isSameAs(layout);
+    }
+
+    private static WellDTO well(Long id, Long plateId, int row, int column, String wellType, String substance) {
+        WellSubstanceDTO wellSubstance = null;
+        if (substance != null) {
+            wellSubstance = new WellSubstanceDTO();
+            wellSubstance.setName(substance);
+        }
+        return WellDTO.builder().id(id).plateId(plateId).row(row).column(column).wellType(wellType).status(WellStatus.ACCEPTED).wellSubstance(wellSubstance).build();
+    }
+}
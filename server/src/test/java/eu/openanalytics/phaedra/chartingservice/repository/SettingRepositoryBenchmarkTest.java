@@ -0,0 +1,120 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.repository;
+
+import eu.openanalytics.phaedra.chartingservice.enumeration.SettingType;
+import eu.openanalytics.phaedra.chartingservice.support.Containers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares setting lookups by chart template on a large table with and without the (chart_template_id, setting_type) index.
+ * Run with {@code -Dbenchmark=true}.
+ */
+@Testcontainers
+@SpringBootTest
+@TestPropertySource(locations = "classpath:application-test.properties")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class SettingRepositoryBenchmarkTest {
+
+    private static final String INDEX_NAME = "idx_hca_setting_chart_template_id_setting_type";
+    private static final int TEMPLATES = 20_000;
+    private static final int SETTINGS_PER_TEMPLATE = 20;
+    private static final int FIRST_TEMPLATE_ID = 1_000_000;
+    private static final int LOOKUPS = 500;
+
+    @Autowired
+    private SettingRepository settingRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void registerPgProperties(DynamicPropertyRegistry registry) {
+        registry.add("DB_URL", Containers.postgreSQLContainer::getJdbcUrl);
+        registry.add("DB_USER", Containers.postgreSQLContainer::getUsername);
+        registry.add("DB_PASSWORD", Containers.postgreSQLContainer::getPassword);
+    }
+
+    @BeforeEach
+    public void seed() {
+        jdbcTemplate.update("INSERT INTO hca_chart_template(id, type, axis_x, axis_y) "
+                + "SELECT id, 'scatter', 'x', 'y' FROM generate_series(?, ?) AS id", FIRST_TEMPLATE_ID, FIRST_TEMPLATE_ID + TEMPLATES - 1);
+        jdbcTemplate.update("INSERT INTO hca_setting(chart_template_id, setting_type, name, value) "
+                + "SELECT t, CASE WHEN s % 2 = 0 THEN 'AXIS' ELSE 'CHART' END, 'setting' || s, 'value' "
+                + "FROM generate_series(?, ?) AS t, generate_series(1, ?) AS s", FIRST_TEMPLATE_ID, FIRST_TEMPLATE_ID + TEMPLATES - 1, SETTINGS_PER_TEMPLATE);
+        jdbcTemplate.execute("ANALYZE hca_setting");
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + INDEX_NAME + " ON hca_setting(chart_template_id, setting_type)");
+        jdbcTemplate.update("DELETE FROM hca_setting WHERE chart_template_id >= ?", FIRST_TEMPLATE_ID);
+        jdbcTemplate.update("DELETE FROM hca_chart_template WHERE id >= ?", FIRST_TEMPLATE_ID);
+    }
+
+    @Test
+    public void lookupByChartTemplateIdAndSettingType() {
+        String query = "EXPLAIN SELECT * FROM hca_setting WHERE chart_template_id = " + (FIRST_TEMPLATE_ID + 1) + " AND setting_type = 'AXIS'";
+
+        List<String> indexedPlan = jdbcTemplate.queryForList(query, String.class);
+        double indexedMillis = measureLookups();
+
+        jdbcTemplate.execute("DROP INDEX " + INDEX_NAME);
+        jdbcTemplate.execute("ANALYZE hca_setting");
+        List<String> sequentialPlan = jdbcTemplate.queryForList(query, String.class);
+        double sequentialMillis = measureLookups();
+
+        System.out.printf("hca_setting lookups (%d rows): %.3f ms/lookup with index, %.3f ms/lookup without index%n",
+                TEMPLATES * SETTINGS_PER_TEMPLATE, indexedMillis, sequentialMillis);
+        assertThat(String.join("\n", indexedPlan)).contains(INDEX_NAME);
+        assertThat(String.join("\n", sequentialPlan)).contains("Seq Scan");
+    }
+
+    private double measureLookups() {
+        Random random = new Random(42);
+        long[] templateIds = random.longs(LOOKUPS, FIRST_TEMPLATE_ID, FIRST_TEMPLATE_ID + TEMPLATES).toArray();
+        // Warm up the connection and the plan cache
+        for (long templateId : Arrays.copyOf(templateIds, 50)) {
+            settingRepository.findByChartTemplateIdAndSettingType(templateId, SettingType.AXIS);
+        }
+        long start = System.nanoTime();
+        for (long templateId : templateIds) {
+            assertThat(settingRepository.findByChartTemplateIdAndSettingType(templateId, SettingType.AXIS)).hasSize(SETTINGS_PER_TEMPLATE / 2);
+        }
+        return (System.nanoTime() - start) / 1e6 / LOOKUPS;
+    }
+}
@@ -36,6 +36,8 @@ import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -88,4 +90,31 @@ public class SettingRepositoryTest {
         assertThat(settingRepository.findByChartTemplateIdAndSettingType(1000L, SettingType.AXIS).size()).isEqualTo(2);
         assertThat(settingRepository.findByChartTemplateIdAndSettingType(1000L, SettingType.CHART).size()).isEqualTo(2);
     }
+
+    @Test
+    public void getSettingsByChartTemplateIds() {
+        assertThat(settingRepository.findByChartTemplateIdIn(List.of(1000L, 2000L)).size()).isEqualTo(4);
+        assertThat(settingRepository.findByChartTemplateIdIn(List.of(2000L))).isEmpty();
+    }
+
+    @Test
+    public void insertedSettingsGetTheIdsOfTheirRows() {
+        List<Setting> settings = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Setting setting = new Setting();
+            setting.setChartTemplateId(1000L);
+            setting.setSettingType(SettingType.AXIS);
+            setting.setName("setting " + i);
+            setting.setValue(Integer.toString(i));
+            settings.add(setting);
+        }
+
+        settingRepository.insertAll(settings);
+
+        for (Setting setting : settings) {
+            assertThat(settingRepository.findById(setting.getId())).get()
+                    .extracting(Setting::getName, Setting::getValue)
+                    .containsExactly(setting.getName(), setting.getValue());
+        }
+    }
 }
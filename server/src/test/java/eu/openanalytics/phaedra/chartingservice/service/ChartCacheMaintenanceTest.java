@@ -0,0 +1,130 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import eu.openanalytics.phaedra.chartingservice.support.TokenEndpoint;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ChartCacheMaintenanceTest {
+
+    private SyntheticPlates plates;
+    private TokenEndpoint tokenEndpoint;
+    private ServiceAccount serviceAccount;
+    private WellLayoutCache wellLayoutCache;
+    private ChartResultCache chartResultCache;
+    private ChartTemplateCache chartTemplateCache;
+    private ChartCacheMaintenance maintenance;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void before() throws Exception {
+        plates = new SyntheticPlates(96, 1);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ChartMetrics chartMetrics = new ChartMetrics(meterRegistry);
+        wellLayoutCache = new WellLayoutCache(plates.createUpstreamClient(chartMetrics, meterRegistry), meterRegistry, 100, Duration.ofMinutes(1));
+        chartResultCache = new ChartResultCache(new ObjectMapper(), meterRegistry, chartMetrics, 1024 * 1024, Duration.ofMinutes(1));
+        chartTemplateCache = new ChartTemplateCache(meterRegistry, mock(ObjectProvider.class), 100, Duration.ofMinutes(1));
+        tokenEndpoint = new TokenEndpoint();
+        serviceAccount = tokenEndpoint.createServiceAccount();
+        ObjectProvider<ServiceAccount> serviceAccountProvider = mock(ObjectProvider.class);
+        doReturn(serviceAccount).when(serviceAccountProvider).getIfAvailable();
+        maintenance = createMaintenance(serviceAccountProvider);
+    }
+
+    @AfterEach
+    public void after() {
+        tokenEndpoint.close();
+    }
+
+    @Test
+    public void refreshesLayoutsAheadOfExpiry() throws Exception {
+        wellLayoutCache.get(1L);
+        wellLayoutCache.get(1L);
+
+        maintenance.refreshAhead();
+        wellLayoutCache.get(1L);
+
+        verify(plates.getPlateServiceClient(), times(2)).getWells(1L);
+    }
+
+    @Test
+    public void refreshesLayoutsAsServiceAccount() throws Exception {
+        plates.requireBearerToken(TokenEndpoint.ACCESS_TOKEN);
+        serviceAccount.runAs(() -> wellLayoutCache.get(1L));
+
+        // Without a request, the upstream clients have no bearer token of their own
+        assertThat(wellLayoutCache.refreshAhead(Duration.ofMinutes(2), 10)).isZero();
+        assertThat(serviceAccount.runAs(() -> wellLayoutCache.refreshAhead(Duration.ofMinutes(2), 10))).isEqualTo(1);
+
+        maintenance.refreshAhead();
+        verify(plates.getPlateServiceClient(), times(4)).getWells(1L);
+        assertThat(tokenEndpoint.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void doesNotRefreshLayoutsWithoutServiceAccount() throws Exception {
+        maintenance = createMaintenance(mock(ObjectProvider.class));
+        wellLayoutCache.get(1L);
+
+        maintenance.refreshAhead();
+
+        verify(plates.getPlateServiceClient(), times(1)).getWells(1L);
+    }
+
+    @Test
+    public void doesNotRefreshLayoutsOutsideWindow() throws Exception {
+        wellLayoutCache.get(1L);
+
+        assertThat(wellLayoutCache.refreshAhead(Duration.ZERO, 10)).isZero();
+        assertThat(wellLayoutCache.refreshAhead(Duration.ofMinutes(2), 10)).isEqualTo(1);
+    }
+
+    @Test
+    public void reportsStatisticsPerInterval() throws Exception {
+        wellLayoutCache.get(1L);
+        wellLayoutCache.get(1L);
+        maintenance.cleanUp();
+        maintenance.logStatistics();
+
+        assertThat(wellLayoutCache.estimatedSize()).isEqualTo(1);
+        assertThat(wellLayoutCache.stats().hitCount()).isEqualTo(1);
+    }
+
+    private ChartCacheMaintenance createMaintenance(ObjectProvider<ServiceAccount> serviceAccountProvider) {
+        // A window longer than the expiry, so every cached layout is due for a refresh
+        return new ChartCacheMaintenance(chartResultCache, wellLayoutCache, chartTemplateCache, serviceAccountProvider, Duration.ofMinutes(2), 10);
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import eu.openanalytics.phaedra.chartingservice.support.TokenEndpoint;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Result set events are handed to the pre-warmer directly, standing in for the Kafka topic.
+ */
+public class ChartCachePrewarmerTest {
+
+    private SyntheticPlates plates;
+    private ChartService chartService;
+    private ChartDataService chartDataService;
+    private ChartRequestCoalescer chartRequestCoalescer;
+    private ExecutorService executor;
+    private SimpleMeterRegistry meterRegistry;
+    private TokenEndpoint tokenEndpoint;
+
+    @BeforeEach
+    public void before() throws Exception {
+        plates = new SyntheticPlates(96, 10).stableResultSets();
+        ChartTemplateService chartTemplateService = mock(ChartTemplateService.class);
+        doReturn(ChartTemplateDTO.builder().id(1L).Type("scatter").axisX("Feature 1").axisY("Feature 2").groupBy("welltype").build())
+                .when(chartTemplateService).getChartTemplateById(1L);
+        // A template of another protocol, whose features the plates do not have
+        doReturn(ChartTemplateDTO.builder().id(2L).Type("histogram").axisX("Cell Area").build())
+                .when(chartTemplateService).getChartTemplateById(2L);
+        executor = new DelegatingSecurityContextExecutorService(Executors.newFixedThreadPool(2));
+        chartService = plates.createChartService(chartTemplateService, executor);
+        chartDataService = plates.createChartDataService();
+        meterRegistry = new SimpleMeterRegistry();
+        chartRequestCoalescer = new ChartRequestCoalescer(meterRegistry);
+        tokenEndpoint = new TokenEndpoint();
+    }
+
+    @AfterEach
+    public void after() {
+        executor.shutdownNow();
+        tokenEndpoint.close();
+    }
+
+    @Test
+    public void warmsDefaultChartsOfPlateInEvent() throws Exception {
+        ChartCachePrewarmer prewarmer = createPrewarmer(10, 2);
+
+        prewarmer.onResultSetEvent("{\"id\": 5, \"plateId\": 3, \"protocolId\": 1}");
+        assertThat(prewarmer.warmNext()).isTrue();
+        prewarmer.shutdown();
+
+        // Chart results are cached per caller, the warmed charts are those of the service account
+        clearInvocations(plates.getResultDataServiceClient());
+        tokenEndpoint.createServiceAccount().runAs(() -> chartService.renderDashboard(List.of(1L), List.of(3L)));
+        verify(plates.getResultDataServiceClient(), never()).getResultData(anyLong());
+        verify(plates.getResultDataServiceClient(), never()).getResultData(anyLong(), anyLong());
+        assertThat(meterRegistry.counter("chart.prewarm.plates", "outcome", "warmed").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void skipsTemplatesOfOtherProtocols() throws Exception {
+        ChartCachePrewarmer prewarmer = createPrewarmer(List.of(2L, 1L), 10, 2);
+
+        prewarmer.submit(3L);
+        assertThat(prewarmer.warmNext()).isTrue();
+        prewarmer.shutdown();
+
+        assertThat(meterRegistry.counter("chart.prewarm.plates", "outcome", "warmed").count()).isEqualTo(1);
+        // The template that applies and the chart data are warmed all the same
+        clearInvocations(plates.getResultDataServiceClient());
+        ServiceAccount serviceAccount = tokenEndpoint.createServiceAccount();
+        serviceAccount.runAs(() -> chartService.renderChartFromTemplate(1L, List.of(3L)));
+        serviceAccount.runAs(() -> chartDataService.renderChartDataByPlateIds(List.of(3L), "scatter", null));
+        verify(plates.getResultDataServiceClient(), never()).getResultData(anyLong());
+        verify(plates.getResultDataServiceClient(), never()).getResultData(anyLong(), anyLong());
+    }
+
+    @Test
+    public void warmsAsServiceAccount() {
+        plates.requireBearerToken(TokenEndpoint.ACCESS_TOKEN);
+        ChartCachePrewarmer prewarmer = createPrewarmer(10, 2);
+
+        prewarmer.submit(3L);
+        assertThat(prewarmer.warmNext()).isTrue();
+        prewarmer.shutdown();
+
+        assertThat(meterRegistry.counter("chart.prewarm.plates", "outcome", "warmed").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("chart.prewarm.plates", "outcome", "failed").count()).isZero();
+    }
+
+    @Test
+    public void failsToWarmWithoutAccessToken() {
+        plates.requireBearerToken(TokenEndpoint.ACCESS_TOKEN);
+        tokenEndpoint.refuse();
+        ChartCachePrewarmer prewarmer = createPrewarmer(10, 2);
+
+        prewarmer.submit(3L);
+        assertThat(prewarmer.warmNext()).isTrue();
+        prewarmer.shutdown();
+
+        assertThat(meterRegistry.counter("chart.prewarm.plates", "outcome", "failed").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void queuesPlateOnce() {
+        ChartCachePrewarmer prewarmer = createPrewarmer(10, 2);
+
+        prewarmer.onResultSetEvent("3");
+        prewarmer.onResultSetEvent("{\"plateId\": 3}");
+        prewarmer.onResultSetEvent("{\"id\": 5}");
+        assertThat(prewarmer.warmNext()).isTrue();
+        assertThat(prewarmer.warmNext()).isFalse();
+        prewarmer.shutdown();
+    }
+
+    @Test
+    public void dropsPlatesWhenQueueIsFull() {
+        ChartCachePrewarmer prewarmer = createPrewarmer(1, 2);
+
+        assertThat(prewarmer.submit(1L)).isTrue();
+        assertThat(prewarmer.submit(2L)).isFalse();
+        prewarmer.shutdown();
+
+        assertThat(meterRegistry.counter("chart.prewarm.plates", "outcome", "dropped").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void defersWhileInteractiveRequestsAreInFlight() throws Exception {
+        ChartCachePrewarmer prewarmer = createPrewarmer(10, 0);
+        prewarmer.submit(3L);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> request = CompletableFuture.supplyAsync(() -> {
+            try {
+                return chartRequestCoalescer.execute("chart", ChartSpec.of("bar", List.of(1L), 1L, List.of(1L), null), () -> {
+                    started.countDown();
+                    awaitUninterruptibly(release);
+                    return null;
+                });
+            } catch (ChartDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }, executor);
+        started.await();
+
+        assertThat(prewarmer.warmNext()).isFalse();
+        release.countDown();
+        request.get();
+        assertThat(prewarmer.warmNext()).isTrue();
+        prewarmer.shutdown();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ChartCachePrewarmer createPrewarmer(int maxQueuedPlates, int maxInFlightRequests) {
+        return createPrewarmer(List.of(1L), maxQueuedPlates, maxInFlightRequests);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChartCachePrewarmer createPrewarmer(List<Long> chartTemplateIds, int maxQueuedPlates, int maxInFlightRequests) {
+        ChartMetrics chartMetrics = new ChartMetrics(meterRegistry);
+        UpstreamClient upstreamClient = plates.createUpstreamClient(chartMetrics, meterRegistry);
+        // The scheduler never fires within a test, plates are warmed by calling warmNext
+        return new ChartCachePrewarmer(new WellLayoutCache(upstreamClient, meterRegistry, 100, Duration.ofMinutes(1)), chartService,
+                chartDataService, chartRequestCoalescer, tokenEndpoint.createServiceAccount(), new ObjectMapper(), meterRegistry, mock(ObjectProvider.class),
+                chartTemplateIds, List.of("scatter"), Duration.ofHours(1), maxQueuedPlates, maxInFlightRequests);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.dto.ChartDataColumnsDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartDataDTO;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.chartingservice.support.SyntheticPlates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Time to assemble and serialize the chart data of a set of plates, in the row and columnar formats, with upstream services
+ * mocked by {@link SyntheticPlates}: well layouts are cached, result data is not. Run with {@code -Dbenchmark=ChartDataServiceBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChartDataServiceBenchmark {
+
+    @Param({"384", "1536"})
+    public int wells;
+
+    @Param({"200"})
+    public int features;
+
+    @Param({"1", "4"})
+    public int plates;
+
+    private ChartDataService chartDataService;
+    private List<Long> plateIds;
+
+    @Setup
+    public void setup() throws Exception {
+        chartDataService = new SyntheticPlates(wells, features).createChartDataService();
+        plateIds = LongStream.rangeClosed(1, plates).boxed().collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public RenderedResult<List<ChartDataDTO>> rows() throws ChartDataException {
+        return chartDataService.renderChartDataByPlateIds(plateIds, "scatter", null);
+    }
+
+    @Benchmark
+    public RenderedResult<ChartDataColumnsDTO> columnar() throws ChartDataException {
+        return chartDataService.renderChartDataColumnsByPlateIds(plateIds, "scatter", null);
+    }
+
+    @Benchmark
+    public RenderedResult<ChartDataColumnsDTO> columnarFiltered() throws ChartDataException {
+        return chartDataService.renderChartDataColumnsByPlateIds(plateIds, "scatter", "wellType = 'SAMPLE'");
+    }
+}
@@ -20,6 +20,8 @@
  */
 package eu.openanalytics.phaedra.chartingservice.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartDataColumnsDTO;
 import eu.openanalytics.phaedra.chartingservice.dto.ChartDataDTO;
 import eu.openanalytics.phaedra.chartingservice.dto.ChartTupleDTO;
 import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
@@ -37,6 +39,7 @@ import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultDataUnr
 import eu.openanalytics.phaedra.resultdataservice.client.exception.ResultSetUnresolvableException;
 import eu.openanalytics.phaedra.resultdataservice.dto.ResultDataDTO;
 import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -44,7 +47,9 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.core.env.StandardEnvironment;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -75,7 +80,12 @@ public class ChartDataServiceTest {
         resultDataServiceClient = mockUnimplemented(ResultDataServiceClient.class);
         plateServiceClient = mockUnimplemented(PlateServiceClient.class);
         protocolServiceClient = mockUnimplemented(ProtocolServiceClient.class);
-        chartDataService = new ChartDataService(resultDataServiceClient, plateServiceClient, protocolServiceClient);
+        ChartMetrics chartMetrics = new ChartMetrics(new SimpleMeterRegistry());
+        UpstreamClient upstreamClient = new UpstreamClient(plateServiceClient, protocolServiceClient, resultDataServiceClient, chartMetrics,
+                new UpstreamGuard(new StandardEnvironment(), new SimpleMeterRegistry()));
+        chartDataService = new ChartDataService(upstreamClient, new ChartRequestCoalescer(new SimpleMeterRegistry()),
+                new ChartResultCache(new ObjectMapper(), new SimpleMeterRegistry(), chartMetrics, 1024 * 1024, Duration.ofMinutes(1)),
+                new WellLayoutCache(upstreamClient, new SimpleMeterRegistry(), 100, Duration.ofMinutes(1)), chartMetrics);
 
         //Mocks
         List<FeatureDTO> featureDTOS = new ArrayList<>();
@@ -144,4 +154,17 @@ public class ChartDataServiceTest {
         assertThat(chartTupleDTOS.stream().filter(chartTupleDTO -> chartTupleDTO.getName().equals("Feature 1")).findFirst().get().getValue()).isEqualTo("4.44");
         assertThat(chartTupleDTOS.stream().filter(chartTupleDTO -> chartTupleDTO.getName().equals("Feature 2")).findFirst().get().getValue()).isEqualTo("8.88");
     }
+
+    @Test
+    public void columnarTest() throws ChartDataException {
+        ChartDataColumnsDTO chartData = chartDataService.renderChartDataColumnsByPlateIds(List.of(1L), "line", "row = 2").getValue();
+        assertThat(chartData.getWellIds()).containsExactly(3L, 4L);
+        assertThat(chartData.getColumns()).containsExactly(1, 2);
+        assertThat(chartData.getWellTypes().getDictionary()).containsExactly("Sample");
+        assertThat(chartData.getWellTypes().getCodes()).containsExactly(0, 0);
+        assertThat(chartData.getWellStatuses().getDictionary()).containsExactly("ACCEPTED");
+        assertThat(chartData.getWellSubstances().getDictionary()).containsExactly("Filler");
+        assertThat(chartData.getFeatures()).containsOnlyKeys("Feature 1", "Feature 2");
+        assertThat(chartData.getFeatures().get("Feature 1")).containsExactly(3.33f, 4.44f);
+    }
 }
@@ -0,0 +1,54 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChartMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChartMetrics chartMetrics = new ChartMetrics(meterRegistry);
+
+    @Test
+    public void chartTypesAreTagged() {
+        chartMetrics.recordWells(ChartSpec.of("Scatter", List.of(1L), 1L, List.of(1L, 2L), null), 10);
+
+        assertThat(meterRegistry.get("chart.wells").tag("type", "scatter").counter().count()).isEqualTo(10);
+    }
+
+    @Test
+    public void arbitraryChartDataTypesShareOneTag() {
+        for (int i = 0; i < 100; i++) {
+            chartMetrics.recordWells(ChartSpec.of("type-" + i, List.of(1L), null, null, null), 1);
+            chartMetrics.recordPayload("chartData", ChartSpec.of("type-" + i, List.of(1L), null, null, null), 100);
+        }
+
+        assertThat(meterRegistry.get("chart.wells").counters()).hasSize(1);
+        assertThat(meterRegistry.get("chart.wells").tag("type", "other").counter().count()).isEqualTo(100);
+        assertThat(meterRegistry.get("chart.payload.size").summaries()).hasSize(1);
+    }
+}
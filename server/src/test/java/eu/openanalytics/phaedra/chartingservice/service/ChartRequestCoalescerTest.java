@@ -0,0 +1,189 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ChartRequestCoalescerTest {
+
+    private static final int CONCURRENT_REQUESTS = 8;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ChartRequestCoalescer chartRequestCoalescer;
+    private ExecutorService executorService;
+
+    @BeforeEach
+    public void before() {
+        meterRegistry = new SimpleMeterRegistry();
+        chartRequestCoalescer = new ChartRequestCoalescer(meterRegistry);
+        executorService = Executors.newFixedThreadPool(CONCURRENT_REQUESTS);
+    }
+
+    @AfterEach
+    public void after() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void specIsNormalized() {
+        ChartSpec spec1 = ChartSpec.of("Scatter", List.of(1L, 2L), 1L, List.of(10L, 20L), "WellType");
+        ChartSpec spec2 = ChartSpec.of("scatter", List.of(1L, 2L), 1L, List.of(10L, 20L), "welltype");
+        ChartSpec spec3 = ChartSpec.of("scatter", List.of(1L, 2L), 1L, List.of(20L, 10L), "welltype");
+        assertThat(spec1).isEqualTo(spec2);
+        assertThat(spec1).isNotEqualTo(spec3);
+    }
+
+    @Test
+    public void specKeepsRequestedPlateOrder() {
+        ChartSpec spec = ChartSpec.of("scatter", List.of(2L, 1L, 2L), null, null, null);
+        assertThat(spec.getPlateIds()).containsExactly(2L, 1L, 2L);
+        assertThat(spec).isNotEqualTo(ChartSpec.of("scatter", List.of(1L, 2L), null, null, null));
+    }
+
+    @Test
+    public void concurrentIdenticalRequestsShareOneComputation() throws Exception {
+        ChartSpec spec = ChartSpec.of("bar", List.of(1L), 1L, List.of(1L), "welltype");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<Object>> results = submitConcurrently(() -> chartRequestCoalescer.execute("barPlot", spec, () -> {
+            loads.incrementAndGet();
+            awaitQuietly(release);
+            return new Object();
+        }));
+        awaitInFlight();
+        release.countDown();
+
+        Object first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<Object> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isSameAs(first);
+        }
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("chart.requests").tag("outcome", "executed").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chart.requests").tag("outcome", "coalesced").counter().count()).isEqualTo(CONCURRENT_REQUESTS - 1);
+    }
+
+    @Test
+    public void requestsOfDifferentPrincipalsAreNotCoalesced() throws Exception {
+        ChartSpec spec = ChartSpec.of("bar", List.of(1L), 1L, List.of(1L), "welltype");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<Object>> results = new ArrayList<>();
+        for (String principal : List.of("alice", "bob")) {
+            results.add(executorService.submit(() -> {
+                SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(principal, null, "ROLE_USER"));
+                try {
+                    return chartRequestCoalescer.execute("barPlot", spec, () -> {
+                        loads.incrementAndGet();
+                        awaitQuietly(release);
+                        return principal;
+                    });
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+            }));
+        }
+        while (chartRequestCoalescer.getInFlightCount() < 2) Thread.sleep(10);
+        release.countDown();
+
+        assertThat(results.get(0).get(5, TimeUnit.SECONDS)).isEqualTo("alice");
+        assertThat(results.get(1).get(5, TimeUnit.SECONDS)).isEqualTo("bob");
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(meterRegistry.find("chart.requests").tag("outcome", "coalesced").counter()).isNull();
+    }
+
+    @Test
+    public void failureIsSharedWithCoalescedRequests() throws Exception {
+        ChartSpec spec = ChartSpec.of("bar", List.of(1L), 1L, List.of(1L), "welltype");
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<Object>> results = submitConcurrently(() -> chartRequestCoalescer.execute("barPlot", spec, () -> {
+            awaitQuietly(release);
+            throw new ChartDataException("No result set found");
+        }));
+        awaitInFlight();
+        release.countDown();
+
+        for (Future<Object> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(ChartDataException.class);
+        }
+    }
+
+    @Test
+    public void sequentialRequestsAreNotCached() throws Exception {
+        ChartSpec spec = ChartSpec.of("box", List.of(1L), 1L, List.of(1L), null);
+        AtomicInteger loads = new AtomicInteger();
+        chartRequestCoalescer.execute("boxPlot", spec, loads::incrementAndGet);
+        chartRequestCoalescer.execute("boxPlot", spec, loads::incrementAndGet);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    private List<Future<Object>> submitConcurrently(Callable<Object> request) {
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            results.add(executorService.submit(request));
+        }
+        return results;
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        // Wait until every request either runs the computation or has joined it
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            double joined = meterRegistry.find("chart.requests").counters().stream().mapToDouble(Counter::count).sum();
+            if (joined >= CONCURRENT_REQUESTS) return;
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
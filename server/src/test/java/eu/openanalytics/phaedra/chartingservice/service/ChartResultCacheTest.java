@@ -0,0 +1,110 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.model.Chart;
+import eu.openanalytics.phaedra.chartingservice.model.ChartData;
+import eu.openanalytics.phaedra.chartingservice.model.ChartLayout;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChartResultCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ChartResultCache chartResultCache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    public void before() {
+        chartResultCache = new ChartResultCache(objectMapper, new SimpleMeterRegistry(), new ChartMetrics(new SimpleMeterRegistry()), 1024 * 1024, Duration.ofMinutes(1));
+        loads = new AtomicInteger();
+    }
+
+    @AfterEach
+    public void after() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void cachedResultIsServedForSameSpecAndResultSets() throws Exception {
+        ChartSpec spec = ChartSpec.of("bar", List.of(1L), 1L, List.of(1L), "welltype");
+        RenderedResult<Chart> first = chartResultCache.get("chart", spec, List.of(10L), this::createChart);
+        RenderedResult<Chart> second = chartResultCache.get("chart", ChartSpec.of("BAR", List.of(1L), 1L, List.of(1L), "WellType"), List.of(10L), this::createChart);
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(second).isSameAs(first);
+        assertThat(objectMapper.readValue(first.getJson(), Chart.class)).isEqualTo(first.getValue());
+    }
+
+    @Test
+    public void newResultSetInvalidatesCachedResult() throws Exception {
+        ChartSpec spec = ChartSpec.of("bar", List.of(1L), 1L, List.of(1L), "welltype");
+        chartResultCache.get("chart", spec, List.of(10L), this::createChart);
+        chartResultCache.get("chart", spec, List.of(11L), this::createChart);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void operationIsPartOfTheKey() throws Exception {
+        ChartSpec spec = ChartSpec.of("bar", List.of(1L), null, null, null);
+        chartResultCache.get("chart", spec, List.of(10L), this::createChart);
+        chartResultCache.get("chartData", spec, List.of(10L), this::createChart);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void resultIsOnlyServedToSamePrincipal() throws Exception {
+        ChartSpec spec = ChartSpec.of("bar", List.of(1L), 1L, List.of(1L), "welltype");
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("alice", null, "ROLE_USER"));
+        RenderedResult<Chart> first = chartResultCache.get("chart", spec, List.of(10L), this::createChart);
+        assertThat(chartResultCache.getIfPresent("chart", spec, List.of(10L))).isSameAs(first);
+
+        // Same authorities, other principal
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("bob", null, "ROLE_USER"));
+        assertThat(chartResultCache.getIfPresent("chart", spec, List.of(10L))).isNull();
+        chartResultCache.get("chart", spec, List.of(10L), this::createChart);
+
+        SecurityContextHolder.clearContext();
+        assertThat(chartResultCache.getIfPresent("chart", spec, List.of(10L))).isNull();
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    private Chart createChart() {
+        loads.incrementAndGet();
+        return Chart.builder()
+                .data(new ChartData[] { ChartData.builder().type("bar").name("SAMPLE").yValue(List.of(1.0f, 2.0f)).build() })
+                .layout(ChartLayout.builder().chartTitle("Plate Bar Plot").yAxisLabel("Feature 1").build())
+                .build();
+    }
+}
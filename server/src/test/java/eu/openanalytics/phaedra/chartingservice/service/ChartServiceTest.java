@@ -0,0 +1,236 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.PlateErrorDTO;
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.Chart;
+import eu.openanalytics.phaedra.chartingservice.model.ChartData;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import eu.openanalytics.phaedra.chartingservice.model.PartialResult;
+import eu.openanalytics.phaedra.chartingservice.model.RenderedResult;
+import eu.openanalytics.phaedra.plateservice.client.PlateServiceClient;
+import eu.openanalytics.phaedra.plateservice.dto.PlateMeasurementDTO;
+import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
+import eu.openanalytics.phaedra.plateservice.enumeration.WellStatus;
+import eu.openanalytics.phaedra.protocolservice.client.ProtocolServiceClient;
+import eu.openanalytics.phaedra.protocolservice.dto.FeatureDTO;
+import eu.openanalytics.phaedra.resultdataservice.client.ResultDataServiceClient;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultDataDTO;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ChartServiceTest {
+
+    private ProtocolServiceClient protocolServiceClient;
+    private ResultDataServiceClient resultDataServiceClient;
+    private PlateServiceClient plateServiceClient;
+    private ChartTemplateService chartTemplateService;
+    private ChartService chartService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() throws Exception {
+        protocolServiceClient = mock(ProtocolServiceClient.class);
+        resultDataServiceClient = mock(ResultDataServiceClient.class);
+        plateServiceClient = mock(PlateServiceClient.class);
+        chartTemplateService = mock(ChartTemplateService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        ChartMetrics chartMetrics = new ChartMetrics(meterRegistry);
+        UpstreamClient upstreamClient = new UpstreamClient(plateServiceClient, protocolServiceClient, resultDataServiceClient, chartMetrics,
+                new UpstreamGuard(new StandardEnvironment(), meterRegistry));
+        chartService = new ChartService(upstreamClient, new ChartRequestCoalescer(meterRegistry),
+                new ChartResultCache(new ObjectMapper(), meterRegistry, chartMetrics, 1024 * 1024, Duration.ofMinutes(1)), chartTemplateService,
+                new WellLayoutCache(upstreamClient, meterRegistry, 100, Duration.ofMinutes(1)), chartMetrics, Executors.newSingleThreadExecutor());
+
+        doReturn(List.of(
+                PlateMeasurementDTO.builder().id(1L).plateId(1L).measurementId(1L).active(Boolean.FALSE).build(),
+                PlateMeasurementDTO.builder().id(2L).plateId(1L).measurementId(2L).active(Boolean.TRUE).build()))
+                .when(plateServiceClient).getPlateMeasurements(1L);
+        doReturn(ResultSetDTO.builder().id(10L).plateId(1L).measId(2L).protocolId(5L).build())
+                .when(resultDataServiceClient).getLatestResultSetByPlateIdAndMeasId(1L, 2L);
+        doReturn(List.of(
+                FeatureDTO.builder().id(51L).protocolId(5L).name("Nuclei Count").build(),
+                FeatureDTO.builder().id(52L).protocolId(5L).name("Cell Area").build()))
+                .when(protocolServiceClient).getFeaturesOfProtocol(5L);
+    }
+
+    @Test
+    public void scatterTemplateResolvesBothAxes() throws Exception {
+        ChartSpec spec = chartService.resolveChartTemplate(template("Scatter", "Cell Area", "Nuclei Count", "wellType", "row = 1"), List.of(2L, 1L));
+
+        assertThat(spec).isEqualTo(ChartSpec.of("scatter", List.of(1L, 2L), 5L, List.of(52L, 51L), "welltype", "row = 1"));
+    }
+
+    @Test
+    public void barTemplateUsesValueAxis() throws Exception {
+        ChartSpec spec = chartService.resolveChartTemplate(template("bar", "row", "Nuclei Count", null, null), List.of(1L));
+
+        assertThat(spec.getFeatureIds()).containsExactly(51L);
+        assertThat(spec.getGroupBy()).isNull();
+    }
+
+    @Test
+    public void unknownAxisIsRejected() {
+        assertThatThrownBy(() -> chartService.resolveChartTemplate(template("histogram", "Unknown", null, null, null), List.of(1L)))
+                .isInstanceOf(ChartDataException.class)
+                .hasMessageContaining("Unknown");
+    }
+
+    @Test
+    public void missingTemplateRendersNothing() throws Exception {
+        doReturn(null).when(chartTemplateService).getChartTemplateById(99L);
+
+        assertThat(chartService.renderChartFromTemplate(99L, List.of(1L))).isNull();
+    }
+
+    @Test
+    public void dashboardFetchesSharedColumnsOnce() throws Exception {
+        doReturn(template("bar", null, "Nuclei Count", "wellType", null)).when(chartTemplateService).getChartTemplateById(1L);
+        doReturn(template("box", null, "Nuclei Count", null, "wellType = 'SAMPLE'")).when(chartTemplateService).getChartTemplateById(2L);
+        doReturn(template("scatter", "Cell Area", "Nuclei Count", null, null)).when(chartTemplateService).getChartTemplateById(3L);
+        doReturn(null).when(chartTemplateService).getChartTemplateById(4L);
+
+        doReturn(ResultSetDTO.builder().id(10L).plateId(1L).measId(2L).protocolId(5L).build())
+                .when(resultDataServiceClient).getLatestResultSetByPlateIdAndProtocolId(1L, 5L);
+        doReturn(ResultDataDTO.builder().id(1L).resultSetId(10L).featureId(51L).values(new float[]{1f, 2f}).build())
+                .when(resultDataServiceClient).getResultData(10L, 51L);
+        doReturn(ResultDataDTO.builder().id(2L).resultSetId(10L).featureId(52L).values(new float[]{3f, 4f}).build())
+                .when(resultDataServiceClient).getResultData(10L, 52L);
+        doReturn(List.of(
+                WellDTO.builder().id(1L).plateId(1L).row(1).column(1).wellType("SAMPLE").status(WellStatus.ACCEPTED).build(),
+                WellDTO.builder().id(2L).plateId(1L).row(1).column(2).wellType("LC").status(WellStatus.ACCEPTED).build()))
+                .when(plateServiceClient).getWells(1L);
+        doReturn(FeatureDTO.builder().id(51L).protocolId(5L).name("Nuclei Count").build()).when(protocolServiceClient).getFeature(51L);
+        doReturn(FeatureDTO.builder().id(52L).protocolId(5L).name("Cell Area").build()).when(protocolServiceClient).getFeature(52L);
+
+        List<RenderedResult<Chart>> charts = chartService.renderDashboard(List.of(1L, 2L, 3L, 4L), List.of(1L));
+
+        assertThat(charts).hasSize(4);
+        assertThat(charts.get(0).getValue().getData()).extracting(ChartData::getName).containsExactly("SAMPLE", "LC");
+        assertThat(charts.get(1).getValue().getData()[0].getYValue()).containsExactly(1f);
+        assertThat(charts.get(2).getValue().getLayout().getXAxisLabel()).isEqualTo("Cell Area");
+        assertThat(charts.get(3)).isNull();
+        verify(resultDataServiceClient, times(1)).getResultData(10L, 51L);
+        verify(resultDataServiceClient, times(1)).getResultData(10L, 52L);
+        verify(plateServiceClient, times(1)).getWells(1L);
+        verify(protocolServiceClient, times(1)).getFeaturesOfProtocol(5L);
+    }
+
+    @Test
+    public void dashboardLeavesOutUnresolvablePlates() throws Exception {
+        doReturn(template("bar", null, "Nuclei Count", "wellType", null)).when(chartTemplateService).getChartTemplateById(1L);
+        doReturn(ResultSetDTO.builder().id(10L).plateId(1L).measId(2L).protocolId(5L).build())
+                .when(resultDataServiceClient).getLatestResultSetByPlateIdAndProtocolId(1L, 5L);
+        doReturn(ResultDataDTO.builder().id(1L).resultSetId(10L).featureId(51L).values(new float[]{1f, 2f}).build())
+                .when(resultDataServiceClient).getResultData(10L, 51L);
+        doReturn(List.of(
+                WellDTO.builder().id(1L).plateId(1L).row(1).column(1).wellType("SAMPLE").status(WellStatus.ACCEPTED).build(),
+                WellDTO.builder().id(2L).plateId(1L).row(1).column(2).wellType("LC").status(WellStatus.ACCEPTED).build()))
+                .when(plateServiceClient).getWells(1L);
+        doReturn(FeatureDTO.builder().id(51L).protocolId(5L).name("Nuclei Count").build()).when(protocolServiceClient).getFeature(51L);
+
+        // Plate 2 has no result set for the protocol
+        PartialResult<List<RenderedResult<Chart>>> charts = chartService.renderDashboardPartially(List.of(1L), List.of(2L, 1L));
+
+        assertThat(charts.getResult()).hasSize(1);
+        assertThat(charts.getResult().get(0).getValue().getData()).extracting(ChartData::getName).containsExactly("SAMPLE", "LC");
+        assertThat(charts.getErrors()).extracting(PlateErrorDTO::getPlateId).containsExactly(2L);
+        assertThatThrownBy(() -> chartService.renderDashboard(List.of(1L), List.of(2L, 1L))).isInstanceOf(ChartDataException.class);
+    }
+
+    @Test
+    public void valuesOfPlatesStayAlignedWithTheirWells() throws Exception {
+        for (long plateId = 1; plateId <= 2; plateId++) {
+            doReturn(ResultSetDTO.builder().id(10L + plateId).plateId(plateId).measId(2L).protocolId(5L).build())
+                    .when(resultDataServiceClient).getLatestResultSetByPlateIdAndProtocolId(plateId, 5L);
+            doReturn(List.of(
+                    WellDTO.builder().id(plateId * 10 + 1).plateId(plateId).row(1).column(1).wellType("SAMPLE").status(WellStatus.ACCEPTED).build(),
+                    WellDTO.builder().id(plateId * 10 + 2).plateId(plateId).row(1).column(2).wellType("LC").status(WellStatus.ACCEPTED).build()))
+                    .when(plateServiceClient).getWells(plateId);
+        }
+        // Plate 1 was partially calculated, plate 2 has a value too many
+        doReturn(ResultDataDTO.builder().id(1L).resultSetId(11L).featureId(51L).values(new float[]{1f}).build())
+                .when(resultDataServiceClient).getResultData(11L, 51L);
+        doReturn(ResultDataDTO.builder().id(2L).resultSetId(12L).featureId(51L).values(new float[]{3f, 4f, 5f}).build())
+                .when(resultDataServiceClient).getResultData(12L, 51L);
+        doReturn(FeatureDTO.builder().id(51L).protocolId(5L).name("Nuclei Count").build()).when(protocolServiceClient).getFeature(51L);
+
+        Chart barPlot = chartService.renderChart(ChartSpec.of("bar", List.of(1L, 2L), 5L, List.of(51L), "welltype")).getValue();
+
+        assertThat(barPlot.getData()).extracting(ChartData::getName).containsExactly("SAMPLE", "LC");
+        assertThat(barPlot.getData()[0].getYValue()).containsExactly(1f, 3f);
+        assertThat(barPlot.getData()[1].getYValue()).containsExactly(Float.NaN, 4f);
+    }
+
+    @Test
+    public void chartsOnSamePlateShareWellLayout() throws Exception {
+        doReturn(ResultSetDTO.builder().id(10L).plateId(1L).measId(2L).protocolId(5L).build())
+                .when(resultDataServiceClient).getLatestResultSetByPlateIdAndProtocolId(1L, 5L);
+        doReturn(ResultDataDTO.builder().id(1L).resultSetId(10L).featureId(51L).values(new float[]{1f, 2f, 3f}).build())
+                .when(resultDataServiceClient).getResultData(10L, 51L);
+        doReturn(ResultDataDTO.builder().id(2L).resultSetId(10L).featureId(52L).values(new float[]{4f, 5f, 6f}).build())
+                .when(resultDataServiceClient).getResultData(10L, 52L);
+        doReturn(List.of(
+                WellDTO.builder().id(1L).plateId(1L).row(1).column(1).wellType("SAMPLE").status(WellStatus.ACCEPTED).build(),
+                WellDTO.builder().id(2L).plateId(1L).row(2).column(1).wellType("LC").status(WellStatus.ACCEPTED).build(),
+                WellDTO.builder().id(3L).plateId(1L).row(1).column(2).wellType("SAMPLE").status(WellStatus.ACCEPTED).build()))
+                .when(plateServiceClient).getWells(1L);
+        doReturn(FeatureDTO.builder().id(51L).protocolId(5L).name("Nuclei Count").build()).when(protocolServiceClient).getFeature(51L);
+        doReturn(FeatureDTO.builder().id(52L).protocolId(5L).name("Cell Area").build()).when(protocolServiceClient).getFeature(52L);
+
+        Chart barPlot = chartService.barPlot(1L, 5L, 51L, "Row", null);
+        Chart scatterPlot = chartService.scatterPlot(1L, 5L, 51L, 52L, "wellType", null);
+
+        assertThat(barPlot.getData()).extracting(ChartData::getName).containsExactly("1", "2");
+        assertThat(barPlot.getData()[0].getYValue()).containsExactly(1f, 3f);
+        assertThat(scatterPlot.getData()).extracting(ChartData::getName).containsExactly("SAMPLE", "LC");
+        assertThat(scatterPlot.getData()[1].getXValue()).containsExactly(2f);
+        assertThat(scatterPlot.getData()[1].getYValue()).containsExactly(5f);
+        verify(plateServiceClient, times(1)).getWells(1L);
+
+        assertThat(meterRegistry.get("chart.upstream.requests").tag("client", "plateservice").tag("method", "getWells").tag("outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chart.stage").tag("stage", "grouping").tag("type", "bar").tag("plates", "1").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chart.stage").tag("stage", "serialization").tag("type", "scatter").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chart.payload.size").tag("operation", "chart").tag("type", "scatter").summary().totalAmount()).isPositive();
+        assertThat(meterRegistry.get("chart.wells").tag("type", "bar").counter().count()).isEqualTo(3);
+    }
+
+    private static ChartTemplateDTO template(String type, String axisX, String axisY, String groupBy, String filter) {
+        return ChartTemplateDTO.builder().id(1L).Type(type).axisX(axisX).axisY(axisY).groupBy(groupBy).filter(filter).build();
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.dto.ChartTemplateDTO;
+import eu.openanalytics.phaedra.chartingservice.dto.SettingDTO;
+import eu.openanalytics.phaedra.chartingservice.enumeration.SettingType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChartTemplateCacheTest {
+
+    private ChartTemplateCache chartTemplateCache;
+    private List<Long> broadcasts;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    public void before() {
+        broadcasts = new ArrayList<>();
+        loads = new AtomicInteger();
+        ChartTemplateInvalidationBroadcaster broadcaster = broadcasts::add;
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory(Map.of("broadcaster", broadcaster));
+        chartTemplateCache = new ChartTemplateCache(new SimpleMeterRegistry(), beanFactory.getBeanProvider(ChartTemplateInvalidationBroadcaster.class),
+                100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void templateIsLoadedOnce() {
+        ChartTemplateDTO first = chartTemplateCache.get(1L, this::load);
+        ChartTemplateDTO second = chartTemplateCache.get(1L, this::load);
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(second).isEqualTo(first);
+    }
+
+    @Test
+    public void callersGetTheirOwnCopy() {
+        ChartTemplateDTO first = chartTemplateCache.get(1L, this::load);
+        first.setAxisX("changed");
+        first.getAxisSettings().get(0).setValue("changed");
+        first.getAxisSettings().add(new SettingDTO());
+
+        ChartTemplateDTO second = chartTemplateCache.get(1L, this::load);
+        assertThat(second.getAxisX()).isEqualTo("x");
+        assertThat(second.getAxisSettings()).extracting(SettingDTO::getValue).containsExactly("10");
+    }
+
+    @Test
+    public void missingTemplatesAreNotCached() {
+        assertThat(chartTemplateCache.get(2L, id -> { loads.incrementAndGet(); return null; })).isNull();
+        assertThat(chartTemplateCache.get(2L, this::load)).isNotNull();
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidationReloadsAndIsBroadcast() {
+        chartTemplateCache.get(1L, this::load);
+        chartTemplateCache.invalidate(1L);
+        chartTemplateCache.get(1L, this::load);
+
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(broadcasts).containsExactly(1L);
+    }
+
+    @Test
+    public void remoteEvictionIsNotBroadcastAgain() {
+        chartTemplateCache.get(1L, this::load);
+        chartTemplateCache.evict(1L);
+        chartTemplateCache.get(1L, this::load);
+
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(broadcasts).isEmpty();
+    }
+
+    private ChartTemplateDTO load(Long id) {
+        loads.incrementAndGet();
+        List<SettingDTO> axisSettings = new ArrayList<>();
+        axisSettings.add(new SettingDTO(10L, id, SettingType.AXIS, "size", "10"));
+        return ChartTemplateDTO.builder().id(id).Type("bar").axisX("x").axisY("y").axisSettings(axisSettings).chartSettings(new ArrayList<>()).build();
+    }
+}
@@ -253,6 +253,11 @@ public class ChartTemplateServiceTest {
         assertThat(chartTemplateDTOs.get(1).getType()).isEqualTo("bar");
         assertThat(chartTemplateDTOs.get(1).getAxisX()).isEqualTo("row");
         assertThat(chartTemplateDTOs.get(1).getAxisY()).isEqualTo("column");
+        //Settings are grouped per chart template and setting type
+        assertThat(chartTemplateDTOs.get(0).getAxisSettings()).extracting(SettingDTO::getValue).containsExactlyInAnyOrder("10", "20");
+        assertThat(chartTemplateDTOs.get(0).getChartSettings()).extracting(SettingDTO::getValue).containsExactlyInAnyOrder("30", "40");
+        assertThat(chartTemplateDTOs.get(1).getAxisSettings()).isEmpty();
+        assertThat(chartTemplateDTOs.get(1).getChartSettings()).isEmpty();
     }
 
 }
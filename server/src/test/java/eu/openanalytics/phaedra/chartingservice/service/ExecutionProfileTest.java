@@ -0,0 +1,78 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.model.ChartSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExecutionProfileTest {
+
+    private final ChartMetrics chartMetrics = new ChartMetrics(new SimpleMeterRegistry());
+
+    @Test
+    public void nothingIsRecordedWithoutActiveProfile() throws ChartDataException {
+        assertThat(ExecutionProfile.current()).isNull();
+        chartMetrics.recordUpstreamCall("plateservice", "getWells", () -> List.of());
+        assertThat(ExecutionProfile.current()).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void recordsUpstreamCallsStagesAndCaches() throws ChartDataException {
+        ChartSpec spec = ChartSpec.of("scatter", List.of(1L), 1L, List.of(10L, 20L), "welltype");
+        ExecutionProfile profile = new ExecutionProfile();
+        try (ExecutionProfile.Scope scope = profile.activate()) {
+            assertThat(ExecutionProfile.current()).isSameAs(profile);
+            chartMetrics.recordUpstreamCall("plateservice", "getWells", () -> List.of());
+            chartMetrics.recordStage("grouping", spec, () -> null);
+            profile.recordCacheAccess("chart.results", false);
+            profile.recordCacheAccess("chart.results", true);
+            profile.recordBytes(100);
+        }
+        assertThat(ExecutionProfile.current()).isNull();
+
+        Map<String, Object> map = profile.toMap();
+        assertThat((List<Map<String, Object>>) map.get("upstreamCalls")).extracting(call -> call.get("name")).containsExactly("plateservice.getWells");
+        assertThat((List<Map<String, Object>>) map.get("stages")).extracting(stage -> stage.get("name")).containsExactly("grouping");
+        assertThat((Map<String, Object>) map.get("caches")).containsEntry("chart.results", Map.of("hits", 1L, "misses", 1L));
+        assertThat(map).containsEntry("bytes", 100L);
+    }
+
+    @Test
+    public void nestedScopeRestoresOuterProfile() {
+        ExecutionProfile outer = new ExecutionProfile();
+        ExecutionProfile inner = new ExecutionProfile();
+        try (ExecutionProfile.Scope outerScope = outer.activate()) {
+            try (ExecutionProfile.Scope innerScope = inner.activate()) {
+                assertThat(ExecutionProfile.current()).isSameAs(inner);
+            }
+            assertThat(ExecutionProfile.current()).isSameAs(outer);
+        }
+        assertThat(ExecutionProfile.current()).isNull();
+    }
+}
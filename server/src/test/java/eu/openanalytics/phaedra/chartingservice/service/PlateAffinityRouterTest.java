@@ -0,0 +1,129 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class PlateAffinityRouterTest {
+
+    private static final String SERVICE_ID = "phaedra-charting-service";
+    private static final int PLATES = 3000;
+
+    private DiscoveryClient discoveryClient;
+    private List<ServiceInstance> instances;
+
+    @BeforeEach
+    public void before() {
+        discoveryClient = mock(DiscoveryClient.class);
+        instances = new ArrayList<>(List.of(instance("10.0.0.1"), instance("10.0.0.2"), instance("10.0.0.3")));
+        doReturn(instances).when(discoveryClient).getInstances(SERVICE_ID);
+    }
+
+    @Test
+    public void spreadsPlatesOverInstances() throws Exception {
+        PlateAffinityRouter router = createRouter();
+
+        Map<String, Integer> plateCounts = new HashMap<>();
+        for (long plateId = 1; plateId <= PLATES; plateId++) {
+            plateCounts.merge(getOwner(router, plateId), 1, Integer::sum);
+        }
+
+        assertThat(plateCounts).containsOnlyKeys("local", "10.0.0.2", "10.0.0.3");
+        assertThat(plateCounts.values()).allSatisfy(count -> assertThat(count).isBetween(PLATES / 5, PLATES / 2));
+    }
+
+    @Test
+    public void routesSamePlateToSameInstance() throws Exception {
+        PlateAffinityRouter router = createRouter();
+        PlateAffinityRouter otherRouter = createRouter();
+
+        for (long plateId = 1; plateId <= 100; plateId++) {
+            assertThat(getOwner(otherRouter, plateId)).isEqualTo(getOwner(router, plateId));
+        }
+    }
+
+    @Test
+    public void movesOnlyPlatesOfAddedInstance() throws Exception {
+        PlateAffinityRouter router = createRouter();
+        Map<Long, String> owners = new HashMap<>();
+        for (long plateId = 1; plateId <= PLATES; plateId++) {
+            owners.put(plateId, getOwner(router, plateId));
+        }
+
+        instances.add(instance("10.0.0.4"));
+        router.refresh();
+
+        int moved = 0;
+        for (long plateId = 1; plateId <= PLATES; plateId++) {
+            String owner = getOwner(router, plateId);
+            if (owner.equals(owners.get(plateId))) continue;
+            assertThat(owner).isEqualTo("10.0.0.4");
+            moved++;
+        }
+        assertThat(moved).isBetween(PLATES / 8, PLATES * 3 / 8);
+    }
+
+    @Test
+    public void keepsLastKnownInstancesWhenDiscoveryFails() throws Exception {
+        PlateAffinityRouter router = createRouter();
+        String owner = getOwner(router, 42L);
+
+        doThrow(new IllegalStateException("Kubernetes API unavailable")).when(discoveryClient).getInstances(SERVICE_ID);
+        router.refresh();
+
+        assertThat(getOwner(router, 42L)).isEqualTo(owner);
+    }
+
+    @Test
+    public void ownsAllPlatesWithoutInstances() throws Exception {
+        instances.clear();
+        PlateAffinityRouter router = createRouter();
+
+        assertThat(router.getOwner(42L)).isNull();
+    }
+
+    private PlateAffinityRouter createRouter() throws Exception {
+        return new PlateAffinityRouter(discoveryClient, SERVICE_ID, "10.0.0.1", 8080, 100);
+    }
+
+    private static String getOwner(PlateAffinityRouter router, long plateId) {
+        ServiceInstance owner = router.getOwner(plateId);
+        return owner == null ? "local" : owner.getHost();
+    }
+
+    private static ServiceInstance instance(String host) {
+        return new DefaultServiceInstance(host, SERVICE_ID, host, 8080, false);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import eu.openanalytics.phaedra.chartingservice.support.TokenEndpoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ServiceAccountTest {
+
+    private TokenEndpoint tokenEndpoint;
+
+    @BeforeEach
+    public void before() throws Exception {
+        tokenEndpoint = new TokenEndpoint();
+    }
+
+    @AfterEach
+    public void after() {
+        tokenEndpoint.close();
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void runsJobWithAccessToken() throws Exception {
+        ServiceAccount serviceAccount = tokenEndpoint.createServiceAccount();
+
+        Authentication authentication = serviceAccount.runAs(() -> SecurityContextHolder.getContext().getAuthentication());
+
+        assertThat(authentication).isInstanceOf(JwtAuthenticationToken.class);
+        assertThat(((JwtAuthenticationToken) authentication).getToken().getTokenValue()).isEqualTo(TokenEndpoint.ACCESS_TOKEN);
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+        assertThat(tokenEndpoint.getLastRequest())
+                .contains("grant_type=client_credentials")
+                .contains("client_id=" + TokenEndpoint.CLIENT_ID);
+    }
+
+    @Test
+    public void reusesTokenUntilShortlyBeforeExpiry() throws Exception {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        ServiceAccount serviceAccount = tokenEndpoint.createServiceAccount(clock, Duration.ofMinutes(5));
+
+        serviceAccount.runAs(() -> null);
+        clock.instant = clock.instant.plus(Duration.ofMinutes(4));
+        serviceAccount.runAs(() -> null);
+        assertThat(tokenEndpoint.getRequestCount()).isEqualTo(1);
+
+        clock.instant = clock.instant.plus(Duration.ofSeconds(45));
+        serviceAccount.runAs(() -> null);
+        assertThat(tokenEndpoint.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void refusedTokenFailsJob() {
+        tokenEndpoint.refuse();
+        ServiceAccount serviceAccount = tokenEndpoint.createServiceAccount();
+
+        assertThatThrownBy(() -> serviceAccount.runAs(() -> "charts"))
+                .isInstanceOf(ChartDataException.class)
+                .hasMessageContaining(TokenEndpoint.CLIENT_ID);
+    }
+
+    private static class MutableClock extends Clock {
+
+        private volatile Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.testcontainers.utility.DockerImageName;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -157,4 +158,32 @@ public class SettingServiceTest {
         assertThat(settings.size()).isEqualTo(0);
     }
 
+    @Test
+    public void replaceSettings() {
+        //Keep 1000 with a new value, drop 2000, move 3000 from chart to axis settings, drop 4000 and add a new chart setting
+        SettingDTO changed = settingService.getSettingById(1000L);
+        changed.setValue("11");
+        SettingDTO moved = settingService.getSettingById(3000L);
+        SettingDTO added = new SettingDTO();
+        added.setName("color");
+        added.setValue("red");
+
+        Map<SettingType, List<SettingDTO>> settings = settingService.replaceSettings(1000L, List.of(changed, moved), List.of(added));
+
+        assertThat(settings.get(SettingType.AXIS)).extracting(SettingDTO::getId).containsExactly(1000L, 3000L);
+        assertThat(settings.get(SettingType.CHART)).hasSize(1);
+        assertThat(settings.get(SettingType.CHART).get(0).getId()).isNotNull();
+        assertThat(settingService.getSettingById(1000L).getValue()).isEqualTo("11");
+        assertThat(settingService.getSettingsByChartTemplateId(1000L, SettingType.AXIS)).extracting(SettingDTO::getId).containsExactlyInAnyOrder(1000L, 3000L);
+        assertThat(settingService.getSettingsByChartTemplateId(1000L, SettingType.CHART)).extracting(SettingDTO::getName).containsExactly("color");
+    }
+
+    @Test
+    public void replaceSettingsWithoutSettings() {
+        Map<SettingType, List<SettingDTO>> settings = settingService.replaceSettings(1000L, null, List.of());
+
+        assertThat(settings).isEmpty();
+        assertThat(settingService.getSettingsByChartTemplateId(1000L, SettingType.AXIS)).isEmpty();
+        assertThat(settingService.getSettingsByChartTemplateId(1000L, SettingType.CHART)).isEmpty();
+    }
 }
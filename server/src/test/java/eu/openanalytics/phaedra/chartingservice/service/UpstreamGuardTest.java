@@ -0,0 +1,179 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.service;
+
+import eu.openanalytics.phaedra.chartingservice.exception.ChartDataException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UpstreamGuardTest {
+
+    private static final String CLIENT = "plateservice";
+
+    private SimpleMeterRegistry meterRegistry;
+    private StandardEnvironment environment;
+    private UpstreamGuard upstreamGuard;
+    private ExecutorService executorService;
+
+    @BeforeEach
+    public void before() {
+        meterRegistry = new SimpleMeterRegistry();
+        environment = new StandardEnvironment();
+        upstreamGuard = new UpstreamGuard(environment, meterRegistry);
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void after() {
+        upstreamGuard.shutdown();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void resultAndClientExceptionArePassedOn() throws Exception {
+        assertThat(upstreamGuard.call(CLIENT, () -> "wells")).isEqualTo("wells");
+        assertThatThrownBy(() -> upstreamGuard.call(CLIENT, () -> {
+            throw new IOException("Plate 1 not found");
+        })).isInstanceOf(IOException.class).hasMessage("Plate 1 not found");
+    }
+
+    @Test
+    public void slowCallTimesOut() {
+        configure("timeout", "100ms");
+
+        assertThatThrownBy(() -> upstreamGuard.call(CLIENT, () -> {
+            Thread.sleep(5000);
+            return "wells";
+        })).isInstanceOf(ChartDataException.class).hasMessageContaining("timed out");
+        assertThat(meterRegistry.get("chart.upstream.timeouts").tag("client", CLIENT).counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void callsBeyondBulkheadAreRejected() throws Exception {
+        configure("max-concurrent-calls", "1");
+        configure("max-queued-calls", "1");
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            executorService.submit(() -> upstreamGuard.call(CLIENT, () -> {
+                release.await();
+                return "wells";
+            }));
+        }
+        while (meterRegistry.find("executor.queued").tag("name", "upstream." + CLIENT).gauge() == null
+                || meterRegistry.get("executor.queued").tag("name", "upstream." + CLIENT).gauge().value() < 1) {
+            Thread.sleep(10);
+        }
+
+        assertThatThrownBy(() -> upstreamGuard.call(CLIENT, () -> "wells"))
+                .isInstanceOf(ChartDataException.class)
+                .hasMessageContaining("rejected");
+        assertThat(meterRegistry.get("chart.upstream.rejections").tag("client", CLIENT).counter().count()).isEqualTo(1);
+        // Another service has a bulkhead of its own
+        assertThat(upstreamGuard.call("resultdataservice", () -> "result data")).isEqualTo("result data");
+        release.countDown();
+    }
+
+    @Test
+    public void hedgedCallAnswersForSlowCall() throws Exception {
+        configure("hedge-after", "50ms");
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String result = upstreamGuard.call(CLIENT, () -> {
+            if (calls.incrementAndGet() == 1) Thread.sleep(5000);
+            return "wells";
+        });
+
+        assertThat(result).isEqualTo("wells");
+        assertThat(System.nanoTime() - start).isLessThan(2_000_000_000L);
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(meterRegistry.get("chart.upstream.hedges").tag("outcome", "won").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void callsAreRejectedWithoutQueue() throws Exception {
+        configure("max-concurrent-calls", "1");
+        configure("max-queued-calls", "0");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executorService.submit(() -> upstreamGuard.call(CLIENT, () -> {
+            started.countDown();
+            release.await();
+            return "wells";
+        }));
+        started.await();
+
+        assertThatThrownBy(() -> upstreamGuard.call(CLIENT, () -> "wells"))
+                .isInstanceOf(ChartDataException.class)
+                .hasMessageContaining("rejected");
+        release.countDown();
+    }
+
+    @Test
+    public void hedgedCallAnswersForFailedCall() throws Exception {
+        configure("hedge-after", "50ms");
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = upstreamGuard.call(CLIENT, () -> {
+            if (calls.incrementAndGet() == 1) {
+                Thread.sleep(100);
+                throw new IOException("Connection reset");
+            }
+            Thread.sleep(300);
+            return "wells";
+        });
+
+        assertThat(result).isEqualTo("wells");
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(meterRegistry.get("chart.upstream.hedges").tag("outcome", "won").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void hedgedCallFailsWhenBothCallsFail() {
+        configure("hedge-after", "50ms");
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> upstreamGuard.call(CLIENT, () -> {
+            int call = calls.incrementAndGet();
+            Thread.sleep(100);
+            throw new IOException("Connection reset " + call);
+        })).isInstanceOf(IOException.class).hasMessageStartingWith("Connection reset");
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    private void configure(String property, String value) {
+        environment.getPropertySources().addFirst(new MapPropertySource(property, Map.of("phaedra2.charting.upstream." + CLIENT + "." + property, value)));
+    }
+}
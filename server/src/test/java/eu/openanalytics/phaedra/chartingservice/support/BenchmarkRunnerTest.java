@@ -0,0 +1,41 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.runner.RunnerException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the JMH benchmarks of the test sources. Run with {@code -Dbenchmark=true} for all benchmarks,
+ * or with {@code -Dbenchmark=<regex>} for the benchmarks whose name matches, e.g. {@code -Dbenchmark=ChartEncodingBenchmark}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = ".+")
+public class BenchmarkRunnerTest {
+
+    @Test
+    public void benchmarks() throws RunnerException {
+        String benchmark = System.getProperty("benchmark");
+        assertThat(Benchmarks.run("true".equals(benchmark) ? "eu\\.openanalytics\\.phaedra\\.chartingservice\\." : benchmark)).isNotEmpty();
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.support;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Runs JMH benchmarks with the GC profiler, and prints the score and the normalized allocation rate (bytes per operation) of every benchmark.
+ * An increase of the allocation rate is often the first sign of a regression, and is much less noisy than the score.
+ */
+public class Benchmarks {
+
+    private static final String ALLOCATION_RATE = "gc.alloc.rate.norm";
+
+    /**
+     * Runs every benchmark whose fully qualified name (class name and method) matches the given regular expression.
+     */
+    public static Collection<RunResult> run(String include) throws RunnerException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+        for (RunResult result : results) {
+            String params = result.getParams().getParamsKeys().stream()
+                    .map(key -> key + "=" + result.getParams().getParam(key))
+                    .collect(Collectors.joining(", "));
+            Result<?> allocationRate = result.getSecondaryResults().get(ALLOCATION_RATE);
+            System.out.printf("%s (%s): %.1f %s, %.0f B/op%n", result.getParams().getBenchmark(), params,
+                    result.getPrimaryResult().getScore(), result.getPrimaryResult().getScoreUnit(),
+                    allocationRate == null ? Double.NaN : allocationRate.getScore());
+        }
+        return results;
+    }
+}
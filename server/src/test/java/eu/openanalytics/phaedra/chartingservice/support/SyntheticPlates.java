@@ -0,0 +1,234 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.chartingservice.service.ChartDataService;
+import eu.openanalytics.phaedra.chartingservice.service.ChartMetrics;
+import eu.openanalytics.phaedra.chartingservice.service.ChartRequestCoalescer;
+import eu.openanalytics.phaedra.chartingservice.service.ChartResultCache;
+import eu.openanalytics.phaedra.chartingservice.service.ChartService;
+import eu.openanalytics.phaedra.chartingservice.service.ChartTemplateService;
+import eu.openanalytics.phaedra.chartingservice.service.UpstreamClient;
+import eu.openanalytics.phaedra.chartingservice.service.UpstreamGuard;
+import eu.openanalytics.phaedra.chartingservice.service.WellLayoutCache;
+import eu.openanalytics.phaedra.plateservice.client.PlateServiceClient;
+import eu.openanalytics.phaedra.plateservice.dto.PlateMeasurementDTO;
+import eu.openanalytics.phaedra.plateservice.dto.WellDTO;
+import eu.openanalytics.phaedra.plateservice.dto.WellSubstanceDTO;
+import eu.openanalytics.phaedra.plateservice.enumeration.WellStatus;
+import eu.openanalytics.phaedra.protocolservice.client.ProtocolServiceClient;
+import eu.openanalytics.phaedra.protocolservice.dto.FeatureDTO;
+import eu.openanalytics.phaedra.resultdataservice.client.ResultDataServiceClient;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultDataDTO;
+import eu.openanalytics.phaedra.resultdataservice.dto.ResultSetDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Mocked plate, protocol and result data services serving synthetic plates of a given size with a given number of features,
+ * for benchmarks and load tests. Every plate has one active measurement, control wells in the first and last column
+ * and a compound per four sample wells.
+ * <p>
+ * By default every request for the latest result set of a plate returns a new result set, so chart results are never served from the chart result cache,
+ * while the well layouts of the plates are (the case of a plate that has been recalculated). With {@link #stableResultSets()} each plate keeps one result set.
+ * Every call can be delayed by a fixed latency, see {@link #latency(Duration)}, and can be required to be authenticated, see {@link #requireBearerToken(String)}.
+ */
+public class SyntheticPlates {
+
+    public static final long PROTOCOL_ID = 1L;
+    public static final long MEASUREMENT_ID = 1L;
+
+    private final int wellsPerPlate;
+    private final List<FeatureDTO> features = new ArrayList<>();
+    private final List<ResultDataDTO> resultData = new ArrayList<>();
+    private final Map<Long, List<WellDTO>> wells = new ConcurrentHashMap<>();
+    private final AtomicLong resultSetIds = new AtomicLong();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile String requiredBearerToken;
+    private volatile boolean stableResultSets;
+
+    private final PlateServiceClient plateServiceClient = mock(PlateServiceClient.class);
+    private final ProtocolServiceClient protocolServiceClient = mock(ProtocolServiceClient.class);
+    private final ResultDataServiceClient resultDataServiceClient = mock(ResultDataServiceClient.class);
+
+    public SyntheticPlates(int wellsPerPlate, int featureCount) throws Exception {
+        this.wellsPerPlate = wellsPerPlate;
+        Random random = new Random(wellsPerPlate * 31L + featureCount);
+        for (long featureId = 1; featureId <= featureCount; featureId++) {
+            features.add(FeatureDTO.builder().id(featureId).protocolId(PROTOCOL_ID).name("Feature " + featureId).build());
+            float[] values = new float[wellsPerPlate];
+            for (int i = 0; i < wellsPerPlate; i++) {
+                values[i] = (float) (random.nextGaussian() * 10 + 100);
+            }
+            resultData.add(ResultDataDTO.builder().id(featureId).featureId(featureId).values(values).build());
+        }
+
+        doAnswer(delayed(invocation -> wells.computeIfAbsent(invocation.getArgument(0), this::createWells)))
+                .when(plateServiceClient).getWells(anyLong());
+        doAnswer(delayed(invocation -> List.of(PlateMeasurementDTO.builder().id(invocation.getArgument(0)).plateId(invocation.getArgument(0))
+                .measurementId(MEASUREMENT_ID).active(Boolean.TRUE).build())))
+                .when(plateServiceClient).getPlateMeasurements(anyLong());
+        doAnswer(delayed(invocation -> createResultSet(invocation.getArgument(0))))
+                .when(resultDataServiceClient).getLatestResultSetByPlateIdAndMeasId(anyLong(), anyLong());
+        doAnswer(delayed(invocation -> createResultSet(invocation.getArgument(0))))
+                .when(resultDataServiceClient).getLatestResultSetByPlateIdAndProtocolId(anyLong(), anyLong());
+        doAnswer(delayed(invocation -> resultData))
+                .when(resultDataServiceClient).getResultData(anyLong());
+        doAnswer(delayed(invocation -> resultData.get((int) (long) invocation.getArgument(1) - 1)))
+                .when(resultDataServiceClient).getResultData(anyLong(), anyLong());
+        doAnswer(delayed(invocation -> features))
+                .when(protocolServiceClient).getFeaturesOfProtocol(anyLong());
+        doAnswer(delayed(invocation -> features.get((int) (long) invocation.getArgument(0) - 1)))
+                .when(protocolServiceClient).getFeature(anyLong());
+    }
+
+    /**
+     * Delays every call to the mocked services by the given latency.
+     */
+    public SyntheticPlates latency(Duration latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Returns the same result set for a plate on every call, so chart results can be served from the chart result cache.
+     */
+    public SyntheticPlates stableResultSets() {
+        this.stableResultSets = true;
+        return this;
+    }
+
+    /**
+     * Rejects every call to the mocked services that is not made in a security context with the given bearer token,
+     * as the real services do with the calls of the upstream clients outside of a request.
+     */
+    public SyntheticPlates requireBearerToken(String token) {
+        this.requiredBearerToken = token;
+        return this;
+    }
+
+    public List<FeatureDTO> getFeatures() {
+        return features;
+    }
+
+    public PlateServiceClient getPlateServiceClient() {
+        return plateServiceClient;
+    }
+
+    public ProtocolServiceClient getProtocolServiceClient() {
+        return protocolServiceClient;
+    }
+
+    public ResultDataServiceClient getResultDataServiceClient() {
+        return resultDataServiceClient;
+    }
+
+    public UpstreamClient createUpstreamClient(ChartMetrics chartMetrics, MeterRegistry meterRegistry) {
+        return new UpstreamClient(plateServiceClient, protocolServiceClient, resultDataServiceClient, chartMetrics,
+                new UpstreamGuard(new StandardEnvironment(), meterRegistry));
+    }
+
+    public ChartService createChartService(ChartTemplateService chartTemplateService, ExecutorService chartRenderExecutor) {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ChartMetrics chartMetrics = new ChartMetrics(meterRegistry);
+        UpstreamClient upstreamClient = createUpstreamClient(chartMetrics, meterRegistry);
+        return new ChartService(upstreamClient, new ChartRequestCoalescer(meterRegistry), createChartResultCache(meterRegistry, chartMetrics), chartTemplateService,
+                createWellLayoutCache(upstreamClient, meterRegistry), chartMetrics, chartRenderExecutor);
+    }
+
+    public ChartService createChartService() {
+        return createChartService(mock(ChartTemplateService.class), Executors.newSingleThreadExecutor());
+    }
+
+    public ChartDataService createChartDataService() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ChartMetrics chartMetrics = new ChartMetrics(meterRegistry);
+        UpstreamClient upstreamClient = createUpstreamClient(chartMetrics, meterRegistry);
+        return new ChartDataService(upstreamClient, new ChartRequestCoalescer(meterRegistry), createChartResultCache(meterRegistry, chartMetrics),
+                createWellLayoutCache(upstreamClient, meterRegistry), chartMetrics);
+    }
+
+    private static ChartResultCache createChartResultCache(MeterRegistry meterRegistry, ChartMetrics chartMetrics) {
+        return new ChartResultCache(new ObjectMapper(), meterRegistry, chartMetrics, 16 * 1024 * 1024, Duration.ofMinutes(1));
+    }
+
+    private static WellLayoutCache createWellLayoutCache(UpstreamClient upstreamClient, MeterRegistry meterRegistry) {
+        return new WellLayoutCache(upstreamClient, meterRegistry, 1000, Duration.ofHours(1));
+    }
+
+    private Answer<Object> delayed(Answer<Object> answer) {
+        return invocation -> {
+            if (!latency.isZero()) Thread.sleep(latency.toMillis());
+            if (requiredBearerToken != null && !isAuthenticatedWith(requiredBearerToken)) {
+                throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+            }
+            return answer.answer(invocation);
+        };
+    }
+
+    private static boolean isAuthenticatedWith(String token) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication instanceof JwtAuthenticationToken && token.equals(((JwtAuthenticationToken) authentication).getToken().getTokenValue());
+    }
+
+    private ResultSetDTO createResultSet(Long plateId) {
+        return ResultSetDTO.builder().id(stableResultSets ? plateId : resultSetIds.incrementAndGet()).plateId(plateId).measId(MEASUREMENT_ID).protocolId(PROTOCOL_ID).build();
+    }
+
+    private List<WellDTO> createWells(Long plateId) {
+        // 384 wells are laid out as 16 x 24, 1536 wells as 32 x 48
+        int rows = (int) Math.round(Math.sqrt(wellsPerPlate * 2 / 3.0));
+        int columns = wellsPerPlate / rows;
+        List<WellDTO> plateWells = new ArrayList<>(wellsPerPlate);
+        for (int i = 0; i < wellsPerPlate; i++) {
+            int row = i / columns + 1;
+            int column = i % columns + 1;
+            String wellType = column == 1 ? "LC" : column == columns ? "HC" : "SAMPLE";
+            WellSubstanceDTO substance = new WellSubstanceDTO();
+            substance.setName(wellType.equals("SAMPLE") ? "CPD-" + (plateId * wellsPerPlate + i) / 4 : wellType);
+            plateWells.add(WellDTO.builder().id(plateId * wellsPerPlate + i + 1).plateId(plateId).row(row).column(column)
+                    .wellType(wellType).status(WellStatus.ACCEPTED).wellSubstance(substance).build());
+        }
+        return plateWells;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.chartingservice.support;
+
+import com.sun.net.httpserver.HttpServer;
+import eu.openanalytics.phaedra.chartingservice.service.ServiceAccount;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process OAuth2 token endpoint, issuing access tokens to a {@link ServiceAccount} with the client credentials grant.
+ * Every token is valid for the configured lifetime, counted from the time of the given clock.
+ */
+public class TokenEndpoint implements AutoCloseable {
+
+    public static final String ACCESS_TOKEN = "service-account-token";
+    public static final String CLIENT_ID = "phaedra-charting-service";
+
+    private final HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile String lastRequest;
+    private volatile int status = 200;
+
+    public TokenEndpoint() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/token", exchange -> {
+            requestCount.incrementAndGet();
+            lastRequest = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] response = status == 200
+                    ? ("{\"access_token\":\"" + ACCESS_TOKEN + "\",\"token_type\":\"Bearer\"}").getBytes(StandardCharsets.UTF_8)
+                    : "{\"error\":\"unauthorized_client\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    public ServiceAccount createServiceAccount(Clock clock, Duration tokenLifetime) {
+        return new ServiceAccount(new RestTemplateBuilder(),
+                token -> Jwt.withTokenValue(token).header("alg", "RS256").subject(CLIENT_ID)
+                        .issuedAt(clock.instant()).expiresAt(clock.instant().plus(tokenLifetime)).build(),
+                clock, "http://127.0.0.1:" + server.getAddress().getPort() + "/token", CLIENT_ID, "secret", "");
+    }
+
+    public ServiceAccount createServiceAccount() {
+        return createServiceAccount(Clock.systemUTC(), Duration.ofMinutes(5));
+    }
+
+    /**
+     * Makes the endpoint refuse to issue tokens.
+     */
+    public void refuse() {
+        status = 401;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public String getLastRequest() {
+        return lastRequest;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}